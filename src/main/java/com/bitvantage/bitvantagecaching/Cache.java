@@ -51,5 +51,10 @@ public class Cache<P extends PartitionKey, V> {
             InterruptedException {
         store.putAll(contents);
     }
+
+    public void remove(final P key) throws BitvantageStoreException,
+            InterruptedException {
+        store.delete(key);
+    }
     
 }
@@ -0,0 +1,100 @@
+/*
+ * Copyright 2020 Public Transit Analytics.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bitvantage.bitvantagecaching;
+
+import java.io.ByteArrayOutputStream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Deflates the bytes produced by another serializer. Suited to large text
+ * values, such as those from {@link GsonSerializer}, that are kept in memory
+ * and read far more often than they are written.
+ *
+ * @author Public Transit Analytics
+ */
+public class DeflateSerializer<V> implements ValueSerializer<V> {
+
+    private static final int BUFFER_SIZE = 4096;
+
+    private final ValueSerializer<V> serializer;
+    private final int level;
+
+    public DeflateSerializer(final ValueSerializer<V> serializer) {
+        this(serializer, Deflater.DEFAULT_COMPRESSION);
+    }
+
+    public DeflateSerializer(final ValueSerializer<V> serializer,
+                             final int level) {
+        this.serializer = serializer;
+        this.level = level;
+    }
+
+    @Override
+    public byte[] getBytes(final V value) throws BitvantageStoreException {
+        return deflate(serializer.getBytes(value), level);
+    }
+
+    @Override
+    public V getValue(final byte[] bytes) throws BitvantageStoreException {
+        return serializer.getValue(inflate(bytes));
+    }
+
+    public static byte[] deflate(final byte[] bytes, final int level) {
+        final Deflater deflater = new Deflater(level);
+        try {
+            deflater.setInput(bytes);
+            deflater.finish();
+            final ByteArrayOutputStream output = new ByteArrayOutputStream(
+                    Math.max(64, bytes.length / 4));
+            final byte[] buffer = new byte[BUFFER_SIZE];
+            while (!deflater.finished()) {
+                final int length = deflater.deflate(buffer);
+                output.write(buffer, 0, length);
+            }
+            return output.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    public static byte[] inflate(final byte[] bytes)
+            throws BitvantageStoreException {
+        final Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(bytes);
+            final ByteArrayOutputStream output = new ByteArrayOutputStream(
+                    bytes.length * 4);
+            final byte[] buffer = new byte[BUFFER_SIZE];
+            while (!inflater.finished()) {
+                final int length = inflater.inflate(buffer);
+                if (length == 0 && (inflater.needsInput()
+                                            || inflater.needsDictionary())) {
+                    throw new BitvantageStoreException(
+                            "Compressed value is truncated.");
+                }
+                output.write(buffer, 0, length);
+            }
+            return output.toByteArray();
+        } catch (final DataFormatException e) {
+            throw new BitvantageStoreException(e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+}
@@ -17,6 +17,7 @@ package com.bitvantage.bitvantagecaching;
 
 import com.google.gson.Gson;
 import com.google.gson.reflect.TypeToken;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 
 /**
@@ -50,4 +51,11 @@ public class GsonSerializer<V> implements ValueSerializer<V> {
         return gson.fromJson(json, typeToken.getType());
     }
 
+    @Override
+    public V readValue(final ByteBuffer buffer) {
+        final String json = StandardCharsets.UTF_8.decode(
+                buffer.duplicate()).toString();
+        return gson.fromJson(json, typeToken.getType());
+    }
+
 }
@@ -15,20 +15,25 @@
  */
 package com.bitvantage.bitvantagecaching;
 
+import lombok.EqualsAndHashCode;
 import lombok.Getter;
 import lombok.RequiredArgsConstructor;
+import lombok.ToString;
 
 /**
+ * A range key ordered by the signed value of a long.
  *
  * @author Matt Laquidara
  */
 @RequiredArgsConstructor
+@EqualsAndHashCode
+@ToString
 public class LongKey implements RangeKey<LongKey> {
 
     private static final LongKey MIN
-            = new LongKey(0);
+            = new LongKey(Long.MIN_VALUE);
     private static final LongKey MAX
-            = new LongKey(0xFFFFFFFFFFFFFFFFL);
+            = new LongKey(Long.MAX_VALUE);
 
     @Getter
     private final long value;
@@ -0,0 +1,33 @@
+/*
+ * Copyright 2020 Public Transit Analytics.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bitvantage.bitvantagecaching;
+
+import com.google.common.collect.Range;
+
+/**
+ * Divides the range key space into aligned buckets, so that fetches for
+ * overlapping requests are widened to the same bounds.
+ *
+ * @author Public Transit Analytics
+ */
+public interface RangeBucketer<R extends RangeKey<R>> {
+
+    /**
+     * @return The closed bucket containing the key. Buckets must not overlap.
+     */
+    Range<R> getBucket(R key);
+
+}
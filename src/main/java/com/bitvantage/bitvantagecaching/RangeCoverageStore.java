@@ -0,0 +1,55 @@
+/*
+ * Copyright 2020 Public Transit Analytics.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bitvantage.bitvantagecaching;
+
+import com.google.common.collect.Range;
+import com.google.common.collect.RangeSet;
+import java.util.Map;
+
+/**
+ * A ranged store that also records which ranges of each partition have been
+ * fully populated, so that a cache built on it can recover its coverage.
+ *
+ * @author Public Transit Analytics
+ */
+public interface RangeCoverageStore<P extends PartitionKey, R extends RangeKey<R>, V>
+        extends RangedStore<P, R, V> {
+
+    /**
+     * Get the ranges of a partition that have been recorded as covered.
+     *
+     * @param partition The partition to look up.
+     * @return The covered ranges, empty if nothing has been recorded.
+     * @throws BitvantageStoreException
+     * @throws InterruptedException
+     */
+    RangeSet<R> getCoverage(P partition)
+            throws BitvantageStoreException, InterruptedException;
+
+    /**
+     * Store values and record their range as covered in a single atomic
+     * operation.
+     *
+     * @param partition The partition in which to place the values.
+     * @param range The range the values completely describe.
+     * @param entries The values to store.
+     * @throws BitvantageStoreException
+     * @throws InterruptedException
+     */
+    void putCoveredRange(P partition, Range<R> range, Map<R, V> entries)
+            throws BitvantageStoreException, InterruptedException;
+
+}
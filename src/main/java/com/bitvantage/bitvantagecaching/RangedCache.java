@@ -34,4 +34,7 @@ public interface RangedCache<P extends PartitionKey, R extends RangeKey<R>, V> {
     public void put(P partition, R range, V value)
             throws InterruptedException, BitvantageStoreException;
 
+    public void invalidate(P partition)
+            throws InterruptedException, BitvantageStoreException;
+
 }
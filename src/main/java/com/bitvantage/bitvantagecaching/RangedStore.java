@@ -17,6 +17,7 @@ package com.bitvantage.bitvantagecaching;
 
 import java.util.Map;
 import java.util.NavigableMap;
+import java.util.function.BiFunction;
 
 /**
  *
@@ -53,4 +54,51 @@ public interface RangedStore<P extends PartitionKey, R extends RangeKey<R>, V> {
 
     boolean isEmpty() throws BitvantageStoreException, InterruptedException;
 
+    void deletePartition(P partition)
+            throws BitvantageStoreException, InterruptedException;
+
+    /**
+     * Count the values in [min, max] without materializing them. Stores
+     * should override this to count inside the store.
+     */
+    default long countInRange(P partition, R min, R max)
+            throws InterruptedException, BitvantageStoreException {
+        return getValuesInRange(partition, min, max).size();
+    }
+
+    /**
+     * @return The lowest key in [min, max], or null if there is none.
+     */
+    default R getFirstKeyInRange(P partition, R min, R max)
+            throws InterruptedException, BitvantageStoreException {
+        final NavigableMap<R, V> values = getValuesInRange(
+                partition, min, max);
+        return values.isEmpty() ? null : values.firstKey();
+    }
+
+    /**
+     * @return The highest key in [min, max], or null if there is none.
+     */
+    default R getLastKeyInRange(P partition, R min, R max)
+            throws InterruptedException, BitvantageStoreException {
+        final NavigableMap<R, V> values = getValuesInRange(
+                partition, min, max);
+        return values.isEmpty() ? null : values.lastKey();
+    }
+
+    /**
+     * Fold the values in [min, max] in key order, starting from identity.
+     * The accumulator should be associative so that stores may apply it
+     * page by page.
+     */
+    default <A> A reduceInRange(P partition, R min, R max, A identity,
+                                BiFunction<A, ? super V, A> accumulator)
+            throws InterruptedException, BitvantageStoreException {
+        A result = identity;
+        for (final V value : getValuesInRange(partition, min, max).values()) {
+            result = accumulator.apply(result, value);
+        }
+        return result;
+    }
+
 }
@@ -0,0 +1,273 @@
+/*
+ * Copyright 2020 Public Transit Analytics.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bitvantage.bitvantagecaching;
+
+import com.google.common.base.Ticker;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalCause;
+import com.google.common.collect.Range;
+import com.google.common.collect.RangeMap;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Watches the windows requested from each partition and, once two
+ * consecutive requests move in the same direction, fetches the following
+ * windows into a ranged cache in the background. Pending fetches for a
+ * partition are cancelled when its pattern breaks, and the number of fetches
+ * in flight across all partitions is bounded. A partition that has not been
+ * requested for the idle expiry is forgotten, cancelling its pending
+ * fetches.
+ *
+ * @author Public Transit Analytics
+ */
+@Slf4j
+public class SequentialRangePrefetcher<P extends PartitionKey, R extends RangeKey<R>, V> {
+
+    private enum Direction {
+        ASCENDING, DESCENDING, NONE
+    }
+
+    private static final Duration DEFAULT_IDLE_EXPIRY = Duration.ofMinutes(10);
+
+    private final RangedStore<P, R, V> store;
+    private final RangedCache<P, R, V> cache;
+    private final RangeWindowStepper<R> stepper;
+    private final ExecutorService executor;
+    private final int depth;
+    private final Semaphore budget;
+    private final Cache<P, ScanState> scans;
+
+    public SequentialRangePrefetcher(final RangedStore<P, R, V> store,
+                                     final RangedCache<P, R, V> cache,
+                                     final RangeWindowStepper<R> stepper,
+                                     final ExecutorService executor,
+                                     final int depth, final int maxInFlight) {
+        this(store, cache, stepper, executor, depth, maxInFlight,
+             DEFAULT_IDLE_EXPIRY);
+    }
+
+    /**
+     * @param idleExpiry How long the scan state of a partition is kept
+     * after its last request.
+     */
+    public SequentialRangePrefetcher(final RangedStore<P, R, V> store,
+                                     final RangedCache<P, R, V> cache,
+                                     final RangeWindowStepper<R> stepper,
+                                     final ExecutorService executor,
+                                     final int depth, final int maxInFlight,
+                                     final Duration idleExpiry) {
+        this(store, cache, stepper, executor, depth, maxInFlight, idleExpiry,
+             Ticker.systemTicker());
+    }
+
+    SequentialRangePrefetcher(final RangedStore<P, R, V> store,
+                              final RangedCache<P, R, V> cache,
+                              final RangeWindowStepper<R> stepper,
+                              final ExecutorService executor,
+                              final int depth, final int maxInFlight,
+                              final Duration idleExpiry,
+                              final Ticker ticker) {
+        this.store = store;
+        this.cache = cache;
+        this.stepper = stepper;
+        this.executor = executor;
+        this.depth = depth;
+        this.budget = new Semaphore(maxInFlight);
+        this.scans = CacheBuilder.newBuilder()
+                .expireAfterAccess(idleExpiry.toNanos(), TimeUnit.NANOSECONDS)
+                .ticker(ticker)
+                .<P, ScanState>removalListener(removal -> {
+                    if (removal.getCause() != RemovalCause.REPLACED) {
+                        synchronized (this) {
+                            removal.getValue().cancelAll();
+                        }
+                    }
+                })
+                .build();
+    }
+
+    /**
+     * Record a request for a window, schedule prefetches if it continues a
+     * sequential scan, and wait for any prefetch of that same window that is
+     * already in flight.
+     */
+    public void prefetch(final P partition, final R min, final R max)
+            throws InterruptedException {
+        final Future<?> inFlight = observe(partition, min, max);
+        if (inFlight != null) {
+            try {
+                inFlight.get();
+            } catch (final ExecutionException | CancellationException e) {
+                log.debug("Prefetch of {} [{}, {}] did not complete.",
+                          partition, min, max, e);
+            }
+        }
+    }
+
+    private synchronized Future<?> observe(final P partition, final R min,
+                                           final R max) {
+        scans.cleanUp();
+        ScanState state = scans.getIfPresent(partition);
+        if (state == null) {
+            state = new ScanState();
+            scans.put(partition, state);
+        }
+
+        final Direction direction;
+        if (state.lastMin == null) {
+            direction = Direction.NONE;
+        } else if (min.compareTo(state.lastMax) > 0) {
+            direction = Direction.ASCENDING;
+        } else if (max.compareTo(state.lastMin) < 0) {
+            direction = Direction.DESCENDING;
+        } else {
+            direction = Direction.NONE;
+        }
+
+        final Range<R> requested = Range.closed(min, max);
+        final Future<?> inFlight = state.pending.remove(requested);
+        state.tasks.remove(requested);
+
+        if (direction == Direction.NONE || direction != state.direction) {
+            state.cancelAll();
+        }
+        if (direction != Direction.NONE && direction == state.direction) {
+            schedule(partition, state, requested, direction);
+        }
+
+        state.lastMin = min;
+        state.lastMax = max;
+        state.direction = direction;
+        return inFlight;
+    }
+
+    private void schedule(final P partition, final ScanState state,
+                          final Range<R> requested,
+                          final Direction direction) {
+        Range<R> window = requested;
+        for (int i = 0; i < depth; i++) {
+            window = (direction == Direction.ASCENDING)
+                    ? stepper.getNextWindow(window.lowerEndpoint(),
+                                            window.upperEndpoint())
+                    : stepper.getPreviousWindow(window.lowerEndpoint(),
+                                                window.upperEndpoint());
+            if (window == null) {
+                return;
+            }
+            if (state.pending.containsKey(window)) {
+                continue;
+            }
+            if (!budget.tryAcquire()) {
+                return;
+            }
+            final PrefetchTask task = new PrefetchTask(partition, window);
+            state.pending.put(window, executor.submit(task));
+            state.tasks.put(window, task);
+        }
+    }
+
+    private synchronized void complete(final P partition,
+                                       final Range<R> window) {
+        final ScanState state = scans.getIfPresent(partition);
+        if (state != null) {
+            state.pending.remove(window);
+            state.tasks.remove(window);
+        }
+    }
+
+    private class ScanState {
+
+        private R lastMin = null;
+        private R lastMax = null;
+        private Direction direction = Direction.NONE;
+        private final Map<Range<R>, Future<?>> pending
+                = new LinkedHashMap<>();
+        private final Map<Range<R>, PrefetchTask> tasks = new HashMap<>();
+
+        private void cancelAll() {
+            for (final Future<?> future : pending.values()) {
+                future.cancel(true);
+            }
+            for (final PrefetchTask task : tasks.values()) {
+                task.release();
+            }
+            pending.clear();
+            tasks.clear();
+        }
+
+    }
+
+    private class PrefetchTask implements Runnable {
+
+        private final P partition;
+        private final Range<R> window;
+        private final AtomicBoolean released;
+
+        private PrefetchTask(final P partition, final Range<R> window) {
+            this.partition = partition;
+            this.window = window;
+            this.released = new AtomicBoolean(false);
+        }
+
+        @Override
+        public void run() {
+            try {
+                final RangeMap<R, RangeStatus<R, V>> status = cache.getRange(
+                        partition, window.lowerEndpoint(),
+                        window.upperEndpoint());
+                for (final Map.Entry<Range<R>, RangeStatus<R, V>> entry
+                             : status.asMapOfRanges().entrySet()) {
+                    if (entry.getValue().isCached()) {
+                        continue;
+                    }
+                    final R lower = entry.getKey().lowerEndpoint();
+                    final R upper = entry.getKey().upperEndpoint();
+                    final NavigableMap<R, V> values
+                            = store.getValuesInRange(partition, lower, upper);
+                    cache.putRange(partition, lower, upper, values);
+                }
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (final BitvantageStoreException e) {
+                log.warn("Could not prefetch {} {}.", partition, window, e);
+            } finally {
+                release();
+                complete(partition, window);
+            }
+        }
+
+        private void release() {
+            if (released.compareAndSet(false, true)) {
+                budget.release();
+            }
+        }
+
+    }
+
+}
@@ -40,5 +40,8 @@ public interface Store<K extends PartitionKey, V> {
 
     boolean isEmpty() throws BitvantageStoreException, 
             InterruptedException;
+
+    void delete(K key) throws BitvantageStoreException,
+            InterruptedException;
     
 }
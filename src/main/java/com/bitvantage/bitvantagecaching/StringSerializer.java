@@ -15,6 +15,7 @@
  */
 package com.bitvantage.bitvantagecaching;
 
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 
 /**
@@ -32,5 +33,10 @@ public class StringSerializer implements ValueSerializer<String> {
     public String getValue(final byte[] bytes) {
         return new String(bytes, StandardCharsets.UTF_8);
     }
+
+    @Override
+    public String readValue(final ByteBuffer buffer) {
+        return StandardCharsets.UTF_8.decode(buffer.duplicate()).toString();
+    }
     
 }
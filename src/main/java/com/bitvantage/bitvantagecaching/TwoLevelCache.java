@@ -26,5 +26,7 @@ public interface TwoLevelCache<P extends PartitionKey, V> {
 
     void put(P key, V value) throws InterruptedException,
             BitvantageStoreException;
+
+    void remove(P key) throws InterruptedException, BitvantageStoreException;
     
 }
@@ -15,12 +15,15 @@
  */
 package com.bitvantage.bitvantagecaching;
 
+import com.google.common.collect.BoundType;
 import com.google.common.collect.ImmutableSortedMap;
 import com.google.common.collect.Ordering;
 import com.google.common.collect.Range;
 import com.google.common.collect.RangeMap;
 import java.util.Map;
 import java.util.NavigableMap;
+import java.util.SortedMap;
+import java.util.function.BiFunction;
 
 /**
  *
@@ -31,18 +34,44 @@ public class TwoLevelCachingRangedStore<P extends PartitionKey, R extends RangeK
 
     private final RangedConditionedStore<P, R, V> store;
     private final RangedCache<P, R, V> cache;
+    private final SequentialRangePrefetcher<P, R, V> prefetcher;
+    private final RangeBucketer<R> bucketer;
 
     public TwoLevelCachingRangedStore(
             final RangedConditionedStore<P, R, V> store,
             final RangedCache<P, R, V> cache) {
+        this(store, cache, null, null);
+    }
+
+    public TwoLevelCachingRangedStore(
+            final RangedConditionedStore<P, R, V> store,
+            final RangedCache<P, R, V> cache,
+            final SequentialRangePrefetcher<P, R, V> prefetcher) {
+        this(store, cache, prefetcher, null);
+    }
+
+    /**
+     * @param bucketer If present, widens each fetch from the backing store to
+     * whole buckets so that cached coverage is made of aligned buckets.
+     */
+    public TwoLevelCachingRangedStore(
+            final RangedConditionedStore<P, R, V> store,
+            final RangedCache<P, R, V> cache,
+            final SequentialRangePrefetcher<P, R, V> prefetcher,
+            final RangeBucketer<R> bucketer) {
         this.store = store;
         this.cache = cache;
+        this.prefetcher = prefetcher;
+        this.bucketer = bucketer;
     }
 
     @Override
     public NavigableMap<R, V> getValuesInRange(
             final P partition, final R min, final R max)
             throws InterruptedException, BitvantageStoreException {
+        if (prefetcher != null) {
+            prefetcher.prefetch(partition, min, max);
+        }
         final RangeMap<R, RangeStatus<R, V>> response
                 = cache.getRange(partition, min, max);
 
@@ -54,18 +83,134 @@ public class TwoLevelCachingRangedStore<P extends PartitionKey, R extends RangeK
             if (entry.getValue().isCached()) {
                 responseBuilder.putAll(entry.getValue().getValues());
             } else {
-                final NavigableMap<R, V> values = store.getValuesInRange(
-                        partition, entry.getKey().lowerEndpoint(),
-                        entry.getKey().upperEndpoint());
-
-                responseBuilder.putAll(values);
-                cache.putRange(partition, min, max, values);
+                responseBuilder.putAll(fetch(partition, entry.getKey()));
             }
         }
 
         return responseBuilder.build();
     }
 
+    /**
+     * Fetch an uncached gap from the store. The fetch and the cached
+     * coverage use closed bounds, widened to buckets if there is a bucketer,
+     * but only the keys inside the gap are returned, so that keys already
+     * cached at an open end of the gap are not returned twice.
+     */
+    private NavigableMap<R, V> fetch(final P partition, final Range<R> range)
+            throws InterruptedException, BitvantageStoreException {
+        final R lower = range.lowerEndpoint();
+        final R upper = range.upperEndpoint();
+        final R fetchMin = (bucketer == null)
+                ? lower : bucketer.getBucket(lower).lowerEndpoint();
+        final R fetchMax = (bucketer == null)
+                ? upper : bucketer.getBucket(upper).upperEndpoint();
+        final NavigableMap<R, V> values = store.getValuesInRange(
+                partition, fetchMin, fetchMax);
+        cache.putRange(partition, fetchMin, fetchMax, values);
+        return values.subMap(
+                lower, range.lowerBoundType() == BoundType.CLOSED,
+                upper, range.upperBoundType() == BoundType.CLOSED);
+    }
+
+    /**
+     * Counts, edge keys and reductions are computed from the cache where
+     * it covers part of the range, with only the gaps fetched from the store
+     * and cached. If none of the range is cached, the store computes them
+     * itself.
+     */
+    @Override
+    public long countInRange(final P partition, final R min, final R max)
+            throws InterruptedException, BitvantageStoreException {
+        final RangeMap<R, RangeStatus<R, V>> response
+                = cache.getRange(partition, min, max);
+        if (!isPartlyCached(response)) {
+            return store.countInRange(partition, min, max);
+        }
+        long count = 0;
+        for (final Map.Entry<Range<R>, RangeStatus<R, V>> entry : response
+                .asMapOfRanges().entrySet()) {
+            count += getValues(partition, entry).size();
+        }
+        return count;
+    }
+
+    @Override
+    public R getFirstKeyInRange(final P partition, final R min, final R max)
+            throws InterruptedException, BitvantageStoreException {
+        final RangeMap<R, RangeStatus<R, V>> response
+                = cache.getRange(partition, min, max);
+        if (!isPartlyCached(response)) {
+            return store.getFirstKeyInRange(partition, min, max);
+        }
+        for (final Map.Entry<Range<R>, RangeStatus<R, V>> entry : response
+                .asMapOfRanges().entrySet()) {
+            final SortedMap<R, V> values = getValues(partition, entry);
+            if (!values.isEmpty()) {
+                return values.firstKey();
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public R getLastKeyInRange(final P partition, final R min, final R max)
+            throws InterruptedException, BitvantageStoreException {
+        final RangeMap<R, RangeStatus<R, V>> response
+                = cache.getRange(partition, min, max);
+        if (!isPartlyCached(response)) {
+            return store.getLastKeyInRange(partition, min, max);
+        }
+        for (final Map.Entry<Range<R>, RangeStatus<R, V>> entry : response
+                .asDescendingMapOfRanges().entrySet()) {
+            final SortedMap<R, V> values = getValues(partition, entry);
+            if (!values.isEmpty()) {
+                return values.lastKey();
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public <A> A reduceInRange(final P partition, final R min, final R max,
+                               final A identity,
+                               final BiFunction<A, ? super V, A> accumulator)
+            throws InterruptedException, BitvantageStoreException {
+        final RangeMap<R, RangeStatus<R, V>> response
+                = cache.getRange(partition, min, max);
+        if (!isPartlyCached(response)) {
+            return store.reduceInRange(partition, min, max, identity,
+                                       accumulator);
+        }
+        A result = identity;
+        for (final Map.Entry<Range<R>, RangeStatus<R, V>> entry : response
+                .asMapOfRanges().entrySet()) {
+            for (final V value : getValues(partition, entry).values()) {
+                result = accumulator.apply(result, value);
+            }
+        }
+        return result;
+    }
+
+    private boolean isPartlyCached(
+            final RangeMap<R, RangeStatus<R, V>> response) {
+        for (final RangeStatus<R, V> status
+             : response.asMapOfRanges().values()) {
+            if (status.isCached()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private SortedMap<R, V> getValues(
+            final P partition,
+            final Map.Entry<Range<R>, RangeStatus<R, V>> entry)
+            throws InterruptedException, BitvantageStoreException {
+        return entry.getValue().isCached()
+                ? entry.getValue().getValues()
+                : fetch(partition, entry.getKey());
+    }
+
     @Override
     public NavigableMap<R, V> getValuesAbove(final P partition, final R min)
             throws InterruptedException, BitvantageStoreException {
@@ -111,6 +256,13 @@ public class TwoLevelCachingRangedStore<P extends PartitionKey, R extends RangeK
         return store.isEmpty();
     }
 
+    @Override
+    public void deletePartition(final P partition)
+            throws BitvantageStoreException, InterruptedException {
+        store.deletePartition(partition);
+        cache.invalidate(partition);
+    }
+
     @Override
     public NavigableMap<R, V> getPartition(final P partition) throws
             InterruptedException, BitvantageStoreException {
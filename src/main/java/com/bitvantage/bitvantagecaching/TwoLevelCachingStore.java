@@ -74,4 +74,11 @@ public class TwoLevelCachingStore<K extends PartitionKey, V> implements Store<K,
         store.putAll(entries);
     }
 
+    @Override
+    public void delete(K key) throws InterruptedException,
+            BitvantageStoreException {
+        store.delete(key);
+        cache.remove(key);
+    }
+
 }
@@ -47,4 +47,10 @@ public class UnboundedCache<K extends PartitionKey, V> implements TwoLevelCache<
         store.put(key, value);
     }
 
+    @Override
+    public void remove(K key) throws InterruptedException,
+            BitvantageStoreException {
+        store.delete(key);
+    }
+
 }
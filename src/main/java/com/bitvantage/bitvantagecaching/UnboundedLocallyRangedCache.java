@@ -16,43 +16,137 @@
 package com.bitvantage.bitvantagecaching;
 
 import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.Striped;
+import java.util.AbstractMap;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.NavigableMap;
+import java.util.Queue;
 import java.util.UUID;
-import lombok.RequiredArgsConstructor;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.function.BiFunction;
 
 /**
+ * Serves ranged reads from local copies of partitions that are stored whole
+ * in a backing store. Each partition is copied to the local store at most
+ * once at a time, and the least recently used local copies are deleted once
+ * more than a maximum number are held.
+ *
+ * If a delta store is provided, single writes are recorded there instead of
+ * rewriting the whole partition in the backing store. They are merged back
+ * by {@link #compact}, which runs by itself once a partition has collected a
+ * maximum number of deltas, and when its local copy is evicted. Without a
+ * delta store every single write rewrites its whole partition.
  *
  * @author Public Transit Analytics
  */
-@RequiredArgsConstructor
 public class UnboundedLocallyRangedCache<P extends PartitionKey, R extends RangeKey<R>, V>
         implements RangedStore<P, R, V> {
 
+    private static final int LOCK_STRIPES = 64;
+    private static final int DEFAULT_MAX_DELTAS = 1024;
+
     private final Store<P, Map<R, V>> store;
+    private final RangedStore<P, R, V> deltas;
     private final Cache<P, UUID> cache;
     private final RangedStore<UuidKey, R, V> local;
+    private final int maxLocalPartitions;
+    private final int maxDeltas;
+
+    private final Striped<ReadWriteLock> locks;
+    private final Map<P, UUID> resident;
+    private final Queue<Map.Entry<P, UUID>> evicted;
+    private final ConcurrentMap<P, AtomicLong> deltaCounts;
+
+    public UnboundedLocallyRangedCache(final Store<P, Map<R, V>> store,
+                                       final Cache<P, UUID> cache,
+                                       final RangedStore<UuidKey, R, V> local) {
+        this(store, null, cache, local, Integer.MAX_VALUE);
+    }
+
+    public UnboundedLocallyRangedCache(final Store<P, Map<R, V>> store,
+                                       final RangedStore<P, R, V> deltas,
+                                       final Cache<P, UUID> cache,
+                                       final RangedStore<UuidKey, R, V> local,
+                                       final int maxLocalPartitions) {
+        this(store, deltas, cache, local, maxLocalPartitions,
+             DEFAULT_MAX_DELTAS);
+    }
+
+    /**
+     * @param maxDeltas The number of deltas a partition collects before it
+     * is compacted.
+     */
+    public UnboundedLocallyRangedCache(final Store<P, Map<R, V>> store,
+                                       final RangedStore<P, R, V> deltas,
+                                       final Cache<P, UUID> cache,
+                                       final RangedStore<UuidKey, R, V> local,
+                                       final int maxLocalPartitions,
+                                       final int maxDeltas) {
+        this.store = store;
+        this.deltas = deltas;
+        this.cache = cache;
+        this.local = local;
+        this.maxLocalPartitions = maxLocalPartitions;
+        this.maxDeltas = maxDeltas;
+        this.deltaCounts = new ConcurrentHashMap<>();
+        this.locks = Striped.readWriteLock(LOCK_STRIPES);
+        this.evicted = new ConcurrentLinkedQueue<>();
+        this.resident = new LinkedHashMap<P, UUID>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(
+                    final Map.Entry<P, UUID> eldest) {
+                if (size() > UnboundedLocallyRangedCache.this.maxLocalPartitions) {
+                    evicted.add(new AbstractMap.SimpleImmutableEntry<>(
+                            eldest.getKey(), eldest.getValue()));
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
 
     @Override
     public NavigableMap<R, V> getValuesInRange(
             final P partitionKey, final R min, final R max)
             throws InterruptedException, BitvantageStoreException {
+        return withLocal(partitionKey,
+                         key -> local.getValuesInRange(key, min, max));
+    }
 
-        final CacheResult<P, UUID> cacheResult = cache.get(
-                Collections.singleton(partitionKey));
+    @Override
+    public long countInRange(final P partition, final R min, final R max)
+            throws InterruptedException, BitvantageStoreException {
+        return withLocal(partition,
+                         key -> local.countInRange(key, min, max));
+    }
 
-        final UUID uuid;
-        if (cacheResult.getCachedResults().isEmpty()) {
-            final Map<R, V> partition = store.get(partitionKey);
-            uuid = UUID.randomUUID();
-            local.putAll(new UuidKey(uuid), partition);
-            cache.put(Collections.singletonMap(partitionKey, uuid));
-        } else {
-            uuid = cacheResult.getCachedResults().values().iterator().next();
-        }
+    @Override
+    public R getFirstKeyInRange(final P partition, final R min, final R max)
+            throws InterruptedException, BitvantageStoreException {
+        return withLocal(partition,
+                         key -> local.getFirstKeyInRange(key, min, max));
+    }
+
+    @Override
+    public R getLastKeyInRange(final P partition, final R min, final R max)
+            throws InterruptedException, BitvantageStoreException {
+        return withLocal(partition,
+                         key -> local.getLastKeyInRange(key, min, max));
+    }
 
-        return local.getValuesInRange(new UuidKey(uuid), min, max);
+    @Override
+    public <A> A reduceInRange(final P partition, final R min, final R max,
+                               final A identity,
+                               final BiFunction<A, ? super V, A> accumulator)
+            throws InterruptedException, BitvantageStoreException {
+        return withLocal(partition, key -> local.reduceInRange(
+                key, min, max, identity, accumulator));
     }
 
     @Override
@@ -70,43 +164,79 @@ public class UnboundedLocallyRangedCache<P extends PartitionKey, R extends Range
     @Override
     public NavigableMap<R, V> getNextValues(P partition, R min, int count)
             throws InterruptedException, BitvantageStoreException {
-        final UUID uuid = getPartitionUuid(partition);
-        return local.getNextValues(new UuidKey(uuid), min, count);
+        return withLocal(partition,
+                         key -> local.getNextValues(key, min, count));
     }
 
     @Override
     public NavigableMap<R, V> getHeadValues(P partition, int count) throws
             InterruptedException, BitvantageStoreException {
-        final UUID uuid = getPartitionUuid(partition);
-        return local.getHeadValues(new UuidKey(uuid), count);
+        return withLocal(partition, key -> local.getHeadValues(key, count));
     }
 
     @Override
     public NavigableMap<R, V> getPartition(P partition) throws
             InterruptedException, BitvantageStoreException {
-        final UUID uuid = getPartitionUuid(partition);
-        return local.getPartition(new UuidKey(uuid));
+        return withLocal(partition, key -> local.getPartition(key));
     }
 
     @Override
     public V get(P partition, R rangeValue) throws BitvantageStoreException,
             InterruptedException {
-        final UUID uuid = getPartitionUuid(partition);
-        return local.get(new UuidKey(uuid), rangeValue);
+        return withLocal(partition, key -> local.get(key, rangeValue));
     }
 
     @Override
     public void put(P partition, R rangeValue, V value) throws
             BitvantageStoreException, InterruptedException {
-        final Map<R, V> old = store.get(partition);
-        store.put(partition, ImmutableMap.<R, V>builder().putAll(old)
-                  .put(rangeValue, value).build());
+        final ReadWriteLock lock = locks.get(partition);
+        try {
+            if (deltas == null) {
+                lock.writeLock().lock();
+                try {
+                    store.put(partition, merge(store.get(partition),
+                                               Collections.singletonMap(
+                                                       rangeValue, value)));
+                    putLocal(partition, rangeValue, value);
+                } finally {
+                    lock.writeLock().unlock();
+                }
+            } else {
+                final long count;
+                lock.readLock().lock();
+                try {
+                    final AtomicLong counter = getDeltaCounter(
+                            partition, rangeValue);
+                    deltas.put(partition, rangeValue, value);
+                    putLocal(partition, rangeValue, value);
+                    count = counter.incrementAndGet();
+                } finally {
+                    lock.readLock().unlock();
+                }
+                if (count >= maxDeltas) {
+                    compact(partition);
+                }
+            }
+        } finally {
+            drainEvictions();
+        }
     }
 
     @Override
     public void putAll(P partition, Map<R, V> entries) throws
             BitvantageStoreException, InterruptedException {
-        store.put(partition, entries);
+        final ReadWriteLock lock = locks.get(partition);
+        lock.writeLock().lock();
+        try {
+            store.put(partition, entries);
+            if (deltas != null) {
+                deltas.deletePartition(partition);
+                deltaCounts.remove(partition);
+            }
+            dropLocal(partition);
+        } finally {
+            lock.writeLock().unlock();
+        }
     }
 
     @Override
@@ -115,21 +245,220 @@ public class UnboundedLocallyRangedCache<P extends PartitionKey, R extends Range
         return store.isEmpty();
     }
 
-    private UUID getPartitionUuid(final P partitionKey)
+    @Override
+    public void deletePartition(final P partition)
+            throws BitvantageStoreException, InterruptedException {
+        final ReadWriteLock lock = locks.get(partition);
+        lock.writeLock().lock();
+        try {
+            store.delete(partition);
+            if (deltas != null) {
+                deltas.deletePartition(partition);
+                deltaCounts.remove(partition);
+            }
+            dropLocal(partition);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Merge the writes recorded in the delta store for a partition into the
+     * backing store and clear them.
+     */
+    public void compact(final P partition)
+            throws BitvantageStoreException, InterruptedException {
+        if (deltas == null) {
+            return;
+        }
+        final ReadWriteLock lock = locks.get(partition);
+        lock.writeLock().lock();
+        try {
+            final NavigableMap<R, V> changes = deltas.getPartition(partition);
+            if (!changes.isEmpty()) {
+                store.put(partition, merge(store.get(partition), changes));
+                deltas.deletePartition(partition);
+            }
+            deltaCounts.remove(partition);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return The counter of the deltas of a partition, started from the
+     * number already in the delta store the first time it is written.
+     */
+    private AtomicLong getDeltaCounter(final P partition, final R rangeValue)
             throws BitvantageStoreException, InterruptedException {
+        final AtomicLong counter = deltaCounts.get(partition);
+        if (counter != null) {
+            return counter;
+        }
+        final long count = deltas.countInRange(
+                partition, rangeValue.getRangeMin(),
+                rangeValue.getRangeMax());
+        final AtomicLong created = new AtomicLong(count);
+        final AtomicLong existing = deltaCounts.putIfAbsent(partition,
+                                                            created);
+        return (existing == null) ? created : existing;
+    }
+
+    private static <R, V> Map<R, V> merge(final Map<R, V> old,
+                                          final Map<R, V> changes) {
+        final ImmutableMap.Builder<R, V> builder = ImmutableMap.builder();
+        if (old != null) {
+            for (final Map.Entry<R, V> entry : old.entrySet()) {
+                if (!changes.containsKey(entry.getKey())) {
+                    builder.put(entry);
+                }
+            }
+        }
+        return builder.putAll(changes).build();
+    }
+
+    private <T> T withLocal(final P partition,
+                            final LocalOperation<T> operation)
+            throws BitvantageStoreException, InterruptedException {
+        final ReadWriteLock lock = locks.get(partition);
+        try {
+            lock.readLock().lock();
+            try {
+                final UUID uuid = lookup(partition);
+                if (uuid != null) {
+                    return operation.apply(new UuidKey(uuid));
+                }
+            } finally {
+                lock.readLock().unlock();
+            }
+
+            final UUID uuid;
+            lock.writeLock().lock();
+            try {
+                final UUID existing = lookup(partition);
+                uuid = (existing == null) ? load(partition) : existing;
+                lock.readLock().lock();
+            } finally {
+                lock.writeLock().unlock();
+            }
+            try {
+                return operation.apply(new UuidKey(uuid));
+            } finally {
+                lock.readLock().unlock();
+            }
+        } finally {
+            drainEvictions();
+        }
+    }
+
+    private UUID lookup(final P partition)
+            throws BitvantageStoreException, InterruptedException {
+        synchronized (resident) {
+            final UUID uuid = resident.get(partition);
+            if (uuid != null) {
+                return uuid;
+            }
+        }
         final CacheResult<P, UUID> cacheResult = cache.get(
-                Collections.singleton(partitionKey));
+                Collections.singleton(partition));
+        final UUID uuid = cacheResult.getCachedResults().get(partition);
+        if (uuid != null) {
+            synchronized (resident) {
+                resident.put(partition, uuid);
+            }
+        }
+        return uuid;
+    }
 
-        final UUID uuid;
-        if (cacheResult.getCachedResults().isEmpty()) {
+    private UUID load(final P partitionKey)
+            throws BitvantageStoreException, InterruptedException {
+        final UUID uuid = UUID.randomUUID();
+        final UuidKey localKey = new UuidKey(uuid);
+        boolean loaded = false;
+        try {
             final Map<R, V> partition = store.get(partitionKey);
-            uuid = UUID.randomUUID();
-            local.putAll(new UuidKey(uuid), partition);
+            if (partition != null) {
+                local.putAll(localKey, partition);
+            }
+            if (deltas != null) {
+                local.putAll(localKey, deltas.getPartition(partitionKey));
+            }
             cache.put(Collections.singletonMap(partitionKey, uuid));
-        } else {
-            uuid = cacheResult.getCachedResults().values().iterator().next();
+            loaded = true;
+        } finally {
+            if (!loaded) {
+                local.deletePartition(localKey);
+            }
+        }
+        synchronized (resident) {
+            resident.put(partitionKey, uuid);
         }
         return uuid;
     }
 
+    private void putLocal(final P partition, final R rangeValue,
+                          final V value)
+            throws BitvantageStoreException, InterruptedException {
+        final UUID uuid = lookup(partition);
+        if (uuid != null) {
+            local.put(new UuidKey(uuid), rangeValue, value);
+        }
+    }
+
+    private void dropLocal(final P partition)
+            throws BitvantageStoreException, InterruptedException {
+        UUID uuid;
+        synchronized (resident) {
+            uuid = resident.remove(partition);
+        }
+        final CacheResult<P, UUID> cacheResult = cache.get(
+                Collections.singleton(partition));
+        final UUID cachedUuid = cacheResult.getCachedResults().get(partition);
+        if (cachedUuid != null) {
+            cache.remove(partition);
+            local.deletePartition(new UuidKey(cachedUuid));
+        }
+        if (uuid != null && !uuid.equals(cachedUuid)) {
+            local.deletePartition(new UuidKey(uuid));
+        }
+    }
+
+    private void drainEvictions()
+            throws BitvantageStoreException, InterruptedException {
+        Map.Entry<P, UUID> entry;
+        while ((entry = evicted.poll()) != null) {
+            final P partition = entry.getKey();
+            final UUID uuid = entry.getValue();
+            final ReadWriteLock lock = locks.get(partition);
+            lock.writeLock().lock();
+            try {
+                final boolean revived;
+                synchronized (resident) {
+                    revived = uuid.equals(resident.get(partition));
+                }
+                if (!revived) {
+                    if (deltaCounts.containsKey(partition)) {
+                        compact(partition);
+                    }
+                    final CacheResult<P, UUID> cacheResult = cache.get(
+                            Collections.singleton(partition));
+                    if (uuid.equals(
+                            cacheResult.getCachedResults().get(partition))) {
+                        cache.remove(partition);
+                    }
+                    local.deletePartition(new UuidKey(uuid));
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+    }
+
+    private interface LocalOperation<T> {
+
+        T apply(UuidKey key)
+                throws BitvantageStoreException, InterruptedException;
+
+    }
+
 }
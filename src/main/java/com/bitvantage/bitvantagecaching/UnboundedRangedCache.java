@@ -22,11 +22,15 @@ import com.google.common.collect.Range;
 import com.google.common.collect.RangeMap;
 import com.google.common.collect.RangeSet;
 import com.google.common.collect.TreeRangeSet;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.SortedMap;
 
 /**
+ * Caches ranges of values in a ranged store, tracking which ranges have been
+ * requested. When the store is a {@link RangeCoverageStore}, the requested
+ * ranges are persisted with the values and reloaded lazily per partition.
  *
  * @author Matt Laquidara
  */
@@ -35,9 +39,17 @@ public class UnboundedRangedCache<P extends PartitionKey, R extends RangeKey<R>,
 
     private final Map<P, TreeRangeSet<R>> partitionedRequestedRanges;
     private final RangedStore<P, R, V> store;
+    private final RangeCoverageStore<P, R, V> coverageStore;
 
     public UnboundedRangedCache(final RangedStore store) {
         this.store = store;
+        this.coverageStore = null;
+        partitionedRequestedRanges = new HashMap<>();
+    }
+
+    public UnboundedRangedCache(final RangeCoverageStore<P, R, V> store) {
+        this.store = store;
+        this.coverageStore = store;
         partitionedRequestedRanges = new HashMap<>();
     }
 
@@ -47,9 +59,7 @@ public class UnboundedRangedCache<P extends PartitionKey, R extends RangeKey<R>,
             throws InterruptedException, BitvantageStoreException {
         final Range<R> requestRange = Range.closed(min, max);
 
-        final TreeRangeSet<R> requestedRanges
-                = partitionedRequestedRanges.getOrDefault(
-                        partition, TreeRangeSet.create());
+        final TreeRangeSet<R> requestedRanges = getRequestedRanges(partition);
 
         final RangeMap<R, RangeStatus<R, V>> result;
         if (requestedRanges.encloses(requestRange)) {
@@ -80,7 +90,6 @@ public class UnboundedRangedCache<P extends PartitionKey, R extends RangeKey<R>,
             }
             result = rangeMapBuilder.build();
         }
-        partitionedRequestedRanges.putIfAbsent(partition, requestedRanges);
         return result;
     }
 
@@ -89,26 +98,50 @@ public class UnboundedRangedCache<P extends PartitionKey, R extends RangeKey<R>,
                                       final R requestedMax,
                                       final SortedMap<R, V> values)
             throws InterruptedException, BitvantageStoreException {
-        store.putAll(partition, values);
-        final TreeRangeSet<R> requestedRanges
-                = partitionedRequestedRanges.getOrDefault(
-                        partition, TreeRangeSet.create());
-        requestedRanges.add(Range.closed(requestedMin, requestedMax));
-        partitionedRequestedRanges.putIfAbsent(partition, requestedRanges);
-
+        final Range<R> requestedRange = Range.closed(requestedMin, requestedMax);
+        final TreeRangeSet<R> requestedRanges = getRequestedRanges(partition);
+        if (coverageStore == null) {
+            store.putAll(partition, values);
+        } else {
+            coverageStore.putCoveredRange(partition, requestedRange, values);
+        }
+        requestedRanges.add(requestedRange);
     }
 
     @Override
     public synchronized void put(final P partition, final R range,
                                  final V value)
             throws InterruptedException, BitvantageStoreException {
-        store.put(partition, range, value);
-        final TreeRangeSet<R> requestedRanges
-                = partitionedRequestedRanges.getOrDefault(
-                        partition, TreeRangeSet.create());
-        requestedRanges.add(Range.closed(range, range));
-        partitionedRequestedRanges.putIfAbsent(partition, requestedRanges);
+        final Range<R> requestedRange = Range.closed(range, range);
+        final TreeRangeSet<R> requestedRanges = getRequestedRanges(partition);
+        if (coverageStore == null) {
+            store.put(partition, range, value);
+        } else {
+            coverageStore.putCoveredRange(
+                    partition, requestedRange,
+                    Collections.singletonMap(range, value));
+        }
+        requestedRanges.add(requestedRange);
+    }
+
+    @Override
+    public synchronized void invalidate(final P partition)
+            throws InterruptedException, BitvantageStoreException {
+        partitionedRequestedRanges.remove(partition);
+        store.deletePartition(partition);
+    }
 
+    private TreeRangeSet<R> getRequestedRanges(final P partition)
+            throws InterruptedException, BitvantageStoreException {
+        TreeRangeSet<R> requestedRanges
+                = partitionedRequestedRanges.get(partition);
+        if (requestedRanges == null) {
+            requestedRanges = (coverageStore == null)
+                    ? TreeRangeSet.create()
+                    : TreeRangeSet.create(coverageStore.getCoverage(partition));
+            partitionedRequestedRanges.put(partition, requestedRanges);
+        }
+        return requestedRanges;
     }
 
 }
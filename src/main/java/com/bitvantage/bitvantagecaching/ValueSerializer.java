@@ -15,6 +15,8 @@
  */
 package com.bitvantage.bitvantagecaching;
 
+import java.nio.ByteBuffer;
+
 /**
  *
  * @author Matt Laquidara
@@ -24,5 +26,16 @@ public interface ValueSerializer<V> {
     byte[] getBytes(V value) throws BitvantageStoreException;
     
     V getValue(byte[] bytes) throws BitvantageStoreException;
+
+    /**
+     * Read a value from the remaining bytes of a buffer without moving its
+     * position. Serializers that can decode from a buffer directly should
+     * override this to avoid the copy.
+     */
+    default V readValue(ByteBuffer buffer) throws BitvantageStoreException {
+        final byte[] bytes = new byte[buffer.remaining()];
+        buffer.duplicate().get(bytes);
+        return getValue(bytes);
+    }
     
 }
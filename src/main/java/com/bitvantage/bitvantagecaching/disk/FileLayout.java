@@ -0,0 +1,123 @@
+/*
+ * Copyright 2020 Public Transit Analytics.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bitvantage.bitvantagecaching.disk;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Iterator;
+import java.util.stream.Stream;
+
+/**
+ * Places the files of a {@link FlatFileStore} under its directory. A flat
+ * layout puts every file directly in the directory. A sharded layout nests
+ * files in levels of subdirectories chosen from a hash of the file name, so
+ * each directory holds about 1 / fanOut^levels of the files and lookups do
+ * not slow down as the store grows.
+ *
+ * @author Public Transit Analytics
+ */
+public class FileLayout {
+
+    private static final HashFunction HASH = Hashing.murmur3_128();
+
+    private final int levels;
+    private final int fanOut;
+    private final String shardFormat;
+
+    private FileLayout(final int levels, final int fanOut) {
+        this.levels = levels;
+        this.fanOut = fanOut;
+        final int digits = (fanOut <= 1) ? 1
+                : (Integer.SIZE - Integer.numberOfLeadingZeros(fanOut - 1)
+                           + 3) / 4;
+        this.shardFormat = "%0" + digits + "x";
+    }
+
+    public static FileLayout flat() {
+        return new FileLayout(0, 1);
+    }
+
+    /**
+     * @param levels The number of nested subdirectories above each file.
+     * @param fanOut The number of subdirectories at each level.
+     */
+    public static FileLayout sharded(final int levels, final int fanOut) {
+        if (levels < 1 || fanOut < 2) {
+            throw new IllegalArgumentException(String.format(
+                    "Invalid sharding of %d levels with fan-out %d.",
+                    levels, fanOut));
+        }
+        return new FileLayout(levels, fanOut);
+    }
+
+    public Path resolve(final Path directory, final String name) {
+        if (levels == 0) {
+            return directory.resolve(name);
+        }
+        long hash = HASH.hashString(name, StandardCharsets.UTF_8).asLong();
+        Path shard = directory;
+        for (int i = 0; i < levels; i++) {
+            shard = shard.resolve(String.format(
+                    shardFormat, Math.floorMod(hash, fanOut)));
+            hash = Math.floorDiv(hash, fanOut);
+        }
+        return shard.resolve(name);
+    }
+
+    /**
+     * @return The regular files at the depth this layout places them. The
+     * stream must be closed.
+     */
+    public Stream<Path> list(final Path directory) throws IOException {
+        return Files.find(directory, levels + 1,
+                          (path, attributes) -> attributes.isRegularFile());
+    }
+
+    boolean isSharded() {
+        return levels > 0;
+    }
+
+    /**
+     * Move every file of a store into a new directory with another layout,
+     * one file at a time. Files already moved are no longer found in the
+     * source, so an interrupted migration can be run again. The target
+     * should be on the same file system, where each move is a rename.
+     */
+    public static void migrate(final Path source, final FileLayout from,
+                               final Path target, final FileLayout to)
+            throws IOException {
+        try (final Stream<Path> files = from.list(source)) {
+            final Iterator<Path> iterator = files.iterator();
+            while (iterator.hasNext()) {
+                final Path file = iterator.next();
+                final Path destination = to.resolve(
+                        target, file.getFileName().toString());
+                Files.createDirectories(destination.getParent());
+                Files.move(file, destination,
+                           StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (final UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+}
@@ -18,9 +18,15 @@ package com.bitvantage.bitvantagecaching.disk;
 import com.bitvantage.bitvantagecaching.PartitionKey;
 
 /**
+ * Maps keys to file names and back. Names must be valid on the target file
+ * system and distinct for distinct keys.
  *
  * @author Matt Laquidara
  */
 public interface FileManager<K extends PartitionKey> {
+
     String getName(K key);
+
+    K getKey(String name);
+
 }
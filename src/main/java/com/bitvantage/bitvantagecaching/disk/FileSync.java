@@ -0,0 +1,196 @@
+/*
+ * Copyright 2020 Public Transit Analytics.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bitvantage.bitvantagecaching.disk;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Decides when the files written by a {@link FlatFileStore} are forced to
+ * disk. Readers never see a partial value, whatever the mode. Across a crash
+ * of the operating system, replaced files hold either the old or the new
+ * value only when syncing each write or in groups, which force a file's
+ * data before renaming it into place; without syncing, a file written
+ * shortly before the crash may be left empty or partial.
+ *
+ * With group syncing, the directories of changed files, and files appended
+ * to in place, are forced together once enough writes have accumulated, or
+ * whenever {@link #sync()} runs, for instance on a timer set up with
+ * {@link #schedule}. Replaced files are not forced again, as their data was
+ * forced before the rename. Writes made since the last sync may be lost in
+ * a crash, leaving the previous value in place.
+ *
+ * An instance keeps track of pending writes and should serve one store.
+ *
+ * @author Public Transit Analytics
+ */
+@Slf4j
+public class FileSync {
+
+    private enum Mode {
+        NONE, EACH_WRITE, GROUP
+    }
+
+    private final Mode mode;
+    private final int groupSize;
+    private final Set<Path> pendingFiles;
+    private final Set<Path> pendingDirectories;
+    private int pendingWrites;
+
+    private FileSync(final Mode mode, final int groupSize) {
+        this.mode = mode;
+        this.groupSize = groupSize;
+        this.pendingFiles = new LinkedHashSet<>();
+        this.pendingDirectories = new LinkedHashSet<>();
+        this.pendingWrites = 0;
+    }
+
+    /**
+     * Leave flushing to the operating system. A crash of the operating
+     * system may leave recently written files empty or partial.
+     */
+    public static FileSync none() {
+        return new FileSync(Mode.NONE, 0);
+    }
+
+    /**
+     * Force each file and its directory before the write returns.
+     */
+    public static FileSync eachWrite() {
+        return new FileSync(Mode.EACH_WRITE, 0);
+    }
+
+    /**
+     * Force each file's data before it replaces another, and the changed
+     * directories together after every groupSize writes.
+     */
+    public static FileSync group(final int groupSize) {
+        return new FileSync(Mode.GROUP, groupSize);
+    }
+
+    /**
+     * Run {@link #sync()} at a fixed delay in addition to any size-based
+     * syncs.
+     */
+    public ScheduledFuture<?> schedule(final ScheduledExecutorService scheduler,
+                                       final long delay, final TimeUnit unit) {
+        return scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                sync();
+            } catch (final IOException e) {
+                log.warn("Group sync failed.", e);
+            }
+        }, delay, delay, unit);
+    }
+
+    /**
+     * Force all files appended to since the last sync, then the directories
+     * of files created, replaced or removed.
+     */
+    public void sync() throws IOException {
+        final Set<Path> files;
+        final Set<Path> directories;
+        synchronized (this) {
+            if (pendingWrites == 0) {
+                return;
+            }
+            files = new LinkedHashSet<>(pendingFiles);
+            directories = new LinkedHashSet<>(pendingDirectories);
+            pendingFiles.clear();
+            pendingDirectories.clear();
+            pendingWrites = 0;
+        }
+
+        for (final Path file : files) {
+            force(file);
+        }
+        for (final Path directory : directories) {
+            force(directory);
+        }
+    }
+
+    boolean syncsEachWrite() {
+        return mode == Mode.EACH_WRITE;
+    }
+
+    /**
+     * @return Whether a file's data is forced before it replaces another.
+     */
+    boolean forcesBeforeReplace() {
+        return mode != Mode.NONE;
+    }
+
+    /**
+     * Record that a file was appended to, without changing its directory.
+     * The file's contents have already been forced if this syncs each
+     * write.
+     */
+    void appended(final Path file) throws IOException {
+        if (mode == Mode.GROUP) {
+            final boolean full;
+            synchronized (this) {
+                pendingFiles.add(file);
+                full = ++pendingWrites >= groupSize;
+            }
+            if (full) {
+                sync();
+            }
+        }
+    }
+
+    /**
+     * Record that a file was created, replaced or removed. The file's
+     * contents have already been forced if this syncs each write.
+     */
+    void changed(final Path file) throws IOException {
+        switch (mode) {
+            case EACH_WRITE:
+                force(file.getParent());
+                break;
+            case GROUP:
+                final boolean full;
+                synchronized (this) {
+                    pendingDirectories.add(file.getParent());
+                    full = ++pendingWrites >= groupSize;
+                }
+                if (full) {
+                    sync();
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    private static void force(final Path path) throws IOException {
+        try (final FileChannel channel = FileChannel.open(
+                path, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (final NoSuchFileException e) {
+            log.debug("{} was removed before it was synced.", path);
+        }
+    }
+
+}
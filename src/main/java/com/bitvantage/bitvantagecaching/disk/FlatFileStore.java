@@ -18,36 +18,114 @@ package com.bitvantage.bitvantagecaching.disk;
 import com.bitvantage.bitvantagecaching.BitvantageStoreException;
 import com.bitvantage.bitvantagecaching.PartitionKey;
 import com.bitvantage.bitvantagecaching.Store;
+import com.google.common.collect.ImmutableMap;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
-import lombok.RequiredArgsConstructor;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
 import com.bitvantage.bitvantagecaching.ValueSerializer;
 
 /**
+ * Stores each value in its own file, named by a {@link FileManager}. Bulk
+ * writes can be spread over an executor, whose size bounds the number of
+ * files written at once.
+ *
+ * Values are written to a temporary file in the same directory and renamed
+ * over the target, so readers never see a partial value. How often writes
+ * are forced to disk, and so whether a crash of the operating system can
+ * leave a partial value, is set by a {@link FileSync}. File names
+ * beginning with "." and ending in ".tmp" are reserved for temporary files.
+ * A {@link FileLayout} can spread files over subdirectories, and reads can
+ * go through memory mappings held by a {@link MappedFileCache}.
  *
  * @author Matt Laquidara
  */
-@RequiredArgsConstructor
 public class FlatFileStore<K extends PartitionKey, V> implements Store<K, V> {
 
+    private static final String TEMP_PREFIX = ".";
+    private static final String TEMP_SUFFIX = ".tmp";
+
     private final Path directory;
     private final FileManager<K> fileManager;
     private final ValueSerializer<V> serializer;
+    private final ExecutorService ioExecutor;
+    private final FileSync sync;
+    private final FileLayout layout;
+    private final MappedFileCache mappings;
+
+    public FlatFileStore(final Path directory,
+                         final FileManager<K> fileManager,
+                         final ValueSerializer<V> serializer) {
+        this(directory, fileManager, serializer, null);
+    }
+
+    public FlatFileStore(final Path directory,
+                         final FileManager<K> fileManager,
+                         final ValueSerializer<V> serializer,
+                         final ExecutorService ioExecutor) {
+        this(directory, fileManager, serializer, ioExecutor, FileSync.none());
+    }
+
+    public FlatFileStore(final Path directory,
+                         final FileManager<K> fileManager,
+                         final ValueSerializer<V> serializer,
+                         final ExecutorService ioExecutor,
+                         final FileSync sync) {
+        this(directory, fileManager, serializer, ioExecutor, sync,
+             FileLayout.flat());
+    }
+
+    public FlatFileStore(final Path directory,
+                         final FileManager<K> fileManager,
+                         final ValueSerializer<V> serializer,
+                         final ExecutorService ioExecutor,
+                         final FileSync sync, final FileLayout layout) {
+        this(directory, fileManager, serializer, ioExecutor, sync, layout,
+             null);
+    }
+
+    public FlatFileStore(final Path directory,
+                         final FileManager<K> fileManager,
+                         final ValueSerializer<V> serializer,
+                         final ExecutorService ioExecutor,
+                         final FileSync sync, final FileLayout layout,
+                         final MappedFileCache mappings) {
+        this.directory = directory;
+        this.fileManager = fileManager;
+        this.serializer = serializer;
+        this.ioExecutor = ioExecutor;
+        this.sync = sync;
+        this.layout = layout;
+        this.mappings = mappings;
+    }
 
     @Override
     public boolean containsKey(final K key) throws BitvantageStoreException,
             InterruptedException {
-        return Files.exists(directory.resolve(fileManager.getName(key)));
+        return Files.exists(getFile(key));
     }
 
     @Override
     public V get(final K key) throws BitvantageStoreException,
             InterruptedException {
+        final Path file = getFile(key);
         try {
-            return serializer.getValue(Files.readAllBytes(
-                    directory.resolve(fileManager.getName(key))));
+            if (mappings != null) {
+                return serializer.readValue(mappings.read(file));
+            }
+            return serializer.getValue(Files.readAllBytes(file));
         } catch (final IOException e) {
             throw new BitvantageStoreException(e);
         }
@@ -56,9 +134,31 @@ public class FlatFileStore<K extends PartitionKey, V> implements Store<K, V> {
     @Override
     public void put(final K key, final V value) throws BitvantageStoreException,
             InterruptedException {
+        final byte[] bytes = serializer.getBytes(value);
+        final Path file = getFile(key);
         try {
-            Files.write(directory.resolve(fileManager.getName(key)),
-                        serializer.getBytes(value));
+            if (layout.isSharded()) {
+                Files.createDirectories(file.getParent());
+            }
+            final Path temporary = Files.createTempFile(
+                    file.getParent(), TEMP_PREFIX, TEMP_SUFFIX);
+            try {
+                try (final FileChannel channel = FileChannel.open(
+                        temporary, StandardOpenOption.WRITE)) {
+                    final ByteBuffer buffer = ByteBuffer.wrap(bytes);
+                    while (buffer.hasRemaining()) {
+                        channel.write(buffer);
+                    }
+                    if (sync.forcesBeforeReplace()) {
+                        channel.force(true);
+                    }
+                }
+                Files.move(temporary, file, StandardCopyOption.ATOMIC_MOVE,
+                           StandardCopyOption.REPLACE_EXISTING);
+            } finally {
+                Files.deleteIfExists(temporary);
+            }
+            sync.changed(file);
         } catch (final IOException e) {
             throw new BitvantageStoreException(e);
         }
@@ -67,19 +167,98 @@ public class FlatFileStore<K extends PartitionKey, V> implements Store<K, V> {
     @Override
     public void putAll(final Map<K, V> entries) throws BitvantageStoreException,
             InterruptedException {
-        throw new UnsupportedOperationException("Not supported yet.");
+        if (ioExecutor == null) {
+            for (final Map.Entry<K, V> entry : entries.entrySet()) {
+                put(entry.getKey(), entry.getValue());
+            }
+            return;
+        }
+
+        final List<Future<?>> writes = new ArrayList<>(entries.size());
+        try {
+            for (final Map.Entry<K, V> entry : entries.entrySet()) {
+                writes.add(ioExecutor.submit(() -> {
+                    put(entry.getKey(), entry.getValue());
+                    return null;
+                }));
+            }
+            for (final Future<?> write : writes) {
+                write.get();
+            }
+        } catch (final ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof BitvantageStoreException) {
+                throw (BitvantageStoreException) cause;
+            }
+            if (cause instanceof InterruptedException) {
+                throw (InterruptedException) cause;
+            }
+            throw new BitvantageStoreException(e);
+        } finally {
+            for (final Future<?> write : writes) {
+                write.cancel(true);
+            }
+        }
     }
 
     @Override
     public Map<K, V> getAll() throws BitvantageStoreException,
             InterruptedException {
-        throw new UnsupportedOperationException("Not supported yet.");
+        final ImmutableMap.Builder<K, V> builder = ImmutableMap.builder();
+        try (final Stream<Path> files = layout.list(directory)) {
+            final Iterator<Path> iterator = files.iterator();
+            while (iterator.hasNext()) {
+                final Path file = iterator.next();
+                if (isTemporary(file)) {
+                    continue;
+                }
+                builder.put(fileManager.getKey(file.getFileName().toString()),
+                            serializer.getValue(Files.readAllBytes(file)));
+            }
+        } catch (final IOException e) {
+            throw new BitvantageStoreException(e);
+        } catch (final UncheckedIOException e) {
+            throw new BitvantageStoreException(e.getCause());
+        }
+        return builder.build();
     }
 
     @Override
     public boolean isEmpty() throws BitvantageStoreException,
             InterruptedException {
-        throw new UnsupportedOperationException("Not supported yet.");
+        try (final Stream<Path> files = layout.list(directory)) {
+            return !files.filter(file -> !isTemporary(file))
+                    .findAny().isPresent();
+        } catch (final IOException e) {
+            throw new BitvantageStoreException(e);
+        } catch (final UncheckedIOException e) {
+            throw new BitvantageStoreException(e.getCause());
+        }
+    }
+
+    @Override
+    public void delete(final K key) throws BitvantageStoreException,
+            InterruptedException {
+        try {
+            final Path file = getFile(key);
+            if (mappings != null) {
+                mappings.invalidate(file);
+            }
+            if (Files.deleteIfExists(file)) {
+                sync.changed(file);
+            }
+        } catch (final IOException e) {
+            throw new BitvantageStoreException(e);
+        }
+    }
+
+    private Path getFile(final K key) {
+        return layout.resolve(directory, fileManager.getName(key));
+    }
+
+    private static boolean isTemporary(final Path file) {
+        final String name = file.getFileName().toString();
+        return name.startsWith(TEMP_PREFIX) && name.endsWith(TEMP_SUFFIX);
     }
 
 }
@@ -0,0 +1,755 @@
+/*
+ * Copyright 2020 Public Transit Analytics.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bitvantage.bitvantagecaching.disk;
+
+import com.bitvantage.bitvantagecaching.BitvantageStoreException;
+import com.bitvantage.bitvantagecaching.PartitionKey;
+import com.bitvantage.bitvantagecaching.Store;
+import com.bitvantage.bitvantagecaching.ValueSerializer;
+import com.bitvantage.bitvantagecaching.lmdb.KeyManager;
+import com.google.common.collect.ImmutableMap;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * An append-only store. Puts and deletes are appended as checksummed
+ * records to the current segment file, and an in-memory index maps each key
+ * to the location of its latest record. Segments are rolled at a fixed
+ * size, at which point a checksummed hint file listing their keys and
+ * offsets is written, so that the index can be rebuilt on startup without
+ * reading values. A hint file that fails its checksum or points past the
+ * end of its segment is ignored and the segment is scanned instead.
+ *
+ * Compaction copies the live records of segments that have become mostly
+ * stale to the end of the log and deletes them. A tombstone counts as live
+ * while an older segment still holds a record of its key, and is dropped by
+ * compaction once none does. It runs when
+ * {@link #compact()} is called, for instance on a timer set up with
+ * {@link #schedule}, and blocks other operations while it copies each
+ * segment.
+ *
+ * @author Public Transit Analytics
+ */
+@Slf4j
+public class LogStructuredStore<K extends PartitionKey, V>
+        implements Store<K, V>, Closeable {
+
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final String HINT_SUFFIX = ".hint";
+    private static final String SEGMENT_FORMAT = "%016d";
+    private static final int HEADER_BYTES = 12;
+    private static final int TOMBSTONE = -1;
+    private static final double DEFAULT_COMPACTION_THRESHOLD = 0.5;
+
+    private final Path directory;
+    private final KeyManager<K> keyManager;
+    private final ValueSerializer<V> serializer;
+    private final long segmentSize;
+    private final double compactionThreshold;
+    private final FileSync sync;
+
+    private final ReadWriteLock lock;
+    private final Map<String, Location> index;
+    private final NavigableMap<Long, Segment> segments;
+    private Segment active;
+
+    public LogStructuredStore(final Path directory,
+                              final KeyManager<K> keyManager,
+                              final ValueSerializer<V> serializer,
+                              final long segmentSize)
+            throws BitvantageStoreException {
+        this(directory, keyManager, serializer, segmentSize,
+             DEFAULT_COMPACTION_THRESHOLD, FileSync.none());
+    }
+
+    /**
+     * @param segmentSize The size at which a segment is closed.
+     * @param compactionThreshold The fraction of a segment that must still
+     * be live for compaction to leave it alone.
+     * @param sync When appended records are forced to disk. The directory
+     * is only forced when a segment or hint file is created or removed.
+     */
+    public LogStructuredStore(final Path directory,
+                              final KeyManager<K> keyManager,
+                              final ValueSerializer<V> serializer,
+                              final long segmentSize,
+                              final double compactionThreshold,
+                              final FileSync sync)
+            throws BitvantageStoreException {
+        this.directory = directory;
+        this.keyManager = keyManager;
+        this.serializer = serializer;
+        this.segmentSize = segmentSize;
+        this.compactionThreshold = compactionThreshold;
+        this.sync = sync;
+
+        lock = new ReentrantReadWriteLock();
+        index = new HashMap<>();
+        segments = new TreeMap<>();
+        try {
+            Files.createDirectories(directory);
+            recover();
+        } catch (final IOException e) {
+            throw new BitvantageStoreException(e);
+        }
+    }
+
+    @Override
+    public boolean containsKey(final K key) {
+        final String keyString = keyManager.createKeyString(key);
+        lock.readLock().lock();
+        try {
+            return index.containsKey(keyString);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public V get(final K key) throws BitvantageStoreException {
+        final String keyString = keyManager.createKeyString(key);
+        final byte[] valueBytes;
+        lock.readLock().lock();
+        try {
+            final Location location = index.get(keyString);
+            if (location == null) {
+                return null;
+            }
+            valueBytes = readValue(location);
+        } catch (final IOException e) {
+            throw new BitvantageStoreException(e);
+        } finally {
+            lock.readLock().unlock();
+        }
+        return serializer.getValue(valueBytes);
+    }
+
+    @Override
+    public void put(final K key, final V value)
+            throws BitvantageStoreException {
+        final byte[] keyBytes = getKeyBytes(key);
+        final byte[] valueBytes = serializer.getBytes(value);
+        lock.writeLock().lock();
+        try {
+            write(keyBytes, valueBytes);
+        } catch (final IOException e) {
+            throw new BitvantageStoreException(e);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void putAll(final Map<K, V> entries)
+            throws BitvantageStoreException {
+        final List<byte[]> keys = new ArrayList<>(entries.size());
+        final List<byte[]> values = new ArrayList<>(entries.size());
+        for (final Map.Entry<K, V> entry : entries.entrySet()) {
+            keys.add(getKeyBytes(entry.getKey()));
+            values.add(serializer.getBytes(entry.getValue()));
+        }
+        lock.writeLock().lock();
+        try {
+            for (int i = 0; i < keys.size(); i++) {
+                write(keys.get(i), values.get(i));
+            }
+        } catch (final IOException e) {
+            throw new BitvantageStoreException(e);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public Map<K, V> getAll() throws BitvantageStoreException {
+        final Map<String, byte[]> entries = new HashMap<>();
+        lock.readLock().lock();
+        try {
+            for (final Map.Entry<String, Location> entry : index.entrySet()) {
+                entries.put(entry.getKey(), readValue(entry.getValue()));
+            }
+        } catch (final IOException e) {
+            throw new BitvantageStoreException(e);
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        final ImmutableMap.Builder<K, V> builder = ImmutableMap.builder();
+        for (final Map.Entry<String, byte[]> entry : entries.entrySet()) {
+            builder.put(keyManager.materialize(entry.getKey()),
+                        serializer.getValue(entry.getValue()));
+        }
+        return builder.build();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        lock.readLock().lock();
+        try {
+            return index.isEmpty();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void delete(final K key) throws BitvantageStoreException {
+        final byte[] keyBytes = getKeyBytes(key);
+        final String keyString = keyManager.createKeyString(key);
+        lock.writeLock().lock();
+        try {
+            final Location old = index.remove(keyString);
+            if (old != null) {
+                segments.get(old.segmentId).liveBytes -= old.getSize();
+                append(keyBytes, null);
+            }
+        } catch (final IOException e) {
+            throw new BitvantageStoreException(e);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Rewrite every closed segment whose live fraction has fallen below the
+     * compaction threshold.
+     */
+    public void compact() throws BitvantageStoreException {
+        final List<Long> candidates = new ArrayList<>();
+        lock.readLock().lock();
+        try {
+            for (final Segment segment : segments.values()) {
+                if (segment != active
+                            && segment.liveBytes + getLiveTombstoneBytes(segment)
+                                       < compactionThreshold * segment.size) {
+                    candidates.add(segment.id);
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        for (final long id : candidates) {
+            lock.writeLock().lock();
+            try {
+                final Segment segment = segments.get(id);
+                if (segment != null) {
+                    compact(segment);
+                }
+            } catch (final IOException e) {
+                throw new BitvantageStoreException(e);
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+    }
+
+    /**
+     * Run {@link #compact()} at a fixed delay.
+     */
+    public ScheduledFuture<?> schedule(final ScheduledExecutorService scheduler,
+                                       final long delay, final TimeUnit unit) {
+        return scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                compact();
+            } catch (final BitvantageStoreException e) {
+                log.warn("Compaction of {} failed.", directory, e);
+            }
+        }, delay, delay, unit);
+    }
+
+    @Override
+    public void close() throws IOException {
+        lock.writeLock().lock();
+        try {
+            for (final Segment segment : segments.values()) {
+                segment.channel.close();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void write(final byte[] keyBytes, final byte[] valueBytes)
+            throws IOException {
+        final Location location = append(keyBytes, valueBytes);
+        final Location old = index.put(
+                new String(keyBytes, StandardCharsets.UTF_8), location);
+        if (old != null) {
+            segments.get(old.segmentId).liveBytes -= old.getSize();
+        }
+        active.liveBytes += location.getSize();
+    }
+
+    /**
+     * Append a record to the active segment, rolling it first if it is
+     * full. A null value appends a tombstone.
+     */
+    private Location append(final byte[] keyBytes, final byte[] valueBytes)
+            throws IOException {
+        if (active.size >= segmentSize) {
+            roll();
+        }
+        final int valueLength = (valueBytes == null)
+                ? TOMBSTONE : valueBytes.length;
+        final ByteBuffer record = ByteBuffer.allocate(
+                HEADER_BYTES + keyBytes.length + Math.max(0, valueLength));
+        record.putInt(0).putInt(keyBytes.length).putInt(valueLength)
+                .put(keyBytes);
+        if (valueBytes != null) {
+            record.put(valueBytes);
+        }
+        final CRC32 crc = new CRC32();
+        crc.update(record.array(), 4, record.capacity() - 4);
+        record.putInt(0, (int) crc.getValue());
+        record.flip();
+
+        final long offset = active.size;
+        long position = offset;
+        while (record.hasRemaining()) {
+            position += active.channel.write(record, position);
+        }
+        active.size = position;
+        active.addHint(keyBytes, valueLength, offset);
+        active.addKey(new String(keyBytes, StandardCharsets.UTF_8),
+                      keyBytes.length, valueLength);
+        if (sync.syncsEachWrite()) {
+            active.channel.force(false);
+        }
+        sync.appended(active.file);
+        return new Location(active.id, offset, keyBytes.length, valueLength);
+    }
+
+    private void roll() throws IOException {
+        writeHints(active);
+        active = openSegment(active.id + 1);
+        segments.put(active.id, active);
+    }
+
+    private void compact(final Segment segment) throws IOException {
+        final Set<Segment> written = new LinkedHashSet<>();
+        final Set<String> tombstones = new HashSet<>();
+        scan(segment, (offset, keyBytes, valueBytes) -> {
+            final String keyString = new String(keyBytes,
+                                                StandardCharsets.UTF_8);
+            final Location location = index.get(keyString);
+            if (valueBytes != null) {
+                if (location != null && location.segmentId == segment.id
+                            && location.offset == offset) {
+                    write(keyBytes, valueBytes);
+                    written.add(active);
+                }
+            } else if (location == null && isShadowed(keyString, segment.id)
+                               && tombstones.add(keyString)) {
+                append(keyBytes, null);
+                written.add(active);
+            }
+        });
+        for (final Segment target : written) {
+            target.channel.force(false);
+        }
+
+        segments.remove(segment.id);
+        segment.channel.close();
+        final Path hintFile = getHintFile(segment.id);
+        if (Files.deleteIfExists(hintFile)) {
+            sync.changed(hintFile);
+        }
+        if (Files.deleteIfExists(segment.file)) {
+            sync.changed(segment.file);
+        }
+    }
+
+    private void recover() throws IOException {
+        final List<Long> ids = new ArrayList<>();
+        try (final DirectoryStream<Path> files = Files.newDirectoryStream(
+                directory, "*" + SEGMENT_SUFFIX)) {
+            for (final Path file : files) {
+                final String name = file.getFileName().toString();
+                try {
+                    ids.add(Long.parseLong(name.substring(
+                            0, name.length() - SEGMENT_SUFFIX.length())));
+                } catch (final NumberFormatException e) {
+                    log.debug("Skipping {}, which is not a segment.", file);
+                }
+            }
+        }
+        ids.sort(null);
+
+        for (final long id : ids) {
+            final Segment segment = openSegment(id);
+            segments.put(id, segment);
+            final Path hintFile = getHintFile(id);
+            if (Files.exists(hintFile) && loadHints(segment, hintFile)) {
+                segment.hints = null;
+            } else {
+                Files.deleteIfExists(hintFile);
+                final long end = scan(segment, (offset, keyBytes, valueBytes)
+                        -> {
+                    final int valueLength = (valueBytes == null)
+                            ? TOMBSTONE : valueBytes.length;
+                    segment.addHint(keyBytes, valueLength, offset);
+                    apply(segment.id, keyBytes, valueLength, offset);
+                });
+                if (end < segment.size) {
+                    log.warn("Truncating {} at {} after an incomplete record.",
+                             segment.file, end);
+                    segment.channel.truncate(end);
+                    segment.size = end;
+                }
+            }
+        }
+
+        for (final Location location : index.values()) {
+            segments.get(location.segmentId).liveBytes += location.getSize();
+        }
+
+        if (segments.isEmpty()) {
+            active = openSegment(0);
+            segments.put(active.id, active);
+        } else {
+            active = segments.lastEntry().getValue();
+            if (active.hints == null) {
+                active = openSegment(active.id + 1);
+                segments.put(active.id, active);
+            }
+        }
+        for (final Segment segment : segments.values()) {
+            if (segment != active && segment.hints != null) {
+                writeHints(segment);
+            }
+        }
+    }
+
+    /**
+     * @return The bytes of the segment's tombstones that still hide a record
+     * in an older segment.
+     */
+    private long getLiveTombstoneBytes(final Segment segment) {
+        long bytes = 0;
+        for (final Map.Entry<String, Integer> tombstone
+             : segment.tombstones.entrySet()) {
+            if (!index.containsKey(tombstone.getKey())
+                        && isShadowed(tombstone.getKey(), segment.id)) {
+                bytes += tombstone.getValue();
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * @return Whether a segment older than the given one holds a record of
+     * the key.
+     */
+    private boolean isShadowed(final String keyString, final long segmentId) {
+        for (final Segment older : segments.headMap(segmentId, false)
+                .values()) {
+            if (older.keys.contains(keyString)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void apply(final long segmentId, final byte[] keyBytes,
+                       final int valueLength, final long offset) {
+        final String keyString = new String(keyBytes, StandardCharsets.UTF_8);
+        segments.get(segmentId).addKey(keyString, keyBytes.length,
+                                       valueLength);
+        if (valueLength == TOMBSTONE) {
+            index.remove(keyString);
+        } else {
+            index.put(keyString, new Location(segmentId, offset,
+                                              keyBytes.length, valueLength));
+        }
+    }
+
+    /**
+     * Visit each intact record of a segment in order.
+     *
+     * @return The offset following the last intact record.
+     */
+    private long scan(final Segment segment, final RecordVisitor visitor)
+            throws IOException {
+        long offset = 0;
+        try (final DataInputStream input = new DataInputStream(
+                new BufferedInputStream(Files.newInputStream(segment.file)))) {
+            while (offset + HEADER_BYTES <= segment.size) {
+                final int checksum = input.readInt();
+                final int keyLength = input.readInt();
+                final int valueLength = input.readInt();
+                final long end = offset + HEADER_BYTES + keyLength
+                                         + Math.max(0, valueLength);
+                if (keyLength < 0 || valueLength < TOMBSTONE
+                            || end > segment.size) {
+                    break;
+                }
+                final byte[] keyBytes = new byte[keyLength];
+                input.readFully(keyBytes);
+                final byte[] valueBytes = (valueLength == TOMBSTONE)
+                        ? null : new byte[valueLength];
+                if (valueBytes != null) {
+                    input.readFully(valueBytes);
+                }
+
+                final CRC32 crc = new CRC32();
+                crc.update(ByteBuffer.allocate(8).putInt(keyLength)
+                        .putInt(valueLength).array());
+                crc.update(keyBytes);
+                if (valueBytes != null) {
+                    crc.update(valueBytes);
+                }
+                if ((int) crc.getValue() != checksum) {
+                    break;
+                }
+                visitor.visit(offset, keyBytes, valueBytes);
+                offset = end;
+            }
+        } catch (final EOFException e) {
+            log.debug("{} ends in an incomplete record.", segment.file);
+        }
+        return offset;
+    }
+
+    /**
+     * Apply the hints of a segment to the index, provided the hint file is
+     * intact and every record it lists lies within the segment.
+     *
+     * @return Whether the hints were applied.
+     */
+    private boolean loadHints(final Segment segment, final Path hintFile)
+            throws IOException {
+        final byte[] bytes = Files.readAllBytes(hintFile);
+        if (bytes.length < Integer.BYTES) {
+            log.warn("Ignoring hint file {}, which is truncated.", hintFile);
+            return false;
+        }
+        final ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        final int entriesLength = bytes.length - Integer.BYTES;
+        final CRC32 crc = new CRC32();
+        crc.update(bytes, 0, entriesLength);
+        if ((int) crc.getValue() != buffer.getInt(entriesLength)) {
+            log.warn("Ignoring hint file {}, which fails its checksum.",
+                     hintFile);
+            return false;
+        }
+
+        final List<Hint> hints = new ArrayList<>();
+        buffer.limit(entriesLength);
+        while (buffer.hasRemaining()) {
+            if (buffer.remaining() < 16) {
+                log.warn("Ignoring hint file {}, which ends mid-entry.",
+                         hintFile);
+                return false;
+            }
+            final int keyLength = buffer.getInt();
+            final int valueLength = buffer.getInt();
+            final long offset = buffer.getLong();
+            if (keyLength < 0 || keyLength > buffer.remaining()
+                        || valueLength < TOMBSTONE || offset < 0
+                        || offset + HEADER_BYTES + keyLength
+                                   + Math.max(0, valueLength)
+                                   > segment.size) {
+                log.warn("Ignoring hint file {}, which lists a record " +
+                         "outside {}.", hintFile, segment.file);
+                return false;
+            }
+            final byte[] keyBytes = new byte[keyLength];
+            buffer.get(keyBytes);
+            hints.add(new Hint(keyBytes, valueLength, offset));
+        }
+
+        for (final Hint hint : hints) {
+            apply(segment.id, hint.keyBytes, hint.valueLength, hint.offset);
+        }
+        return true;
+    }
+
+    /**
+     * Write the hints of a closed segment, followed by their checksum, and
+     * force them to disk before renaming them into place.
+     */
+    private void writeHints(final Segment segment) throws IOException {
+        final Path hintFile = getHintFile(segment.id);
+        final Path temporary = hintFile.resolveSibling(
+                hintFile.getFileName() + ".tmp");
+        final byte[] entries = segment.hints.toByteArray();
+        final CRC32 crc = new CRC32();
+        crc.update(entries);
+        try (final FileChannel channel = FileChannel.open(
+                temporary, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.WRITE)) {
+            final ByteBuffer buffer = ByteBuffer.allocate(
+                    entries.length + Integer.BYTES);
+            buffer.put(entries).putInt((int) crc.getValue()).flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(true);
+        }
+        Files.move(temporary, hintFile, StandardCopyOption.ATOMIC_MOVE,
+                   StandardCopyOption.REPLACE_EXISTING);
+        sync.changed(hintFile);
+        segment.hints = null;
+    }
+
+    private byte[] readValue(final Location location) throws IOException {
+        final Segment segment = segments.get(location.segmentId);
+        final ByteBuffer buffer = ByteBuffer.allocate(location.valueLength);
+        long position = location.offset + HEADER_BYTES + location.keyLength;
+        while (buffer.hasRemaining()) {
+            final int read = segment.channel.read(buffer, position);
+            if (read < 0) {
+                throw new EOFException(String.format(
+                        "Segment %s ends before record at %d.",
+                        segment.file, location.offset));
+            }
+            position += read;
+        }
+        return buffer.array();
+    }
+
+    private Segment openSegment(final long id) throws IOException {
+        final Path file = directory.resolve(
+                String.format(SEGMENT_FORMAT, id) + SEGMENT_SUFFIX);
+        final boolean created = !Files.exists(file);
+        final FileChannel channel = FileChannel.open(
+                file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        if (created) {
+            sync.changed(file);
+        }
+        return new Segment(id, file, channel, channel.size());
+    }
+
+    private Path getHintFile(final long id) {
+        return directory.resolve(
+                String.format(SEGMENT_FORMAT, id) + HINT_SUFFIX);
+    }
+
+    private byte[] getKeyBytes(final K key) {
+        return keyManager.createKeyString(key).getBytes(StandardCharsets.UTF_8);
+    }
+
+    private interface RecordVisitor {
+
+        void visit(long offset, byte[] keyBytes, byte[] valueBytes)
+                throws IOException;
+
+    }
+
+    @RequiredArgsConstructor
+    private static class Hint {
+
+        private final byte[] keyBytes;
+        private final int valueLength;
+        private final long offset;
+
+    }
+
+    @RequiredArgsConstructor
+    private static class Location {
+
+        private final long segmentId;
+        private final long offset;
+        private final int keyLength;
+        private final int valueLength;
+
+        private long getSize() {
+            return HEADER_BYTES + keyLength + Math.max(0, valueLength);
+        }
+
+    }
+
+    private static class Segment {
+
+        private final long id;
+        private final Path file;
+        private final FileChannel channel;
+        private long size;
+        private long liveBytes;
+        private ByteArrayOutputStream hints;
+        private final Set<String> keys;
+        private final Map<String, Integer> tombstones;
+
+        private Segment(final long id, final Path file,
+                        final FileChannel channel, final long size) {
+            this.id = id;
+            this.file = file;
+            this.channel = channel;
+            this.size = size;
+            this.liveBytes = 0;
+            this.hints = new ByteArrayOutputStream();
+            this.keys = new HashSet<>();
+            this.tombstones = new HashMap<>();
+        }
+
+        /**
+         * Record that the segment holds a record of the key, either a value
+         * or a tombstone.
+         */
+        private void addKey(final String keyString, final int keyLength,
+                            final int valueLength) {
+            if (valueLength == TOMBSTONE) {
+                tombstones.put(keyString, HEADER_BYTES + keyLength);
+            } else {
+                keys.add(keyString);
+            }
+        }
+
+        private void addHint(final byte[] keyBytes, final int valueLength,
+                             final long offset) throws IOException {
+            final DataOutputStream output = new DataOutputStream(hints);
+            output.writeInt(keyBytes.length);
+            output.writeInt(valueLength);
+            output.writeLong(offset);
+            output.write(keyBytes);
+        }
+
+    }
+
+}
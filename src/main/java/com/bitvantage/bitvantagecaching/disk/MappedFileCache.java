@@ -0,0 +1,88 @@
+/*
+ * Copyright 2020 Public Transit Analytics.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bitvantage.bitvantagecaching.disk;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import lombok.RequiredArgsConstructor;
+
+/**
+ * Keeps read-only memory mappings of recently read files. A mapping is
+ * reused only while the path still names the same file, which is checked
+ * with a single stat; since {@link FlatFileStore} replaces files by rename,
+ * a rewritten value always shows up as a new file.
+ *
+ * Evicted mappings are released when they are garbage collected. Mapped
+ * files cannot be replaced on Windows, so this is for Unix-like systems.
+ *
+ * @author Public Transit Analytics
+ */
+public class MappedFileCache {
+
+    private final Cache<Path, Mapping> mappings;
+
+    /**
+     * @param maxMappings The number of mappings to keep open.
+     */
+    public MappedFileCache(final long maxMappings) {
+        mappings = CacheBuilder.newBuilder().maximumSize(maxMappings).build();
+    }
+
+    /**
+     * @return A read-only buffer over the whole file, with its own position.
+     */
+    public ByteBuffer read(final Path file) throws IOException {
+        final Object fileKey = Files.readAttributes(
+                file, BasicFileAttributes.class).fileKey();
+        final Mapping cached = mappings.getIfPresent(file);
+        if (cached != null && fileKey != null
+                    && fileKey.equals(cached.fileKey)) {
+            return cached.buffer.asReadOnlyBuffer();
+        }
+
+        final MappedByteBuffer buffer;
+        try (final FileChannel channel = FileChannel.open(
+                file, StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                                 channel.size());
+        }
+        if (fileKey != null) {
+            mappings.put(file, new Mapping(fileKey, buffer));
+        }
+        return buffer.asReadOnlyBuffer();
+    }
+
+    public void invalidate(final Path file) {
+        mappings.invalidate(file);
+    }
+
+    @RequiredArgsConstructor
+    private static class Mapping {
+
+        private final Object fileKey;
+        private final MappedByteBuffer buffer;
+
+    }
+
+}
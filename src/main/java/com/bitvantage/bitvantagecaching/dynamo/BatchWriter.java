@@ -0,0 +1,249 @@
+/*
+ * Copyright 2020 Public Transit Analytics.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bitvantage.bitvantagecaching.dynamo;
+
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
+import com.amazonaws.services.dynamodbv2.document.BatchWriteItemOutcome;
+import com.amazonaws.services.dynamodbv2.document.DynamoDB;
+import com.amazonaws.services.dynamodbv2.document.TableWriteItems;
+import com.amazonaws.services.dynamodbv2.model.ProvisionedThroughputExceededException;
+import com.amazonaws.services.dynamodbv2.model.WriteRequest;
+import com.bitvantage.bitvantagecaching.BitvantageStoreException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Sends BatchWriteItem requests for the Dynamo stores. Unprocessed items
+ * are retried with exponential backoff and full jitter.
+ *
+ * Given an executor, batches are sent concurrently. The number in flight
+ * adapts to throttling: it grows by one for each window of successful
+ * batches and halves whenever a batch is throttled, never exceeding the
+ * configured maximum. The limit is kept between calls, so one writer
+ * should be shared by the stores writing to a table.
+ *
+ * @author Public Transit Analytics
+ */
+@Slf4j
+public class BatchWriter {
+
+    private static final long BASE_BACKOFF_MILLIS = 50;
+    private static final long MAX_BACKOFF_MILLIS = 10000;
+    private static final int MAX_ATTEMPTS_WITHOUT_PROGRESS = 10;
+
+    private final DynamoDB dynamo;
+    private final ExecutorService executor;
+    private final int maxInFlight;
+    private final long backoffMillis;
+
+    private final Lock lock;
+    private final Condition slotFreed;
+    private double limit;
+    private int inFlight;
+
+    /**
+     * Create a writer that sends one batch at a time.
+     */
+    public BatchWriter(final AmazonDynamoDB client) {
+        this(client, null, 1);
+    }
+
+    public BatchWriter(final AmazonDynamoDB client,
+                       final ExecutorService executor, final int maxInFlight) {
+        this(client, executor, maxInFlight, BASE_BACKOFF_MILLIS);
+    }
+
+    /**
+     * @param backoffMillis The cap of the first retry's backoff, doubled on
+     * each further attempt.
+     */
+    BatchWriter(final AmazonDynamoDB client, final ExecutorService executor,
+                final int maxInFlight, final long backoffMillis) {
+        this.dynamo = new DynamoDB(client);
+        this.executor = executor;
+        this.maxInFlight = maxInFlight;
+        this.backoffMillis = backoffMillis;
+        this.lock = new ReentrantLock();
+        this.slotFreed = lock.newCondition();
+        this.limit = maxInFlight;
+        this.inFlight = 0;
+    }
+
+    /**
+     * Write the batches, returning once every item has been processed.
+     */
+    public void write(final List<TableWriteItems> batches)
+            throws BitvantageStoreException, InterruptedException {
+        if (executor == null) {
+            for (final TableWriteItems batch : batches) {
+                writeBatch(batch);
+            }
+            return;
+        }
+
+        final List<Future<?>> writes = new ArrayList<>(batches.size());
+        try {
+            for (final TableWriteItems batch : batches) {
+                acquire();
+                try {
+                    writes.add(executor.submit(() -> {
+                        try {
+                            writeBatch(batch);
+                        } finally {
+                            release();
+                        }
+                        return null;
+                    }));
+                } catch (final RuntimeException e) {
+                    release();
+                    throw e;
+                }
+            }
+            for (final Future<?> write : writes) {
+                write.get();
+            }
+        } catch (final ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof BitvantageStoreException) {
+                throw (BitvantageStoreException) cause;
+            }
+            if (cause instanceof InterruptedException) {
+                throw (InterruptedException) cause;
+            }
+            throw new BitvantageStoreException(e);
+        } finally {
+            for (final Future<?> write : writes) {
+                write.cancel(true);
+            }
+        }
+    }
+
+    private void writeBatch(final TableWriteItems batch)
+            throws BitvantageStoreException, InterruptedException {
+        Map<String, List<WriteRequest>> unprocessed = null;
+        int remaining = Integer.MAX_VALUE;
+        int attempt = 0;
+        while (true) {
+            final BatchWriteItemOutcome outcome;
+            try {
+                outcome = (unprocessed == null)
+                        ? dynamo.batchWriteItem(batch)
+                        : dynamo.batchWriteItemUnprocessed(unprocessed);
+            } catch (final ProvisionedThroughputExceededException e) {
+                if (attempt >= MAX_ATTEMPTS_WITHOUT_PROGRESS) {
+                    throw new BitvantageStoreException(e);
+                }
+                onThrottle();
+                backoff(attempt++, backoffMillis);
+                continue;
+            }
+
+            unprocessed = outcome.getUnprocessedItems();
+            final int count = unprocessed.values().stream()
+                    .mapToInt(List::size).sum();
+            if (count == 0) {
+                onSuccess();
+                return;
+            }
+            if (count < remaining) {
+                remaining = count;
+                attempt = 0;
+            }
+            if (attempt >= MAX_ATTEMPTS_WITHOUT_PROGRESS) {
+                throw new BitvantageStoreException(String.format(
+                        "%d writes still unprocessed after %d attempts.",
+                        count, attempt));
+            }
+            log.debug("{} writes unprocessed, retrying.", count);
+            onThrottle();
+            backoff(attempt++, backoffMillis);
+        }
+    }
+
+    static void backoff(final int attempt) throws InterruptedException {
+        backoff(attempt, BASE_BACKOFF_MILLIS);
+    }
+
+    private static void backoff(final int attempt, final long base)
+            throws InterruptedException {
+        final long cap = Math.min(MAX_BACKOFF_MILLIS,
+                                  base << Math.min(attempt, 20));
+        Thread.sleep(ThreadLocalRandom.current().nextLong(cap + 1));
+    }
+
+    private void acquire() throws InterruptedException {
+        lock.lock();
+        try {
+            while (inFlight >= (int) limit) {
+                slotFreed.await();
+            }
+            inFlight++;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void release() {
+        lock.lock();
+        try {
+            inFlight--;
+            slotFreed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return The number of batches that may currently be in flight.
+     */
+    int getLimit() {
+        lock.lock();
+        try {
+            return (int) limit;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void onSuccess() {
+        lock.lock();
+        try {
+            limit = Math.min(maxInFlight, limit + 1 / limit);
+            slotFreed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void onThrottle() {
+        lock.lock();
+        try {
+            limit = Math.max(1, limit / 2);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright 2020 Public Transit Analytics.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bitvantage.bitvantagecaching.dynamo;
+
+import com.amazonaws.services.dynamodbv2.document.Item;
+import com.bitvantage.bitvantagecaching.BitvantageStoreException;
+import com.bitvantage.bitvantagecaching.DeflateSerializer;
+import com.bitvantage.bitvantagecaching.PartitionKey;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.Deflater;
+
+/**
+ * Deflates the binary attributes of another serializer's items that are
+ * larger than a threshold, and records which attributes it compressed so
+ * they can be restored before the wrapped serializer reads them. Smaller
+ * items cost fewer capacity units and fit more data under the item limit.
+ *
+ * @author Public Transit Analytics
+ */
+public class CompressingDynamoStoreSerializer<P extends PartitionKey, V>
+        implements DynamoStoreSerializer<P, V> {
+
+    static final String COMPRESSED_ATTRIBUTE = "compressed";
+
+    private final DynamoStoreSerializer<P, V> serializer;
+    private final int threshold;
+
+    /**
+     * @param threshold The size in bytes above which an attribute is
+     * compressed.
+     */
+    public CompressingDynamoStoreSerializer(
+            final DynamoStoreSerializer<P, V> serializer,
+            final int threshold) {
+        this.serializer = serializer;
+        this.threshold = threshold;
+    }
+
+    @Override
+    public byte[] getPartitionKey(final P key)
+            throws BitvantageStoreException {
+        return serializer.getPartitionKey(key);
+    }
+
+    @Override
+    public String getPartitionKeyName() throws BitvantageStoreException {
+        return serializer.getPartitionKeyName();
+    }
+
+    @Override
+    public Item serialize(final P partition, final V value)
+            throws BitvantageStoreException {
+        final Item item = serializer.serialize(partition, value);
+        final String keyName = serializer.getPartitionKeyName();
+
+        final List<String> candidates = new ArrayList<>();
+        for (final Map.Entry<String, Object> attribute : item.attributes()) {
+            if (!attribute.getKey().equals(keyName)
+                        && attribute.getValue() instanceof byte[]
+                        && ((byte[]) attribute.getValue()).length > threshold) {
+                candidates.add(attribute.getKey());
+            }
+        }
+
+        final Set<String> compressed = new LinkedHashSet<>();
+        for (final String name : candidates) {
+            final byte[] bytes = item.getBinary(name);
+            final byte[] deflated = DeflateSerializer.deflate(
+                    bytes, Deflater.DEFAULT_COMPRESSION);
+            if (deflated.length < bytes.length) {
+                item.withBinary(name, deflated);
+                compressed.add(name);
+            }
+        }
+        if (!compressed.isEmpty()) {
+            item.withStringSet(COMPRESSED_ATTRIBUTE, compressed);
+        }
+        return item;
+    }
+
+    @Override
+    public V deserializeValue(final Item item)
+            throws BitvantageStoreException {
+        return serializer.deserializeValue(decompress(item));
+    }
+
+    @Override
+    public P deserializeKey(final Item item) throws BitvantageStoreException {
+        return serializer.deserializeKey(item);
+    }
+
+    private Item decompress(final Item item) throws BitvantageStoreException {
+        if (!item.hasAttribute(COMPRESSED_ATTRIBUTE)) {
+            return item;
+        }
+        final Item restored = Item.fromMap(item.asMap());
+        for (final String name : item.getStringSet(COMPRESSED_ATTRIBUTE)) {
+            restored.withBinary(name,
+                                DeflateSerializer.inflate(item.getBinary(name)));
+        }
+        return restored.removeAttribute(COMPRESSED_ATTRIBUTE);
+    }
+
+}
@@ -0,0 +1,433 @@
+/*
+ * Copyright 2020 Public Transit Analytics.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bitvantage.bitvantagecaching.dynamo;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.AmazonWebServiceRequest;
+import com.amazonaws.Request;
+import com.amazonaws.Response;
+import com.amazonaws.handlers.HandlerAfterAttemptContext;
+import com.amazonaws.handlers.HandlerContextKey;
+import com.amazonaws.handlers.RequestHandler2;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.BatchGetItemRequest;
+import com.amazonaws.services.dynamodbv2.model.BatchGetItemResult;
+import com.amazonaws.services.dynamodbv2.model.BatchWriteItemRequest;
+import com.amazonaws.services.dynamodbv2.model.BatchWriteItemResult;
+import com.amazonaws.services.dynamodbv2.model.ConsumedCapacity;
+import com.amazonaws.services.dynamodbv2.model.DeleteItemRequest;
+import com.amazonaws.services.dynamodbv2.model.DeleteItemResult;
+import com.amazonaws.services.dynamodbv2.model.GetItemRequest;
+import com.amazonaws.services.dynamodbv2.model.GetItemResult;
+import com.amazonaws.services.dynamodbv2.model.KeysAndAttributes;
+import com.amazonaws.services.dynamodbv2.model.PutItemRequest;
+import com.amazonaws.services.dynamodbv2.model.PutItemResult;
+import com.amazonaws.services.dynamodbv2.model.QueryRequest;
+import com.amazonaws.services.dynamodbv2.model.QueryResult;
+import com.amazonaws.services.dynamodbv2.model.ReturnConsumedCapacity;
+import com.amazonaws.services.dynamodbv2.model.ScanRequest;
+import com.amazonaws.services.dynamodbv2.model.ScanResult;
+import com.amazonaws.services.dynamodbv2.model.TransactGetItemsRequest;
+import com.amazonaws.services.dynamodbv2.model.TransactGetItemsResult;
+import com.amazonaws.services.dynamodbv2.model.TransactWriteItemsRequest;
+import com.amazonaws.services.dynamodbv2.model.TransactWriteItemsResult;
+import com.amazonaws.services.dynamodbv2.model.UpdateItemRequest;
+import com.amazonaws.services.dynamodbv2.model.UpdateItemResult;
+import com.amazonaws.services.dynamodbv2.model.WriteRequest;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+import lombok.Value;
+
+/**
+ * Records the consumed capacity, item and page counts, throttling and
+ * latency of DynamoDB requests, per operation and per table. It is a request
+ * handler for the client the stores share, so that every request is counted,
+ * including those of batch writers and scans:
+ *
+ * <pre>
+ * AmazonDynamoDBClientBuilder.standard().withRequestHandlers(metrics)
+ * </pre>
+ *
+ * Requests that do not ask for their consumed capacity are made to return
+ * it in total. Throttles count every throttled attempt, including those the
+ * client retries; unprocessed counts the items of batches left for the
+ * caller to retry.
+ *
+ * @author Public Transit Analytics
+ */
+public class DynamoMetrics extends RequestHandler2 {
+
+    private static final HandlerContextKey<Long> START_NANOS
+            = new HandlerContextKey<>("DynamoMetricsStartNanos");
+    private static final String UNKNOWN_TABLE = "";
+    private static final ImmutableSet<String> THROTTLING_CODES
+            = ImmutableSet.of("ProvisionedThroughputExceededException",
+                              "ThrottlingException",
+                              "RequestLimitExceeded");
+
+    private final ConcurrentMap<Operation, Counters> counters;
+
+    public DynamoMetrics() {
+        counters = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * @return The totals so far of each operation on each table.
+     */
+    public Map<Operation, DynamoOperationStats> getStats() {
+        final ImmutableMap.Builder<Operation, DynamoOperationStats> builder
+                = ImmutableMap.builder();
+        for (final Map.Entry<Operation, Counters> entry
+             : counters.entrySet()) {
+            builder.put(entry.getKey(), entry.getValue().snapshot());
+        }
+        return builder.build();
+    }
+
+    /**
+     * @return The totals so far of every operation on the table.
+     */
+    public DynamoOperationStats getTableStats(final String table) {
+        final Counters total = new Counters();
+        for (final Map.Entry<Operation, Counters> entry
+             : counters.entrySet()) {
+            if (entry.getKey().getTable().equals(table)) {
+                total.add(entry.getValue());
+            }
+        }
+        return total.snapshot();
+    }
+
+    public void reset() {
+        counters.clear();
+    }
+
+    @Override
+    public AmazonWebServiceRequest beforeExecution(
+            final AmazonWebServiceRequest request) {
+        requestCapacity(request);
+        request.addHandlerContext(START_NANOS, System.nanoTime());
+        return request;
+    }
+
+    @Override
+    public void afterAttempt(final HandlerAfterAttemptContext context) {
+        final Exception exception = context.getException();
+        if (exception instanceof AmazonServiceException
+                    && THROTTLING_CODES.contains(((AmazonServiceException)
+                            exception).getErrorCode())) {
+            for (final String table : getTables(
+                    context.getRequest().getOriginalRequest())) {
+                getCounters(context.getRequest(), table).throttles
+                        .increment();
+            }
+        }
+    }
+
+    @Override
+    public void afterResponse(final Request<?> request,
+                              final Response<?> response) {
+        final AmazonWebServiceRequest original = request.getOriginalRequest();
+        final long latency = getLatency(original);
+        final Object result = response.getAwsResponse();
+
+        for (final String table : getTables(original)) {
+            final Counters tableCounters = getCounters(request, table);
+            tableCounters.requests.increment();
+            tableCounters.latencyNanos.add(latency);
+        }
+        for (final ConsumedCapacity capacity : getCapacity(result)) {
+            if (capacity != null && capacity.getCapacityUnits() != null) {
+                getCounters(request, capacity.getTableName()).capacityUnits
+                        .add(capacity.getCapacityUnits());
+            }
+        }
+        recordItems(request, original, result);
+    }
+
+    @Override
+    public void afterError(final Request<?> request,
+                           final Response<?> response, final Exception e) {
+        final AmazonWebServiceRequest original = request.getOriginalRequest();
+        final long latency = getLatency(original);
+        for (final String table : getTables(original)) {
+            final Counters tableCounters = getCounters(request, table);
+            tableCounters.errors.increment();
+            tableCounters.latencyNanos.add(latency);
+        }
+    }
+
+    private void recordItems(final Request<?> request,
+                             final AmazonWebServiceRequest original,
+                             final Object result) {
+        if (result instanceof GetItemResult) {
+            getCounters(request, getTable(original)).items.add(
+                    ((GetItemResult) result).getItem() == null ? 0 : 1);
+        } else if (result instanceof QueryResult) {
+            final Counters tableCounters
+                    = getCounters(request, getTable(original));
+            tableCounters.pages.increment();
+            tableCounters.items.add(((QueryResult) result).getCount());
+        } else if (result instanceof ScanResult) {
+            final Counters tableCounters
+                    = getCounters(request, getTable(original));
+            tableCounters.pages.increment();
+            tableCounters.items.add(((ScanResult) result).getCount());
+        } else if (result instanceof PutItemResult
+                           || result instanceof UpdateItemResult
+                           || result instanceof DeleteItemResult) {
+            getCounters(request, getTable(original)).items.increment();
+        } else if (result instanceof BatchGetItemResult) {
+            final BatchGetItemResult batch = (BatchGetItemResult) result;
+            if (batch.getResponses() != null) {
+                for (final Map.Entry<String, List<Map<String, AttributeValue>>>
+                             table : batch.getResponses().entrySet()) {
+                    getCounters(request, table.getKey()).items.add(
+                            table.getValue().size());
+                }
+            }
+            if (batch.getUnprocessedKeys() != null) {
+                for (final Map.Entry<String, KeysAndAttributes> table
+                     : batch.getUnprocessedKeys().entrySet()) {
+                    getCounters(request, table.getKey()).unprocessed.add(
+                            table.getValue().getKeys().size());
+                }
+            }
+        } else if (result instanceof BatchWriteItemResult) {
+            final Map<String, List<WriteRequest>> requested
+                    = ((BatchWriteItemRequest) original).getRequestItems();
+            final Map<String, List<WriteRequest>> unprocessed
+                    = ((BatchWriteItemResult) result).getUnprocessedItems();
+            for (final Map.Entry<String, List<WriteRequest>> table
+                 : requested.entrySet()) {
+                final int left = (unprocessed == null)
+                        ? 0 : unprocessed.getOrDefault(
+                                table.getKey(), ImmutableList.of()).size();
+                final Counters tableCounters
+                        = getCounters(request, table.getKey());
+                tableCounters.items.add(table.getValue().size() - left);
+                tableCounters.unprocessed.add(left);
+            }
+        }
+    }
+
+    private Counters getCounters(final Request<?> request,
+                                 final String table) {
+        return counters.computeIfAbsent(
+                new Operation((table == null) ? UNKNOWN_TABLE : table,
+                              getOperationName(request)),
+                operation -> new Counters());
+    }
+
+    private static String getOperationName(final Request<?> request) {
+        final String name = request.getHandlerContext(
+                HandlerContextKey.OPERATION_NAME);
+        if (name != null) {
+            return name;
+        }
+        return request.getOriginalRequest().getClass().getSimpleName()
+                .replaceFirst("Request$", "");
+    }
+
+    private static long getLatency(final AmazonWebServiceRequest request) {
+        final Long start = request.getHandlerContext(START_NANOS);
+        return (start == null) ? 0 : System.nanoTime() - start;
+    }
+
+    private static void requestCapacity(
+            final AmazonWebServiceRequest request) {
+        final String total = ReturnConsumedCapacity.TOTAL.toString();
+        if (request instanceof GetItemRequest) {
+            final GetItemRequest get = (GetItemRequest) request;
+            if (get.getReturnConsumedCapacity() == null) {
+                get.setReturnConsumedCapacity(total);
+            }
+        } else if (request instanceof PutItemRequest) {
+            final PutItemRequest put = (PutItemRequest) request;
+            if (put.getReturnConsumedCapacity() == null) {
+                put.setReturnConsumedCapacity(total);
+            }
+        } else if (request instanceof UpdateItemRequest) {
+            final UpdateItemRequest update = (UpdateItemRequest) request;
+            if (update.getReturnConsumedCapacity() == null) {
+                update.setReturnConsumedCapacity(total);
+            }
+        } else if (request instanceof DeleteItemRequest) {
+            final DeleteItemRequest delete = (DeleteItemRequest) request;
+            if (delete.getReturnConsumedCapacity() == null) {
+                delete.setReturnConsumedCapacity(total);
+            }
+        } else if (request instanceof QueryRequest) {
+            final QueryRequest query = (QueryRequest) request;
+            if (query.getReturnConsumedCapacity() == null) {
+                query.setReturnConsumedCapacity(total);
+            }
+        } else if (request instanceof ScanRequest) {
+            final ScanRequest scan = (ScanRequest) request;
+            if (scan.getReturnConsumedCapacity() == null) {
+                scan.setReturnConsumedCapacity(total);
+            }
+        } else if (request instanceof BatchGetItemRequest) {
+            final BatchGetItemRequest batch = (BatchGetItemRequest) request;
+            if (batch.getReturnConsumedCapacity() == null) {
+                batch.setReturnConsumedCapacity(total);
+            }
+        } else if (request instanceof BatchWriteItemRequest) {
+            final BatchWriteItemRequest batch
+                    = (BatchWriteItemRequest) request;
+            if (batch.getReturnConsumedCapacity() == null) {
+                batch.setReturnConsumedCapacity(total);
+            }
+        } else if (request instanceof TransactGetItemsRequest) {
+            final TransactGetItemsRequest transaction
+                    = (TransactGetItemsRequest) request;
+            if (transaction.getReturnConsumedCapacity() == null) {
+                transaction.setReturnConsumedCapacity(total);
+            }
+        } else if (request instanceof TransactWriteItemsRequest) {
+            final TransactWriteItemsRequest transaction
+                    = (TransactWriteItemsRequest) request;
+            if (transaction.getReturnConsumedCapacity() == null) {
+                transaction.setReturnConsumedCapacity(total);
+            }
+        }
+    }
+
+    private static Collection<ConsumedCapacity> getCapacity(
+            final Object result) {
+        if (result instanceof GetItemResult) {
+            return single(((GetItemResult) result).getConsumedCapacity());
+        } else if (result instanceof PutItemResult) {
+            return single(((PutItemResult) result).getConsumedCapacity());
+        } else if (result instanceof UpdateItemResult) {
+            return single(((UpdateItemResult) result).getConsumedCapacity());
+        } else if (result instanceof DeleteItemResult) {
+            return single(((DeleteItemResult) result).getConsumedCapacity());
+        } else if (result instanceof QueryResult) {
+            return single(((QueryResult) result).getConsumedCapacity());
+        } else if (result instanceof ScanResult) {
+            return single(((ScanResult) result).getConsumedCapacity());
+        } else if (result instanceof BatchGetItemResult) {
+            return orEmpty(((BatchGetItemResult) result)
+                    .getConsumedCapacity());
+        } else if (result instanceof BatchWriteItemResult) {
+            return orEmpty(((BatchWriteItemResult) result)
+                    .getConsumedCapacity());
+        } else if (result instanceof TransactGetItemsResult) {
+            return orEmpty(((TransactGetItemsResult) result)
+                    .getConsumedCapacity());
+        } else if (result instanceof TransactWriteItemsResult) {
+            return orEmpty(((TransactWriteItemsResult) result)
+                    .getConsumedCapacity());
+        }
+        return ImmutableList.of();
+    }
+
+    private static Collection<ConsumedCapacity> single(
+            final ConsumedCapacity capacity) {
+        return (capacity == null)
+                ? ImmutableList.of() : ImmutableList.of(capacity);
+    }
+
+    private static Collection<ConsumedCapacity> orEmpty(
+            final List<ConsumedCapacity> capacity) {
+        return (capacity == null) ? ImmutableList.of() : capacity;
+    }
+
+    private static Collection<String> getTables(
+            final AmazonWebServiceRequest request) {
+        if (request instanceof BatchGetItemRequest) {
+            return ((BatchGetItemRequest) request).getRequestItems().keySet();
+        } else if (request instanceof BatchWriteItemRequest) {
+            return ((BatchWriteItemRequest) request).getRequestItems()
+                    .keySet();
+        }
+        return ImmutableList.of(getTable(request));
+    }
+
+    private static String getTable(final AmazonWebServiceRequest request) {
+        final String table;
+        if (request instanceof GetItemRequest) {
+            table = ((GetItemRequest) request).getTableName();
+        } else if (request instanceof PutItemRequest) {
+            table = ((PutItemRequest) request).getTableName();
+        } else if (request instanceof UpdateItemRequest) {
+            table = ((UpdateItemRequest) request).getTableName();
+        } else if (request instanceof DeleteItemRequest) {
+            table = ((DeleteItemRequest) request).getTableName();
+        } else if (request instanceof QueryRequest) {
+            table = ((QueryRequest) request).getTableName();
+        } else if (request instanceof ScanRequest) {
+            table = ((ScanRequest) request).getTableName();
+        } else {
+            table = null;
+        }
+        return (table == null) ? UNKNOWN_TABLE : table;
+    }
+
+    /**
+     * An operation on a table. Transactions, which may span tables, are
+     * recorded against an empty table name, with their consumed capacity
+     * recorded against each table.
+     */
+    @Value
+    public static class Operation {
+
+        private final String table;
+        private final String operation;
+
+    }
+
+    private static class Counters {
+
+        private final LongAdder requests = new LongAdder();
+        private final LongAdder errors = new LongAdder();
+        private final LongAdder throttles = new LongAdder();
+        private final LongAdder items = new LongAdder();
+        private final LongAdder unprocessed = new LongAdder();
+        private final LongAdder pages = new LongAdder();
+        private final DoubleAdder capacityUnits = new DoubleAdder();
+        private final LongAdder latencyNanos = new LongAdder();
+
+        private void add(final Counters other) {
+            requests.add(other.requests.sum());
+            errors.add(other.errors.sum());
+            throttles.add(other.throttles.sum());
+            items.add(other.items.sum());
+            unprocessed.add(other.unprocessed.sum());
+            pages.add(other.pages.sum());
+            capacityUnits.add(other.capacityUnits.sum());
+            latencyNanos.add(other.latencyNanos.sum());
+        }
+
+        private DynamoOperationStats snapshot() {
+            return new DynamoOperationStats(
+                    requests.sum(), errors.sum(), throttles.sum(),
+                    items.sum(), unprocessed.sum(), pages.sum(),
+                    capacityUnits.sum(), latencyNanos.sum());
+        }
+
+    }
+
+}
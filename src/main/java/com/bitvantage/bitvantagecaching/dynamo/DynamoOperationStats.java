@@ -0,0 +1,46 @@
+/*
+ * Copyright 2020 Public Transit Analytics.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bitvantage.bitvantagecaching.dynamo;
+
+import lombok.Value;
+
+/**
+ * The totals recorded by {@link DynamoMetrics} for one operation on one
+ * table.
+ *
+ * @author Public Transit Analytics
+ */
+@Value
+public class DynamoOperationStats {
+
+    private final long requests;
+    private final long errors;
+    private final long throttles;
+    private final long items;
+    private final long unprocessed;
+    private final long pages;
+    private final double capacityUnits;
+    private final long latencyNanos;
+
+    /**
+     * @return The mean latency of the requests, in nanoseconds.
+     */
+    public double getMeanLatencyNanos() {
+        return (requests + errors == 0)
+                ? 0 : (double) latencyNanos / (requests + errors);
+    }
+
+}
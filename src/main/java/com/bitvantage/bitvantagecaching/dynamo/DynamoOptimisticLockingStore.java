@@ -16,20 +16,39 @@
 package com.bitvantage.bitvantagecaching.dynamo;
 
 import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
+import com.amazonaws.services.dynamodbv2.document.BatchGetItemOutcome;
 import com.amazonaws.services.dynamodbv2.document.DynamoDB;
 import com.amazonaws.services.dynamodbv2.document.Expected;
 import com.amazonaws.services.dynamodbv2.document.Item;
+import com.amazonaws.services.dynamodbv2.document.ItemUtils;
 import com.amazonaws.services.dynamodbv2.document.KeyAttribute;
 import com.amazonaws.services.dynamodbv2.document.PutItemOutcome;
 import com.amazonaws.services.dynamodbv2.document.Table;
+import com.amazonaws.services.dynamodbv2.document.TableKeysAndAttributes;
 import com.amazonaws.services.dynamodbv2.document.spec.GetItemSpec;
 import com.amazonaws.services.dynamodbv2.document.spec.PutItemSpec;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.CancellationReason;
 import com.amazonaws.services.dynamodbv2.model.ConditionalCheckFailedException;
+import com.amazonaws.services.dynamodbv2.model.KeysAndAttributes;
+import com.amazonaws.services.dynamodbv2.model.Put;
 import com.amazonaws.services.dynamodbv2.model.ReturnValue;
+import com.amazonaws.services.dynamodbv2.model.TransactWriteItem;
+import com.amazonaws.services.dynamodbv2.model.TransactWriteItemsRequest;
+import com.amazonaws.services.dynamodbv2.model.TransactionCanceledException;
 import com.bitvantage.bitvantagecaching.BitvantageStoreException;
 import com.bitvantage.bitvantagecaching.OptimisticLockingStore;
 import com.bitvantage.bitvantagecaching.PartitionKey;
 import com.bitvantage.bitvantagecaching.VersionedWrapper;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.UUID;
 import lombok.extern.slf4j.Slf4j;
@@ -42,22 +61,64 @@ import lombok.extern.slf4j.Slf4j;
 public class DynamoOptimisticLockingStore<K extends PartitionKey, V>
         implements OptimisticLockingStore<K, V> {
 
+    private static final int MAX_TRANSACTION_ITEMS = 25;
+    private static final int GET_BATCH_SIZE = 100;
+    private static final int MAX_ATTEMPTS_WITHOUT_PROGRESS = 10;
+    private static final String CONDITION_FAILED = "ConditionalCheckFailed";
+    private static final String TRANSACTION_CONFLICT = "TransactionConflict";
+
     private final String keyName;
     private final VersionedDynamoStoreSerializer<K, V> serializer;
 
     private final Table table;
     private final DynamoDB dynamo;
+    private final AmazonDynamoDB client;
+    private final ReadConsistency consistency;
 
     public DynamoOptimisticLockingStore(
             final AmazonDynamoDB client, final String table,
             final VersionedDynamoStoreSerializer<K, V> serializer) 
             throws BitvantageStoreException {
+        this(client, table, serializer, ReadConsistency.STRONG);
+    }
+
+    /**
+     * @param consistency The consistency of gets. Eventually consistent
+     * reads may return an old version, making putOnMatch more likely to
+     * fail.
+     */
+    public DynamoOptimisticLockingStore(
+            final AmazonDynamoDB client, final String table,
+            final VersionedDynamoStoreSerializer<K, V> serializer,
+            final ReadConsistency consistency)
+            throws BitvantageStoreException {
+        this.consistency = consistency;
+        this.client = client;
         this.dynamo = new DynamoDB(client);
         this.table = dynamo.getTable(table);
         this.keyName = serializer.getPartitionKeyName();
         this.serializer = serializer;
     }
 
+    private DynamoOptimisticLockingStore(
+            final DynamoOptimisticLockingStore<K, V> store,
+            final ReadConsistency consistency) {
+        this.consistency = consistency;
+        this.client = store.client;
+        this.dynamo = store.dynamo;
+        this.table = store.table;
+        this.keyName = store.keyName;
+        this.serializer = store.serializer;
+    }
+
+    /**
+     * @return A view of this store that reads with the given consistency.
+     */
+    public DynamoOptimisticLockingStore<K, V> withReadConsistency(
+            final ReadConsistency consistency) {
+        return new DynamoOptimisticLockingStore<>(this, consistency);
+    }
+
     @Override
     public VersionedWrapper<V> get(final K key)
             throws BitvantageStoreException, InterruptedException {
@@ -65,10 +126,36 @@ public class DynamoOptimisticLockingStore<K extends PartitionKey, V>
         return result == null ? null : serializer.deserializeValue(result);
     }
 
+    /**
+     * Read only the version of a key, without transferring its value.
+     *
+     * @return The version, or null if the key has no value.
+     */
+    public UUID getVersion(final K key) throws BitvantageStoreException {
+        final byte[] keyBytes = serializer.getPartitionKey(key);
+        final GetItemSpec spec = new GetItemSpec()
+                .withPrimaryKey(new KeyAttribute(keyName, keyBytes))
+                .withProjectionExpression("#v")
+                .withNameMap(ImmutableMap.of("#v", serializer.getVersionKey()))
+                .withConsistentRead(consistency.isConsistentRead());
+        final Item item = table.getItem(spec);
+        return item == null ? null : serializer.getVersion(item);
+    }
+
     @Override
     public Optional<V> putOnMatch(final K key, final V value, final UUID match)
             throws BitvantageStoreException, InterruptedException {
-        final Item item = serializer.serialize(key, value);
+        return putOnMatch(key, value, match, UUID.randomUUID());
+    }
+
+    /**
+     * Put a value if the key has the matching version, giving it the new
+     * version, so the caller knows the version it wrote.
+     */
+    public Optional<V> putOnMatch(final K key, final V value, final UUID match,
+                                  final UUID version)
+            throws BitvantageStoreException, InterruptedException {
+        final Item item = serializer.serialize(key, value, version);
 
         final Expected expected = serializer.getExpectation(match);
         final PutItemSpec request = new PutItemSpec()
@@ -89,10 +176,152 @@ public class DynamoOptimisticLockingStore<K extends PartitionKey, V>
         }
     }
 
+    /**
+     * Put every value in one transaction, provided each key still has the
+     * version it is given with. Either every value is written or none is.
+     *
+     * @param values The values to write, each with the version its key must
+     * match. At most 25 keys.
+     * @return The new version of each key if the values were written, or
+     * else the keys whose versions did not match, or that were being
+     * changed by another transaction.
+     */
+    public PutAllResult<K> putAllOnMatch(
+            final Map<K, VersionedWrapper<V>> values)
+            throws BitvantageStoreException, InterruptedException {
+        if (values.size() > MAX_TRANSACTION_ITEMS) {
+            throw new BitvantageStoreException(String.format(
+                    "Cannot put %d items in one transaction, the limit is %d.",
+                    values.size(), MAX_TRANSACTION_ITEMS));
+        }
+        final List<K> keys = new ArrayList<>(values.size());
+        final ImmutableMap.Builder<K, UUID> versions = ImmutableMap.builder();
+        final List<TransactWriteItem> writes = new ArrayList<>(values.size());
+        for (final Map.Entry<K, VersionedWrapper<V>> entry
+             : values.entrySet()) {
+            final VersionedWrapper<V> versioned = entry.getValue();
+            final UUID version = UUID.randomUUID();
+            final Item item = serializer.serialize(
+                    entry.getKey(), versioned.getValue(), version);
+            final byte[] match = VersionedDynamoStoreSerializer.getUuidBytes(
+                    versioned.getVersion());
+            keys.add(entry.getKey());
+            versions.put(entry.getKey(), version);
+            writes.add(new TransactWriteItem().withPut(new Put()
+                    .withTableName(table.getTableName())
+                    .withItem(ItemUtils.toAttributeValues(item))
+                    .withConditionExpression("#v = :v")
+                    .withExpressionAttributeNames(ImmutableMap.of(
+                            "#v", serializer.getVersionKey()))
+                    .withExpressionAttributeValues(ImmutableMap.of(
+                            ":v", new AttributeValue().withB(
+                                    ByteBuffer.wrap(match))))));
+        }
+        if (writes.isEmpty()) {
+            return new PutAllResult<>(ImmutableMap.of(), ImmutableSet.of());
+        }
+
+        try {
+            client.transactWriteItems(new TransactWriteItemsRequest()
+                    .withTransactItems(writes));
+            return new PutAllResult<>(versions.build(), ImmutableSet.of());
+        } catch (final TransactionCanceledException e) {
+            final List<CancellationReason> reasons
+                    = e.getCancellationReasons();
+            if (reasons == null) {
+                throw new BitvantageStoreException(e);
+            }
+            final ImmutableSet.Builder<K> failed = ImmutableSet.builder();
+            for (int i = 0; i < reasons.size(); i++) {
+                final String code = reasons.get(i).getCode();
+                if (CONDITION_FAILED.equals(code)
+                            || TRANSACTION_CONFLICT.equals(code)) {
+                    failed.add(keys.get(i));
+                } else if (code != null && !"None".equals(code)) {
+                    throw new BitvantageStoreException(e);
+                }
+            }
+            log.info("Transaction cancelled: reasons={}.", reasons, e);
+            return new PutAllResult<>(ImmutableMap.of(), failed.build());
+        }
+    }
+
+    /**
+     * Get the versioned values of many keys with BatchGetItem. Keys without
+     * a value are left out of the result.
+     */
+    public Map<K, VersionedWrapper<V>> getAll(final Collection<K> keys)
+            throws BitvantageStoreException, InterruptedException {
+        final Map<ByteBuffer, K> keysByBytes = new HashMap<>();
+        for (final K key : keys) {
+            keysByBytes.put(ByteBuffer.wrap(serializer.getPartitionKey(key)),
+                            key);
+        }
+        final List<ByteBuffer> keyBytes = new ArrayList<>(keysByBytes.keySet());
+
+        final ImmutableMap.Builder<K, VersionedWrapper<V>> builder
+                = ImmutableMap.builder();
+        for (int start = 0; start < keyBytes.size();
+             start += GET_BATCH_SIZE) {
+            final int end = Math.min(keyBytes.size(), start + GET_BATCH_SIZE);
+            final TableKeysAndAttributes request = new TableKeysAndAttributes(
+                    table.getTableName())
+                    .withConsistentRead(consistency.isConsistentRead());
+            for (final ByteBuffer bytes : keyBytes.subList(start, end)) {
+                request.addHashOnlyPrimaryKey(keyName, bytes.array());
+            }
+            for (final Item item : getBatch(request, end - start)) {
+                builder.put(keysByBytes.get(ByteBuffer.wrap(
+                        item.getBinary(keyName))),
+                            serializer.deserializeValue(item));
+            }
+        }
+        return builder.build();
+    }
+
+    private List<Item> getBatch(final TableKeysAndAttributes request,
+                                final int size)
+            throws BitvantageStoreException, InterruptedException {
+        final List<Item> items = new ArrayList<>(size);
+        BatchGetItemOutcome outcome = dynamo.batchGetItem(request);
+        int remaining = size;
+        int attempt = 0;
+        while (true) {
+            items.addAll(outcome.getTableItems().getOrDefault(
+                    table.getTableName(), ImmutableList.of()));
+            final Map<String, KeysAndAttributes> unprocessed
+                    = outcome.getUnprocessedKeys();
+            final int count = (unprocessed == null) ? 0
+                    : unprocessed.values().stream()
+                            .mapToInt(keysAndAttributes
+                                    -> keysAndAttributes.getKeys().size())
+                            .sum();
+            if (count == 0) {
+                return items;
+            }
+            if (count < remaining) {
+                remaining = count;
+                attempt = 0;
+            }
+            if (attempt >= MAX_ATTEMPTS_WITHOUT_PROGRESS) {
+                throw new BitvantageStoreException(String.format(
+                        "%d gets still unprocessed after %d attempts.",
+                        count, attempt));
+            }
+            BatchWriter.backoff(attempt++);
+            outcome = dynamo.batchGetItemUnprocessed(unprocessed);
+        }
+    }
+
     @Override
     public void put(final K key, final V value)
             throws BitvantageStoreException, InterruptedException {
-        final Item item = serializer.serialize(key, value);
+        put(key, value, UUID.randomUUID());
+    }
+
+    public void put(final K key, final V value, final UUID version)
+            throws BitvantageStoreException, InterruptedException {
+        final Item item = serializer.serialize(key, value, version);
         table.putItem(item);
     }
 
@@ -102,7 +331,7 @@ public class DynamoOptimisticLockingStore<K extends PartitionKey, V>
         final KeyAttribute hashKey = new KeyAttribute(keyName, keyBytes);
         final GetItemSpec spec = new GetItemSpec()
                 .withPrimaryKey(hashKey)
-                .withConsistentRead(true);
+                .withConsistentRead(consistency.isConsistentRead());
         return table.getItem(spec);
     }
 
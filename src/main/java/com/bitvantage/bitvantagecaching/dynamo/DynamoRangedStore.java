@@ -16,28 +16,48 @@
 package com.bitvantage.bitvantagecaching.dynamo;
 
 import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
-import com.amazonaws.services.dynamodbv2.document.BatchWriteItemOutcome;
+import com.amazonaws.services.dynamodbv2.document.BatchGetItemOutcome;
 import com.amazonaws.services.dynamodbv2.document.DynamoDB;
 import com.amazonaws.services.dynamodbv2.document.Expected;
 import com.amazonaws.services.dynamodbv2.document.Item;
 import com.amazonaws.services.dynamodbv2.document.ItemCollection;
 import com.amazonaws.services.dynamodbv2.document.KeyAttribute;
+import com.amazonaws.services.dynamodbv2.document.Page;
+import com.amazonaws.services.dynamodbv2.document.PrimaryKey;
 import com.amazonaws.services.dynamodbv2.document.QueryOutcome;
-import com.amazonaws.services.dynamodbv2.document.RangeKeyCondition;
 import com.amazonaws.services.dynamodbv2.document.Table;
+import com.amazonaws.services.dynamodbv2.document.TableKeysAndAttributes;
 import com.amazonaws.services.dynamodbv2.document.TableWriteItems;
 import com.amazonaws.services.dynamodbv2.document.spec.GetItemSpec;
 import com.amazonaws.services.dynamodbv2.document.spec.QuerySpec;
 import com.amazonaws.services.dynamodbv2.model.ConditionalCheckFailedException;
-import com.amazonaws.services.dynamodbv2.model.WriteRequest;
+import com.amazonaws.services.dynamodbv2.model.KeysAndAttributes;
+import com.amazonaws.services.dynamodbv2.model.Select;
 import com.bitvantage.bitvantagecaching.BitvantageStoreException;
 import com.bitvantage.bitvantagecaching.PartitionKey;
 import com.bitvantage.bitvantagecaching.RangeKey;
 import com.bitvantage.bitvantagecaching.RangedConditionedStore;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSortedMap;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.function.BiFunction;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 import lombok.extern.slf4j.Slf4j;
 
@@ -50,6 +70,9 @@ public class DynamoRangedStore<P extends PartitionKey, R extends RangeKey<R>, V>
         implements RangedConditionedStore<P, R, V> {
 
     private static final int BATCH_SIZE = 25;
+    private static final int GET_BATCH_SIZE = 100;
+    private static final int MAX_ATTEMPTS_WITHOUT_PROGRESS = 10;
+    private static final Pattern NAME_PATTERN = Pattern.compile("#\\w+");
 
     private final String hashKeyName;
     private final String rangeKeyName;
@@ -57,10 +80,46 @@ public class DynamoRangedStore<P extends PartitionKey, R extends RangeKey<R>, V>
 
     private final Table table;
     private final DynamoDB dynamo;
+    private final BatchWriter writer;
+    private final ReadConsistency consistency;
+    private final ExecutorService queryExecutor;
 
     public DynamoRangedStore(
             final AmazonDynamoDB client, final String table,
             final DynamoRangedStoreSerializer<P, R, V> serializer) {
+        this(client, table, serializer, new BatchWriter(client));
+    }
+
+    public DynamoRangedStore(
+            final AmazonDynamoDB client, final String table,
+            final DynamoRangedStoreSerializer<P, R, V> serializer,
+            final BatchWriter writer) {
+        this(client, table, serializer, writer, ReadConsistency.STRONG);
+    }
+
+    /**
+     * @param writer Sends the batches of putAll and deletePartition.
+     * @param consistency The consistency of gets and queries.
+     */
+    public DynamoRangedStore(
+            final AmazonDynamoDB client, final String table,
+            final DynamoRangedStoreSerializer<P, R, V> serializer,
+            final BatchWriter writer, final ReadConsistency consistency) {
+        this(client, table, serializer, writer, consistency, null);
+    }
+
+    /**
+     * @param queryExecutor Runs the queries of multi-partition reads
+     * concurrently, or null to run them in turn.
+     */
+    public DynamoRangedStore(
+            final AmazonDynamoDB client, final String table,
+            final DynamoRangedStoreSerializer<P, R, V> serializer,
+            final BatchWriter writer, final ReadConsistency consistency,
+            final ExecutorService queryExecutor) {
+        this.writer = writer;
+        this.queryExecutor = queryExecutor;
+        this.consistency = consistency;
         this.dynamo = new DynamoDB(client);
         this.table = dynamo.getTable(table);
         this.hashKeyName = serializer.getPartitionKeyName();
@@ -68,61 +127,245 @@ public class DynamoRangedStore<P extends PartitionKey, R extends RangeKey<R>, V>
         this.serializer = serializer;
     }
 
+    private DynamoRangedStore(final DynamoRangedStore<P, R, V> store,
+                              final ReadConsistency consistency) {
+        this.writer = store.writer;
+        this.queryExecutor = store.queryExecutor;
+        this.consistency = consistency;
+        this.dynamo = store.dynamo;
+        this.table = store.table;
+        this.hashKeyName = store.hashKeyName;
+        this.rangeKeyName = store.rangeKeyName;
+        this.serializer = store.serializer;
+    }
+
+    /**
+     * @return A view of this store that reads with the given consistency,
+     * for instance to fill a cache with eventually consistent reads.
+     */
+    public DynamoRangedStore<P, R, V> withReadConsistency(
+            final ReadConsistency consistency) {
+        return new DynamoRangedStore<>(this, consistency);
+    }
+
     @Override
     public NavigableMap<R, V> getValuesInRange(
             final P partition, final R min, final R max)
             throws InterruptedException, BitvantageStoreException {
-        final byte[] hashValue = serializer.getPartitionKey(partition);
-        final KeyAttribute hashKey = new KeyAttribute(hashKeyName, hashValue);
+        return executeQuery(getRangeQuery(partition, min, max, true));
+    }
 
-        final byte[] minValue = serializer.getRangeKey(min);
-        final byte[] maxValue = serializer.getRangeKey(max);
+    @Override
+    public long countInRange(final P partition, final R min, final R max)
+            throws InterruptedException, BitvantageStoreException {
+        final QuerySpec querySpec = getRangeQuery(partition, min, max, false)
+                .withSelect(Select.COUNT);
 
-        final RangeKeyCondition rangeKeyCondition
-                = new RangeKeyCondition(rangeKeyName)
-                        .between(minValue, maxValue);
+        long count = 0;
+        for (final Page<Item, QueryOutcome> page
+                     : table.query(querySpec).pages()) {
+            count += page.getLowLevelResult().getQueryResult().getCount();
+        }
+        return count;
+    }
 
-        final QuerySpec querySpec = new QuerySpec().withHashKey(hashKey)
-                .withConsistentRead(true)
-                .withRangeKeyCondition(rangeKeyCondition);
+    @Override
+    public R getFirstKeyInRange(final P partition, final R min, final R max)
+            throws InterruptedException, BitvantageStoreException {
+        return getEdgeKey(partition, min, max, true);
+    }
 
-        return executeQuery(querySpec);
+    @Override
+    public R getLastKeyInRange(final P partition, final R min, final R max)
+            throws InterruptedException, BitvantageStoreException {
+        return getEdgeKey(partition, min, max, false);
     }
 
     @Override
-    public NavigableMap<R, V> getValuesAbove(final P partition, final R min)
+    public <A> A reduceInRange(final P partition, final R min, final R max,
+                               final A identity,
+                               final BiFunction<A, ? super V, A> accumulator)
             throws InterruptedException, BitvantageStoreException {
-        final byte[] hashValue = serializer.getPartitionKey(partition);
-        final KeyAttribute hashKey = new KeyAttribute(hashKeyName, hashValue);
+        A result = identity;
+        final Iterator<Page<Item, QueryOutcome>> pages = table.query(
+                getRangeQuery(partition, min, max, true)).pages().iterator();
+        while (pages.hasNext()) {
+            for (final Item item : pages.next()) {
+                result = accumulator.apply(
+                        result, serializer.deserializeValue(item));
+            }
+        }
+        return result;
+    }
 
-        final byte[] minValue = serializer.getRangeKey(min);
+    /**
+     * Read at most limit values from [min, max] in a single request.
+     *
+     * @param after The continuation of the previous page, or null to start
+     * at min.
+     * @return The values, and a continuation if the range may hold more.
+     */
+    public RangePage<R, V> getPage(final P partition, final R min,
+                                   final R max, final R after,
+                                   final int limit)
+            throws InterruptedException, BitvantageStoreException {
+        final RangePages<R, V> pages = getPages(partition, min, max, after,
+                                                limit);
+        if (!pages.hasNext()) {
+            return new RangePage<R, V>(ImmutableSortedMap.of(), null);
+        }
+        return pages.next();
+    }
+
+    /**
+     * Read [min, max] in pages of at most pageSize values, each requested
+     * only once the previous one has been read.
+     */
+    public RangePages<R, V> getPages(final P partition, final R min,
+                                     final R max, final int pageSize) {
+        return getPages(partition, min, max, null, pageSize);
+    }
+
+    private RangePages<R, V> getPages(final P partition, final R min,
+                                      final R max, final R after,
+                                      final int pageSize) {
+        if (pageSize <= 0) {
+            throw new IllegalArgumentException(String.format(
+                    "Page size must be positive, was %d.", pageSize));
+        }
+        final QuerySpec querySpec = getRangeQuery(partition, min, max, true)
+                .withMaxPageSize(pageSize);
+        if (after != null) {
+            querySpec.withExclusiveStartKey(
+                    hashKeyName, serializer.getPartitionKey(partition),
+                    rangeKeyName, serializer.getRangeKey(after));
+        }
+        return new RangePages<>(table.query(querySpec).pages().iterator(),
+                                this::deserialize);
+    }
+
+    private R getEdgeKey(final P partition, final R min, final R max,
+                         final boolean forward)
+            throws BitvantageStoreException {
+        final QuerySpec querySpec = getKeysQuery(
+                partition, "#r BETWEEN :min AND :max",
+                ImmutableMap.of(":min", serializer.getRangeKey(min),
+                                ":max", serializer.getRangeKey(max)))
+                .withScanIndexForward(forward)
+                .withMaxPageSize(1)
+                .withMaxResultSize(1);
+
+        final Iterator<Item> items = table.query(querySpec).iterator();
+        return items.hasNext()
+                ? serializer.deserializeRangeKey(items.next()) : null;
+    }
 
-        final RangeKeyCondition rangeKeyCondition
-                = new RangeKeyCondition(rangeKeyName).ge(minValue);
+    private QuerySpec getRangeQuery(final P partition, final R min,
+                                    final R max, final boolean project) {
+        return getQuery(partition, "#r BETWEEN :min AND :max",
+                        ImmutableMap.of(":min", serializer.getRangeKey(min),
+                                        ":max", serializer.getRangeKey(max)),
+                        project);
+    }
+
+    /**
+     * Build a query of one partition, with an optional condition on the
+     * range key written against the names #h and #r. When projecting, only
+     * the keys and the serializer's value attributes are read.
+     */
+    private QuerySpec getQuery(final P partition, final String rangeCondition,
+                               final Map<String, Object> values,
+                               final boolean project) {
+        final Map<String, String> names = new HashMap<>();
+        final String projection = project ? getProjection(names) : null;
+        return getQuery(partition, rangeCondition, values, projection, names);
+    }
+
+    /**
+     * Build a query of one partition that reads only the keys.
+     */
+    private QuerySpec getKeysQuery(final P partition,
+                                   final String rangeCondition,
+                                   final Map<String, Object> values) {
+        return getQuery(partition, rangeCondition, values, "#h, #r",
+                        new HashMap<>());
+    }
+
+    private QuerySpec getQuery(final P partition, final String rangeCondition,
+                               final Map<String, Object> values,
+                               final String projection,
+                               final Map<String, String> names) {
+        final Map<String, Object> allValues = new HashMap<>(values);
+        allValues.put(":h", serializer.getPartitionKey(partition));
+        final String keyCondition = (rangeCondition == null)
+                ? "#h = :h" : "#h = :h AND " + rangeCondition;
 
         final QuerySpec querySpec = new QuerySpec()
-                .withHashKey(hashKey)
-                .withConsistentRead(true)
-                .withRangeKeyCondition(rangeKeyCondition);
+                .withKeyConditionExpression(keyCondition)
+                .withConsistentRead(consistency.isConsistentRead());
+        if (projection != null) {
+            querySpec.withProjectionExpression(projection);
+        }
 
-        return executeQuery(querySpec);
+        /* DynamoDB rejects names that no expression uses. */
+        names.put("#h", hashKeyName);
+        names.put("#r", rangeKeyName);
+        final Set<String> referenced = new HashSet<>();
+        final Matcher keyNames = NAME_PATTERN.matcher(keyCondition);
+        while (keyNames.find()) {
+            referenced.add(keyNames.group());
+        }
+        if (projection != null) {
+            final Matcher projectedNames = NAME_PATTERN.matcher(projection);
+            while (projectedNames.find()) {
+                referenced.add(projectedNames.group());
+            }
+        }
+        names.keySet().retainAll(referenced);
+        return querySpec.withNameMap(names).withValueMap(allValues);
+    }
+
+    /**
+     * Name the keys #h and #r and the serializer's value attributes #a0,
+     * #a1 and so on.
+     *
+     * @return A projection of the keys and value attributes, or null if the
+     * serializer reads every attribute.
+     */
+    private String getProjection(final Map<String, String> names) {
+        final Collection<String> attributes
+                = serializer.getValueAttributeNames();
+        if (attributes.isEmpty()) {
+            return null;
+        }
+        names.put("#h", hashKeyName);
+        names.put("#r", rangeKeyName);
+        final StringBuilder projection = new StringBuilder("#h, #r");
+        int i = 0;
+        for (final String attribute : attributes) {
+            final String name = "#a" + i++;
+            names.put(name, attribute);
+            projection.append(", ").append(name);
+        }
+        return projection.toString();
     }
 
     @Override
-    public NavigableMap<R, V> getValuesBelow(final P partition, final R max)
+    public NavigableMap<R, V> getValuesAbove(final P partition, final R min)
             throws InterruptedException, BitvantageStoreException {
-        final byte[] hashValue = serializer.getPartitionKey(partition);
-        final KeyAttribute hashKey = new KeyAttribute(hashKeyName, hashValue);
-
-        final byte[] maxValue = serializer.getRangeKey(max);
+        final QuerySpec querySpec = getQuery(
+                partition, "#r >= :min",
+                ImmutableMap.of(":min", serializer.getRangeKey(min)), true);
 
-        final RangeKeyCondition rangeKeyCondition
-                = new RangeKeyCondition(rangeKeyName).le(maxValue);
+        return executeQuery(querySpec);
+    }
 
-        final QuerySpec querySpec = new QuerySpec()
-                .withHashKey(hashKey)
-                .withRangeKeyCondition(rangeKeyCondition)
-                .withConsistentRead(true);
+    @Override
+    public NavigableMap<R, V> getValuesBelow(final P partition, final R max)
+            throws InterruptedException, BitvantageStoreException {
+        final QuerySpec querySpec = getQuery(
+                partition, "#r <= :max",
+                ImmutableMap.of(":max", serializer.getRangeKey(max)), true);
 
         return executeQuery(querySpec);
     }
@@ -131,18 +374,14 @@ public class DynamoRangedStore<P extends PartitionKey, R extends RangeKey<R>, V>
     public NavigableMap<R, V> getNextValues(
             final P partition, final R min, final int count)
             throws InterruptedException, BitvantageStoreException {
-        final byte[] hashValue = serializer.getPartitionKey(partition);
-        final KeyAttribute hashKey = new KeyAttribute(hashKeyName, hashValue);
-
-        final byte[] minValue = serializer.getRangeKey(min);
-
-        final RangeKeyCondition rangeKeyCondition
-                = new RangeKeyCondition(rangeKeyName).gt(minValue);
-
-        final QuerySpec querySpec = new QuerySpec().withHashKey(hashKey)
-                .withRangeKeyCondition(rangeKeyCondition)
-                .withMaxResultSize(count)
-                .withConsistentRead(true);
+        if (count <= 0) {
+            return ImmutableSortedMap.of();
+        }
+        final QuerySpec querySpec = getQuery(
+                partition, "#r > :min",
+                ImmutableMap.of(":min", serializer.getRangeKey(min)), true)
+                .withMaxPageSize(count)
+                .withMaxResultSize(count);
 
         return executeQuery(querySpec);
     }
@@ -150,16 +389,13 @@ public class DynamoRangedStore<P extends PartitionKey, R extends RangeKey<R>, V>
     @Override
     public NavigableMap<R, V> getHeadValues(final P partition, final int count)
             throws InterruptedException, BitvantageStoreException {
-        final byte[] hashValue = serializer.getPartitionKey(partition);
-        final KeyAttribute hashKey = new KeyAttribute(hashKeyName, hashValue);
-
-        final RangeKeyCondition rangeKeyCondition
-                = new RangeKeyCondition(rangeKeyName);
-
-        final QuerySpec querySpec = new QuerySpec().withHashKey(hashKey)
-                .withRangeKeyCondition(rangeKeyCondition)
-                .withMaxResultSize(count)
-                .withConsistentRead(true);
+        if (count <= 0) {
+            return ImmutableSortedMap.of();
+        }
+        final QuerySpec querySpec = getQuery(
+                partition, null, ImmutableMap.of(), true)
+                .withMaxPageSize(count)
+                .withMaxResultSize(count);
 
         return executeQuery(querySpec);
     }
@@ -174,33 +410,219 @@ public class DynamoRangedStore<P extends PartitionKey, R extends RangeKey<R>, V>
 
     @Override
     public void putAll(final P partition, final Map<R, V> entries)
-            throws InterruptedException {
+            throws InterruptedException, BitvantageStoreException {
         final List<Item> items = entries.entrySet().stream()
                 .map(entry -> serializer.serialize(partition, entry.getKey(),
                                                    entry.getValue()))
                 .collect(Collectors.toList());
+        writeItems(items);
+    }
+
+    /**
+     * Put the entries of many partitions, packing them into full batches
+     * regardless of which partition they belong to.
+     */
+    public void putAll(final Map<P, ? extends Map<R, V>> partitions)
+            throws InterruptedException, BitvantageStoreException {
+        final List<Item> items = new ArrayList<>();
+        for (final Map.Entry<P, ? extends Map<R, V>> partition
+             : partitions.entrySet()) {
+            for (final Map.Entry<R, V> entry
+                 : partition.getValue().entrySet()) {
+                items.add(serializer.serialize(partition.getKey(),
+                                               entry.getKey(),
+                                               entry.getValue()));
+            }
+        }
+        writeItems(items);
+    }
+
+    /**
+     * Get the values at many (partition, range) pairs with BatchGetItem.
+     * Keys without a value are left out of the result. Pairs that serialize
+     * to the same key are requested once, as BatchGetItem rejects
+     * duplicates.
+     */
+    public Map<P, NavigableMap<R, V>> getAll(
+            final Map<P, ? extends Collection<R>> keys)
+            throws InterruptedException, BitvantageStoreException {
+        final Map<ByteBuffer, P> partitionsByBytes = new HashMap<>();
+        final Map<List<ByteBuffer>, PrimaryKey> primaryKeys
+                = new LinkedHashMap<>();
+        for (final Map.Entry<P, ? extends Collection<R>> partition
+             : keys.entrySet()) {
+            final byte[] hashValue
+                    = serializer.getPartitionKey(partition.getKey());
+            partitionsByBytes.put(ByteBuffer.wrap(hashValue),
+                                  partition.getKey());
+            for (final R range : partition.getValue()) {
+                final byte[] rangeValue = serializer.getRangeKey(range);
+                primaryKeys.put(
+                        ImmutableList.of(ByteBuffer.wrap(hashValue),
+                                         ByteBuffer.wrap(rangeValue)),
+                        new PrimaryKey(hashKeyName, hashValue,
+                                       rangeKeyName, rangeValue));
+            }
+        }
+        final List<PrimaryKey> uniqueKeys
+                = new ArrayList<>(primaryKeys.values());
+
+        final Map<P, TreeMap<R, V>> values = new HashMap<>();
+        for (int start = 0; start < uniqueKeys.size();
+             start += GET_BATCH_SIZE) {
+            final int end = Math.min(uniqueKeys.size(),
+                                     start + GET_BATCH_SIZE);
+            for (final Item item : getBatch(uniqueKeys.subList(start, end))) {
+                values.computeIfAbsent(
+                        partitionsByBytes.get(ByteBuffer.wrap(
+                                item.getBinary(hashKeyName))),
+                        partition -> new TreeMap<>())
+                        .put(serializer.deserializeRangeKey(item),
+                             serializer.deserializeValue(item));
+            }
+        }
+
+        final ImmutableMap.Builder<P, NavigableMap<R, V>> builder
+                = ImmutableMap.builder();
+        for (final Map.Entry<P, TreeMap<R, V>> partition
+             : values.entrySet()) {
+            builder.put(partition.getKey(),
+                        ImmutableSortedMap.copyOfSorted(partition.getValue()));
+        }
+        return builder.build();
+    }
+
+    /**
+     * Get the values in [min, max] of each partition, querying the
+     * partitions concurrently when the store has a query executor.
+     */
+    public Map<P, NavigableMap<R, V>> getValuesInRange(
+            final Collection<P> partitions, final R min, final R max)
+            throws InterruptedException, BitvantageStoreException {
+        final Map<P, NavigableMap<R, V>> values = new LinkedHashMap<>();
+        if (queryExecutor == null) {
+            for (final P partition : partitions) {
+                values.put(partition, getValuesInRange(partition, min, max));
+            }
+            return values;
+        }
+
+        final Map<P, Future<NavigableMap<R, V>>> queries
+                = new LinkedHashMap<>();
+        try {
+            for (final P partition : partitions) {
+                queries.put(partition, queryExecutor.submit(
+                        () -> getValuesInRange(partition, min, max)));
+            }
+            for (final Map.Entry<P, Future<NavigableMap<R, V>>> query
+                 : queries.entrySet()) {
+                values.put(query.getKey(), query.getValue().get());
+            }
+        } catch (final ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof BitvantageStoreException) {
+                throw (BitvantageStoreException) cause;
+            }
+            if (cause instanceof InterruptedException) {
+                throw (InterruptedException) cause;
+            }
+            throw new BitvantageStoreException(e);
+        } finally {
+            for (final Future<?> query : queries.values()) {
+                query.cancel(true);
+            }
+        }
+        return values;
+    }
+
+    private List<Item> getBatch(final List<PrimaryKey> keys)
+            throws InterruptedException, BitvantageStoreException {
+        final TableKeysAndAttributes request = new TableKeysAndAttributes(
+                table.getTableName())
+                .withPrimaryKeys(keys.toArray(new PrimaryKey[keys.size()]))
+                .withConsistentRead(consistency.isConsistentRead());
+        final Map<String, String> names = new HashMap<>();
+        final String projection = getProjection(names);
+        if (projection != null) {
+            request.withProjectionExpression(projection).withNameMap(names);
+        }
+
+        final List<Item> items = new ArrayList<>();
+        BatchGetItemOutcome outcome = dynamo.batchGetItem(request);
+        int remaining = keys.size();
+        int attempt = 0;
+        while (true) {
+            items.addAll(outcome.getTableItems().getOrDefault(
+                    table.getTableName(), ImmutableList.of()));
+            final Map<String, KeysAndAttributes> unprocessed
+                    = outcome.getUnprocessedKeys();
+            final int count = (unprocessed == null) ? 0
+                    : unprocessed.values().stream()
+                            .mapToInt(keysAndAttributes
+                                    -> keysAndAttributes.getKeys().size())
+                            .sum();
+            if (count == 0) {
+                return items;
+            }
+            if (count < remaining) {
+                remaining = count;
+                attempt = 0;
+            }
+            if (attempt >= MAX_ATTEMPTS_WITHOUT_PROGRESS) {
+                throw new BitvantageStoreException(String.format(
+                        "%d gets still unprocessed after %d attempts.",
+                        count, attempt));
+            }
+            BatchWriter.backoff(attempt++);
+            outcome = dynamo.batchGetItemUnprocessed(unprocessed);
+        }
+    }
+
+    private void writeItems(final List<Item> items)
+            throws InterruptedException, BitvantageStoreException {
         final int total = items.size();
 
+        final List<TableWriteItems> batches = new ArrayList<>();
         int start = 0;
 
         while (start < total) {
             final int end = Math.min(total, start + BATCH_SIZE);
             final List<Item> subItems = items.subList(start, end);
 
-            final TableWriteItems writeRequest = new TableWriteItems(
-                    table.getTableName()).withItemsToPut(subItems);
-            final BatchWriteItemOutcome outcome
-                    = dynamo.batchWriteItem(writeRequest);
-            Map<String, List<WriteRequest>> unprocessed
-                    = outcome.getUnprocessedItems();
-            while (unprocessed.size() > 0) {
-                Thread.sleep(1000);
-                final BatchWriteItemOutcome partialOutcome
-                        = dynamo.batchWriteItemUnprocessed(unprocessed);
-                unprocessed = partialOutcome.getUnprocessedItems();
-            }
+            batches.add(new TableWriteItems(table.getTableName())
+                    .withItemsToPut(subItems));
+            start = end;
+        }
+        writer.write(batches);
+    }
+
+    @Override
+    public void deletePartition(final P partition)
+            throws InterruptedException, BitvantageStoreException {
+        final QuerySpec querySpec = getKeysQuery(
+                partition, null, ImmutableMap.of());
+
+        final List<PrimaryKey> keys = new ArrayList<>();
+        for (final Item item : table.query(querySpec)) {
+            keys.add(new PrimaryKey(hashKeyName, item.getBinary(hashKeyName),
+                                    rangeKeyName,
+                                    item.getBinary(rangeKeyName)));
+        }
+        final int total = keys.size();
+
+        final List<TableWriteItems> batches = new ArrayList<>();
+        int start = 0;
+
+        while (start < total) {
+            final int end = Math.min(total, start + BATCH_SIZE);
+            final List<PrimaryKey> subKeys = keys.subList(start, end);
+
+            batches.add(new TableWriteItems(table.getTableName())
+                    .withPrimaryKeysToDelete(subKeys.toArray(
+                            new PrimaryKey[subKeys.size()])));
             start = end;
         }
+        writer.write(batches);
     }
 
     @Override
@@ -211,11 +633,8 @@ public class DynamoRangedStore<P extends PartitionKey, R extends RangeKey<R>, V>
     @Override
     public NavigableMap<R, V> getPartition(final P partition) throws
             InterruptedException, BitvantageStoreException {
-        final byte[] hashValue = serializer.getPartitionKey(partition);
-        final KeyAttribute hashKey = new KeyAttribute(hashKeyName, hashValue);
-        final QuerySpec querySpec = new QuerySpec()
-                .withHashKey(hashKey)
-                .withConsistentRead(true);
+        final QuerySpec querySpec = getQuery(
+                partition, null, ImmutableMap.of(), true);
 
         return executeQuery(querySpec);
     }
@@ -237,15 +656,16 @@ public class DynamoRangedStore<P extends PartitionKey, R extends RangeKey<R>, V>
 
     private NavigableMap<R, V> executeQuery(final QuerySpec querySpec)
             throws BitvantageStoreException {
-        final ItemCollection<QueryOutcome> result = table.query(querySpec);
+        return deserialize(table.query(querySpec));
+    }
 
+    private NavigableMap<R, V> deserialize(final Iterable<Item> items)
+            throws BitvantageStoreException {
         final ImmutableSortedMap.Builder<R, V> builder
                 = ImmutableSortedMap.naturalOrder();
-        for (final Item item : result) {
-            final R rangeKey = serializer.deserializeRangeKey(item);
-            final V distance = serializer.deserializeValue(item);
-
-            builder.put(rangeKey, distance);
+        for (final Item item : items) {
+            builder.put(serializer.deserializeRangeKey(item),
+                        serializer.deserializeValue(item));
         }
         return builder.build();
     }
@@ -261,7 +681,8 @@ public class DynamoRangedStore<P extends PartitionKey, R extends RangeKey<R>, V>
                                                        rangeValue);
         
         final GetItemSpec spec = new GetItemSpec()
-                .withPrimaryKey(hashKey, rangeKey);
+                .withPrimaryKey(hashKey, rangeKey)
+                .withConsistentRead(consistency.isConsistentRead());
         
         final Item item = table.getItem(spec);
         return serializer.deserializeValue(item);
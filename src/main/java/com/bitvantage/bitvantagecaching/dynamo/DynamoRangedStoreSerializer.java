@@ -19,6 +19,8 @@ import com.amazonaws.services.dynamodbv2.document.Item;
 import com.bitvantage.bitvantagecaching.BitvantageStoreException;
 import com.bitvantage.bitvantagecaching.PartitionKey;
 import com.bitvantage.bitvantagecaching.RangeKey;
+import com.google.common.collect.ImmutableSet;
+import java.util.Collection;
 
 /**
  *
@@ -41,5 +43,13 @@ public interface DynamoRangedStoreSerializer<P extends PartitionKey, R extends R
     R deserializeRangeKey(Item item) throws BitvantageStoreException;
     
     P deserializePartitionKey(Item item) throws BitvantageStoreException;
-    
+
+    /**
+     * @return The attributes, other than the keys, that deserializeValue
+     * reads, so that queries can project them. Empty to read every attribute.
+     */
+    default Collection<String> getValueAttributeNames() {
+        return ImmutableSet.of();
+    }
+
 }
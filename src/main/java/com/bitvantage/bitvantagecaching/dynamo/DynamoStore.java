@@ -15,52 +15,169 @@
  */
 package com.bitvantage.bitvantagecaching.dynamo;
 
+import com.amazonaws.AmazonClientException;
 import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
-import com.amazonaws.services.dynamodbv2.document.BatchWriteItemOutcome;
 import com.amazonaws.services.dynamodbv2.document.DynamoDB;
 import com.amazonaws.services.dynamodbv2.document.Item;
 import com.amazonaws.services.dynamodbv2.document.ItemCollection;
+import com.amazonaws.services.dynamodbv2.document.ItemUtils;
 import com.amazonaws.services.dynamodbv2.document.KeyAttribute;
 import com.amazonaws.services.dynamodbv2.document.ScanOutcome;
 import com.amazonaws.services.dynamodbv2.document.Table;
 import com.amazonaws.services.dynamodbv2.document.TableWriteItems;
 import com.amazonaws.services.dynamodbv2.document.spec.GetItemSpec;
-import com.amazonaws.services.dynamodbv2.model.WriteRequest;
+import com.amazonaws.services.dynamodbv2.document.spec.ScanSpec;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.ScanRequest;
+import com.amazonaws.services.dynamodbv2.model.ScanResult;
 import com.bitvantage.bitvantagecaching.BitvantageStoreException;
 import com.bitvantage.bitvantagecaching.PartitionKey;
 import com.bitvantage.bitvantagecaching.Store;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import lombok.extern.slf4j.Slf4j;
 
 /**
+ * With chunking enabled, items larger than DynamoDB allows are split into
+ * chunk items by an {@link ItemChunker}, and reassembled when read. As
+ * batches cannot tell whether they replace a chunked item, a chunking store
+ * writes each item of putAll with its own conditional put, which removes the
+ * chunks of the item it replaces. Without chunking, putAll writes in batches
+ * and oversized items are rejected by DynamoDB.
  *
  * @author Matt Laquidara
  */
+@Slf4j
 public class DynamoStore<P extends PartitionKey, V> implements Store<P, V> {
 
     private static final int BATCH_SIZE = 25;
+    private static final int SCAN_RETRIES = 5;
+    private static final long SCAN_RETRY_MILLIS = 100;
 
     private final String keyName;
     private final DynamoStoreSerializer<P, V> serializer;
 
     private final Table table;
     private final DynamoDB dynamo;
+    private final AmazonDynamoDB client;
+    private final ExecutorService scanExecutor;
+    private final int scanSegments;
+    private final BatchWriter writer;
+    private final ReadConsistency consistency;
+    private final ItemChunker chunker;
 
     public DynamoStore(final AmazonDynamoDB client, final String table,
                        final DynamoStoreSerializer<P, V> serializer)
             throws BitvantageStoreException {
+        this(client, table, serializer, null, 1);
+    }
+
+    public DynamoStore(final AmazonDynamoDB client, final String table,
+                       final DynamoStoreSerializer<P, V> serializer,
+                       final ReadConsistency consistency)
+            throws BitvantageStoreException {
+        this(client, table, serializer, null, 1, new BatchWriter(client),
+             consistency);
+    }
+
+    /**
+     * @param scanExecutor Runs the segments of parallel scans.
+     * @param scanSegments The number of segments getAll divides the table
+     * into.
+     */
+    public DynamoStore(final AmazonDynamoDB client, final String table,
+                       final DynamoStoreSerializer<P, V> serializer,
+                       final ExecutorService scanExecutor,
+                       final int scanSegments)
+            throws BitvantageStoreException {
+        this(client, table, serializer, scanExecutor, scanSegments,
+             new BatchWriter(client));
+    }
+
+    /**
+     * @param writer Sends the batches of putAll.
+     */
+    public DynamoStore(final AmazonDynamoDB client, final String table,
+                       final DynamoStoreSerializer<P, V> serializer,
+                       final ExecutorService scanExecutor,
+                       final int scanSegments, final BatchWriter writer)
+            throws BitvantageStoreException {
+        this(client, table, serializer, scanExecutor, scanSegments, writer,
+             ReadConsistency.STRONG);
+    }
+
+    /**
+     * @param consistency The consistency of gets and scans.
+     */
+    public DynamoStore(final AmazonDynamoDB client, final String table,
+                       final DynamoStoreSerializer<P, V> serializer,
+                       final ExecutorService scanExecutor,
+                       final int scanSegments, final BatchWriter writer,
+                       final ReadConsistency consistency)
+            throws BitvantageStoreException {
+        this(client, table, serializer, scanExecutor, scanSegments, writer,
+             consistency, false);
+    }
+
+    /**
+     * @param chunking Whether items over the DynamoDB size limit are split
+     * into chunks. Every write of a chunking store is a single conditional
+     * put, so it should only be enabled for tables that need it.
+     */
+    public DynamoStore(final AmazonDynamoDB client, final String table,
+                       final DynamoStoreSerializer<P, V> serializer,
+                       final ExecutorService scanExecutor,
+                       final int scanSegments, final BatchWriter writer,
+                       final ReadConsistency consistency,
+                       final boolean chunking)
+            throws BitvantageStoreException {
+        this.client = client;
         this.dynamo = new DynamoDB(client);
         this.table = dynamo.getTable(table);
         this.keyName = serializer.getPartitionKeyName();
         this.serializer = serializer;
+        this.scanExecutor = scanExecutor;
+        this.scanSegments = scanSegments;
+        this.writer = writer;
+        this.consistency = consistency;
+        this.chunker = chunking
+                ? new ItemChunker(dynamo, this.table, keyName, writer) : null;
+    }
+
+    private DynamoStore(final DynamoStore<P, V> store,
+                        final ReadConsistency consistency) {
+        this.client = store.client;
+        this.dynamo = store.dynamo;
+        this.table = store.table;
+        this.keyName = store.keyName;
+        this.serializer = store.serializer;
+        this.scanExecutor = store.scanExecutor;
+        this.scanSegments = store.scanSegments;
+        this.writer = store.writer;
+        this.consistency = consistency;
+        this.chunker = store.chunker;
+    }
+
+    /**
+     * @return A view of this store that reads with the given consistency,
+     * for instance to fill a cache with eventually consistent reads.
+     */
+    public DynamoStore<P, V> withReadConsistency(
+            final ReadConsistency consistency) {
+        return new DynamoStore<>(this, consistency);
     }
 
     @Override
     public boolean containsKey(final P key) throws BitvantageStoreException,
             InterruptedException {
-        return retrieveItem(key) != null;
+        return getItem(key) != null;
     }
 
     @Override
@@ -75,47 +192,62 @@ public class DynamoStore<P extends PartitionKey, V> implements Store<P, V> {
     public void put(final P key, final V value) throws BitvantageStoreException,
             InterruptedException {
         final Item item = serializer.serialize(key, value);
-        table.putItem(item);
+        if (chunker == null) {
+            table.putItem(item);
+        } else {
+            chunker.put(item);
+        }
     }
 
     @Override
     public void putAll(final Map<P, V> entries) throws BitvantageStoreException,
             InterruptedException {
+        if (chunker != null) {
+            for (final Map.Entry<P, V> entry : entries.entrySet()) {
+                chunker.put(serializer.serialize(entry.getKey(),
+                                                 entry.getValue()));
+            }
+            return;
+        }
         final ImmutableList.Builder<Item> builder = ImmutableList.builder();
         for (final Map.Entry<P, V> entry : entries.entrySet()) {
-            builder.add(serializer.serialize(entry.getKey(), entry.getValue()));
+            builder.add(serializer.serialize(entry.getKey(),
+                                             entry.getValue()));
         }
         final List<Item> items = builder.build();
         final int total = items.size();
 
+        final List<TableWriteItems> batches = new ArrayList<>();
         int start = 0;
 
         while (start < total) {
             final int end = Math.min(total, start + BATCH_SIZE);
             final List<Item> subItems = items.subList(start, end);
 
-            final TableWriteItems writeRequest = new TableWriteItems(
-                    table.getTableName()).withItemsToPut(subItems);
-            final BatchWriteItemOutcome outcome
-                    = dynamo.batchWriteItem(writeRequest);
-            Map<String, List<WriteRequest>> unprocessed
-                    = outcome.getUnprocessedItems();
-            while (unprocessed.size() > 0) {
-                Thread.sleep(1000);
-                final BatchWriteItemOutcome partialOutcome
-                        = dynamo.batchWriteItemUnprocessed(unprocessed);
-                unprocessed = partialOutcome.getUnprocessedItems();
-            }
+            batches.add(new TableWriteItems(table.getTableName())
+                    .withItemsToPut(subItems));
             start = end;
         }
+        writer.write(batches);
     }
 
     @Override
     public Map<P, V> getAll() throws BitvantageStoreException,
             InterruptedException {
-        final ItemCollection<ScanOutcome> result = table.scan();
+        if (scanExecutor != null) {
+            final Map<P, V> entries = new ConcurrentHashMap<>();
+            scan(new ScanCheckpoint(scanSegments), entries::put);
+            return ImmutableMap.copyOf(entries);
+        }
+        final ItemCollection<ScanOutcome> result = table.scan(
+                new ScanSpec().withConsistentRead(
+                        consistency.isConsistentRead()));
         final ImmutableMap.Builder<P, V> builder = ImmutableMap.builder();
-        for (final Item item : result) {
+        for (final Item scanned : result) {
+            final Item item = assembleScanned(scanned);
+            if (item == null) {
+                continue;
+            }
             final P key = serializer.deserializeKey(item);
             final V value = serializer.deserializeValue(item);
             builder.put(key, value);
@@ -123,20 +255,140 @@ public class DynamoStore<P extends PartitionKey, V> implements Store<P, V> {
         return builder.build();
     }
 
+    /**
+     * Scan the segments of the table that the checkpoint has not finished,
+     * in parallel, passing every entry to the consumer. A failed page is
+     * retried before the scan gives up; the checkpoint then records how far
+     * each segment got, and scanning with it again resumes from there.
+     */
+    public void scan(final ScanCheckpoint checkpoint,
+                     final ScanConsumer<P, V> consumer)
+            throws BitvantageStoreException, InterruptedException {
+        if (scanExecutor == null) {
+            for (int i = 0; i < checkpoint.getTotalSegments(); i++) {
+                scanSegment(checkpoint, i, consumer);
+            }
+            return;
+        }
+
+        final List<Future<?>> segments = new ArrayList<>();
+        try {
+            for (int i = 0; i < checkpoint.getTotalSegments(); i++) {
+                final int segment = i;
+                segments.add(scanExecutor.submit(() -> {
+                    scanSegment(checkpoint, segment, consumer);
+                    return null;
+                }));
+            }
+            for (final Future<?> segment : segments) {
+                segment.get();
+            }
+        } catch (final ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof BitvantageStoreException) {
+                throw (BitvantageStoreException) cause;
+            }
+            if (cause instanceof InterruptedException) {
+                throw (InterruptedException) cause;
+            }
+            throw new BitvantageStoreException(e);
+        } finally {
+            for (final Future<?> segment : segments) {
+                segment.cancel(true);
+            }
+        }
+    }
+
+    private void scanSegment(final ScanCheckpoint checkpoint,
+                             final int segment,
+                             final ScanConsumer<P, V> consumer)
+            throws BitvantageStoreException, InterruptedException {
+        while (!checkpoint.isFinished(segment)) {
+            final ScanRequest request = new ScanRequest()
+                    .withTableName(table.getTableName())
+                    .withSegment(segment)
+                    .withTotalSegments(checkpoint.getTotalSegments())
+                    .withConsistentRead(consistency.isConsistentRead())
+                    .withExclusiveStartKey(checkpoint.getLastKey(segment));
+            final ScanResult result = scanPage(request);
+            for (final Map<String, AttributeValue> attributes
+                 : result.getItems()) {
+                final Item item = assembleScanned(
+                        ItemUtils.toItem(attributes));
+                if (item == null) {
+                    continue;
+                }
+                consumer.accept(serializer.deserializeKey(item),
+                                serializer.deserializeValue(item));
+            }
+            checkpoint.advance(segment, result.getLastEvaluatedKey());
+        }
+    }
+
+    private ScanResult scanPage(final ScanRequest request)
+            throws BitvantageStoreException, InterruptedException {
+        int attempt = 0;
+        while (true) {
+            try {
+                return client.scan(request);
+            } catch (final AmazonClientException e) {
+                if (!e.isRetryable() || attempt >= SCAN_RETRIES) {
+                    throw new BitvantageStoreException(e);
+                }
+                log.debug("Retrying scan of segment {}.",
+                          request.getSegment(), e);
+                Thread.sleep(SCAN_RETRY_MILLIS << attempt);
+                attempt++;
+            }
+        }
+    }
+
     @Override
     public boolean isEmpty() throws BitvantageStoreException,
             InterruptedException {
         return false;
     }
 
-    private Item retrieveItem(final P key) throws BitvantageStoreException {
+    @Override
+    public void delete(final P key) throws BitvantageStoreException,
+            InterruptedException {
+        final byte[] keyBytes = serializer.getPartitionKey(key);
+        if (chunker == null) {
+            table.deleteItem(new KeyAttribute(keyName, keyBytes));
+        } else {
+            chunker.delete(keyBytes);
+        }
+    }
+
+    private Item retrieveItem(final P key)
+            throws BitvantageStoreException, InterruptedException {
+        final Item item = getItem(key);
+        return (chunker == null) ? item : chunker.assemble(item);
+    }
+
+    /**
+     * @return The scanned item, reassembled if it is chunked, or null if it
+     * is a chunk or was deleted while it was read.
+     */
+    private Item assembleScanned(final Item scanned)
+            throws BitvantageStoreException, InterruptedException {
+        if (chunker == null) {
+            return scanned;
+        }
+        if (chunker.isChunk(scanned)) {
+            return null;
+        }
+        return chunker.assemble(scanned);
+    }
+
+    private Item getItem(final P key) throws BitvantageStoreException {
         final byte[] keyBytes = serializer.getPartitionKey(key);
         final KeyAttribute hashKey = new KeyAttribute(keyName, keyBytes);
         final GetItemSpec spec = new GetItemSpec()
                 .withPrimaryKey(hashKey)
-                .withConsistentRead(true);
+                .withConsistentRead(consistency.isConsistentRead());
 
-        return table.getItem(hashKey);
+        return table.getItem(spec);
     }
 
 }
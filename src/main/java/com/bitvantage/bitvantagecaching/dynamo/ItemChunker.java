@@ -0,0 +1,371 @@
+/*
+ * Copyright 2020 Public Transit Analytics.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bitvantage.bitvantagecaching.dynamo;
+
+import com.amazonaws.services.dynamodbv2.document.BatchGetItemOutcome;
+import com.amazonaws.services.dynamodbv2.document.DeleteItemOutcome;
+import com.amazonaws.services.dynamodbv2.document.DynamoDB;
+import com.amazonaws.services.dynamodbv2.document.Item;
+import com.amazonaws.services.dynamodbv2.document.PutItemOutcome;
+import com.amazonaws.services.dynamodbv2.document.Table;
+import com.amazonaws.services.dynamodbv2.document.TableKeysAndAttributes;
+import com.amazonaws.services.dynamodbv2.document.TableWriteItems;
+import com.amazonaws.services.dynamodbv2.document.spec.DeleteItemSpec;
+import com.amazonaws.services.dynamodbv2.document.spec.GetItemSpec;
+import com.amazonaws.services.dynamodbv2.document.spec.PutItemSpec;
+import com.amazonaws.services.dynamodbv2.model.ConditionalCheckFailedException;
+import com.amazonaws.services.dynamodbv2.model.KeysAndAttributes;
+import com.amazonaws.services.dynamodbv2.model.ReturnValue;
+import com.bitvantage.bitvantagecaching.BitvantageStoreException;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.UUID;
+
+/**
+ * Splits items that exceed the DynamoDB item size limit. The binary
+ * attributes of an oversized item are cut into chunk items, whose keys are
+ * the item's key followed by a version and a chunk number. The item itself
+ * is stored without them, recording the version and the number of chunks
+ * per attribute, and is written after its chunks so that readers never see
+ * it before they exist. Chunks of a replaced version are deleted once the
+ * new item is in place. Writes are conditional on the old item not being
+ * chunked, so the old item is only returned, to find its chunks, when it is
+ * chunked and its stored head is small. Chunks are always read
+ * consistently, and a reader that finds chunks missing because the item was
+ * replaced meanwhile reads the item again.
+ *
+ * The attributes "chunks", "chunkVersion" and "chunkData" are reserved.
+ *
+ * @author Public Transit Analytics
+ */
+class ItemChunker {
+
+    static final int MAX_ITEM_BYTES = 400 * 1024;
+    static final int CHUNK_BYTES = 256 * 1024;
+
+    private static final String CHUNKS_ATTRIBUTE = "chunks";
+    private static final String VERSION_ATTRIBUTE = "chunkVersion";
+    private static final String DATA_ATTRIBUTE = "chunkData";
+    private static final int BATCH_SIZE = 25;
+    private static final int GET_BATCH_SIZE = 100;
+    private static final int ATTRIBUTE_OVERHEAD = 100;
+    private static final int MAX_ATTEMPTS_WITHOUT_PROGRESS = 10;
+    private static final int MAX_ASSEMBLY_ATTEMPTS = 5;
+    private static final String UNCHUNKED_CONDITION
+            = "attribute_not_exists(#c)";
+    private static final Map<String, String> CHUNKS_NAME
+            = ImmutableMap.of("#c", CHUNKS_ATTRIBUTE);
+
+    private final DynamoDB dynamo;
+    private final Table table;
+    private final String keyName;
+    private final BatchWriter writer;
+
+    ItemChunker(final DynamoDB dynamo, final Table table,
+                final String keyName, final BatchWriter writer) {
+        this.dynamo = dynamo;
+        this.table = table;
+        this.keyName = keyName;
+        this.writer = writer;
+    }
+
+    /**
+     * @return An upper estimate of the stored size of the item.
+     */
+    static long getSize(final Item item) {
+        long size = 0;
+        for (final Map.Entry<String, Object> attribute : item.attributes()) {
+            size += attribute.getKey().length();
+            final Object value = attribute.getValue();
+            if (value instanceof byte[]) {
+                size += ((byte[]) value).length;
+            } else if (value instanceof String) {
+                size += ((String) value).getBytes(StandardCharsets.UTF_8)
+                        .length;
+            } else {
+                size += ATTRIBUTE_OVERHEAD;
+            }
+        }
+        return size;
+    }
+
+    boolean isOversized(final Item item) {
+        return getSize(item) > MAX_ITEM_BYTES;
+    }
+
+    boolean isChunk(final Item item) {
+        return item.hasAttribute(DATA_ATTRIBUTE);
+    }
+
+    /**
+     * Write an item, chunking it if it is oversized, and remove the chunks
+     * of the item it replaces.
+     */
+    void put(final Item item)
+            throws BitvantageStoreException, InterruptedException {
+        final Item stored = isOversized(item) ? writeChunks(item) : item;
+        try {
+            table.putItem(new PutItemSpec().withItem(stored)
+                    .withConditionExpression(UNCHUNKED_CONDITION)
+                    .withNameMap(CHUNKS_NAME));
+        } catch (final ConditionalCheckFailedException e) {
+            final PutItemOutcome outcome = table.putItem(new PutItemSpec()
+                    .withItem(stored).withReturnValues(ReturnValue.ALL_OLD));
+            deleteChunks(outcome.getItem());
+        }
+    }
+
+    /**
+     * Delete an item along with its chunks.
+     */
+    void delete(final byte[] key)
+            throws BitvantageStoreException, InterruptedException {
+        try {
+            table.deleteItem(new DeleteItemSpec()
+                    .withPrimaryKey(keyName, key)
+                    .withConditionExpression(UNCHUNKED_CONDITION)
+                    .withNameMap(CHUNKS_NAME));
+        } catch (final ConditionalCheckFailedException e) {
+            final DeleteItemOutcome outcome = table.deleteItem(
+                    new DeleteItemSpec().withPrimaryKey(keyName, key)
+                            .withReturnValues(ReturnValue.ALL_OLD));
+            deleteChunks(outcome.getItem());
+        }
+    }
+
+    /**
+     * @return The item with its chunked attributes restored, or null if it
+     * was deleted while its chunks were read.
+     */
+    Item assemble(final Item item)
+            throws BitvantageStoreException, InterruptedException {
+        Item head = item;
+        for (int attempt = 0; attempt < MAX_ASSEMBLY_ATTEMPTS; attempt++) {
+            if (head == null || !head.hasAttribute(CHUNKS_ATTRIBUTE)) {
+                return head;
+            }
+            final Item assembled = tryAssemble(head);
+            if (assembled != null) {
+                return assembled;
+            }
+            final byte[] version = head.getBinary(VERSION_ATTRIBUTE);
+            head = table.getItem(new GetItemSpec()
+                    .withPrimaryKey(keyName, head.getBinary(keyName))
+                    .withConsistentRead(true));
+            if (head != null && head.hasAttribute(CHUNKS_ATTRIBUTE)
+                        && Arrays.equals(version, head.getBinary(
+                                VERSION_ATTRIBUTE))) {
+                throw new BitvantageStoreException(
+                        "A chunk of the current item is missing.");
+            }
+        }
+        throw new BitvantageStoreException(String.format(
+                "The item was replaced during each of %d attempts to read it.",
+                MAX_ASSEMBLY_ATTEMPTS));
+    }
+
+    /**
+     * @return The item with its chunked attributes restored, or null if
+     * any chunk is missing.
+     */
+    private Item tryAssemble(final Item item)
+            throws BitvantageStoreException, InterruptedException {
+        final byte[] key = item.getBinary(keyName);
+        final byte[] version = item.getBinary(VERSION_ATTRIBUTE);
+        final SortedMap<String, Integer> counts = getCounts(item);
+        int total = 0;
+        for (final int count : counts.values()) {
+            total += count;
+        }
+
+        final Map<ByteBuffer, byte[]> chunks = new HashMap<>();
+        for (int start = 0; start < total; start += GET_BATCH_SIZE) {
+            final int end = Math.min(total, start + GET_BATCH_SIZE);
+            final TableKeysAndAttributes keys = new TableKeysAndAttributes(
+                    table.getTableName()).withConsistentRead(true);
+            for (int i = start; i < end; i++) {
+                keys.addHashOnlyPrimaryKey(keyName,
+                                           getChunkKey(key, version, i));
+            }
+            for (final Item chunk : getBatch(keys, end - start)) {
+                chunks.put(ByteBuffer.wrap(chunk.getBinary(keyName)),
+                           chunk.getBinary(DATA_ATTRIBUTE));
+            }
+        }
+
+        final Item assembled = Item.fromMap(item.asMap())
+                .removeAttribute(CHUNKS_ATTRIBUTE)
+                .removeAttribute(VERSION_ATTRIBUTE);
+        int index = 0;
+        for (final Map.Entry<String, Integer> count : counts.entrySet()) {
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            for (int i = 0; i < count.getValue(); i++) {
+                final byte[] chunk = chunks.get(ByteBuffer.wrap(
+                        getChunkKey(key, version, index++)));
+                if (chunk == null) {
+                    return null;
+                }
+                bytes.write(chunk, 0, chunk.length);
+            }
+            assembled.withBinary(count.getKey(), bytes.toByteArray());
+        }
+        return assembled;
+    }
+
+    private List<Item> getBatch(final TableKeysAndAttributes request,
+                                final int size)
+            throws BitvantageStoreException, InterruptedException {
+        final List<Item> items = new ArrayList<>();
+        BatchGetItemOutcome outcome = dynamo.batchGetItem(request);
+        int remaining = size;
+        int attempt = 0;
+        while (true) {
+            items.addAll(outcome.getTableItems().getOrDefault(
+                    table.getTableName(), ImmutableList.of()));
+            final Map<String, KeysAndAttributes> unprocessed
+                    = outcome.getUnprocessedKeys();
+            final int count = (unprocessed == null) ? 0
+                    : unprocessed.values().stream()
+                            .mapToInt(keysAndAttributes
+                                    -> keysAndAttributes.getKeys().size())
+                            .sum();
+            if (count == 0) {
+                return items;
+            }
+            if (count < remaining) {
+                remaining = count;
+                attempt = 0;
+            }
+            if (attempt >= MAX_ATTEMPTS_WITHOUT_PROGRESS) {
+                throw new BitvantageStoreException(String.format(
+                        "%d gets still unprocessed after %d attempts.",
+                        count, attempt));
+            }
+            BatchWriter.backoff(attempt++);
+            outcome = dynamo.batchGetItemUnprocessed(unprocessed);
+        }
+    }
+
+    /**
+     * Delete the chunks of an item that has been replaced or removed.
+     */
+    private void deleteChunks(final Item old)
+            throws BitvantageStoreException, InterruptedException {
+        if (old == null || !old.hasAttribute(CHUNKS_ATTRIBUTE)) {
+            return;
+        }
+        final byte[] key = old.getBinary(keyName);
+        final byte[] version = old.getBinary(VERSION_ATTRIBUTE);
+        int total = 0;
+        for (final int count : getCounts(old).values()) {
+            total += count;
+        }
+
+        final List<TableWriteItems> batches = new ArrayList<>();
+        for (int start = 0; start < total; start += BATCH_SIZE) {
+            final int end = Math.min(total, start + BATCH_SIZE);
+            final TableWriteItems batch = new TableWriteItems(
+                    table.getTableName());
+            for (int i = start; i < end; i++) {
+                batch.addHashOnlyPrimaryKeyToDelete(
+                        keyName, getChunkKey(key, version, i));
+            }
+            batches.add(batch);
+        }
+        writer.write(batches);
+    }
+
+    private Item writeChunks(final Item item)
+            throws BitvantageStoreException, InterruptedException {
+        final byte[] key = item.getBinary(keyName);
+        final byte[] version = getVersionBytes(UUID.randomUUID());
+
+        final SortedMap<String, byte[]> attributes = new TreeMap<>();
+        for (final Map.Entry<String, Object> attribute : item.attributes()) {
+            if (!attribute.getKey().equals(keyName)
+                        && attribute.getValue() instanceof byte[]) {
+                attributes.put(attribute.getKey(),
+                               (byte[]) attribute.getValue());
+            }
+        }
+
+        final Item head = Item.fromMap(item.asMap());
+        final Map<String, Integer> counts = new TreeMap<>();
+        final List<Item> chunks = new ArrayList<>();
+        for (final Map.Entry<String, byte[]> attribute
+             : attributes.entrySet()) {
+            final byte[] bytes = attribute.getValue();
+            int count = 0;
+            for (int offset = 0; offset < bytes.length;
+                 offset += CHUNK_BYTES) {
+                chunks.add(new Item()
+                        .withBinary(keyName, getChunkKey(
+                                key, version, chunks.size()))
+                        .withBinary(DATA_ATTRIBUTE, Arrays.copyOfRange(
+                                bytes, offset,
+                                Math.min(bytes.length, offset + CHUNK_BYTES))));
+                count++;
+            }
+            counts.put(attribute.getKey(), count);
+            head.removeAttribute(attribute.getKey());
+        }
+
+        final List<TableWriteItems> batches = new ArrayList<>();
+        for (int start = 0; start < chunks.size(); start += BATCH_SIZE) {
+            final int end = Math.min(chunks.size(), start + BATCH_SIZE);
+            batches.add(new TableWriteItems(table.getTableName())
+                    .withItemsToPut(chunks.subList(start, end)));
+        }
+        writer.write(batches);
+
+        return head.withMap(CHUNKS_ATTRIBUTE, counts)
+                .withBinary(VERSION_ATTRIBUTE, version);
+    }
+
+    private static SortedMap<String, Integer> getCounts(final Item item) {
+        final SortedMap<String, Integer> counts = new TreeMap<>();
+        for (final Map.Entry<String, Object> count
+             : item.getRawMap(CHUNKS_ATTRIBUTE).entrySet()) {
+            counts.put(count.getKey(),
+                       ((Number) count.getValue()).intValue());
+        }
+        return counts;
+    }
+
+    private static byte[] getChunkKey(final byte[] key, final byte[] version,
+                                      final int index) {
+        return ByteBuffer.allocate(key.length + 1 + version.length
+                                           + Integer.BYTES)
+                .put(key).put((byte) 0).put(version).putInt(index).array();
+    }
+
+    private static byte[] getVersionBytes(final UUID uuid) {
+        return ByteBuffer.allocate(16)
+                .putLong(uuid.getMostSignificantBits())
+                .putLong(uuid.getLeastSignificantBits()).array();
+    }
+
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright 2020 Public Transit Analytics.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bitvantage.bitvantagecaching.dynamo;
+
+import com.bitvantage.bitvantagecaching.BitvantageStoreException;
+import com.bitvantage.bitvantagecaching.OptimisticLockingStore;
+import com.bitvantage.bitvantagecaching.PartitionKey;
+import com.bitvantage.bitvantagecaching.VersionedWrapper;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import java.time.Duration;
+import java.util.Optional;
+import java.util.UUID;
+import lombok.Value;
+
+/**
+ * Keeps recently read and written values of a
+ * {@link DynamoOptimisticLockingStore} in memory. An entry younger than the
+ * staleness bound is returned as is. An older entry is either revalidated,
+ * by reading only its version and keeping the entry if the version has not
+ * changed, or read again in full. Values written through this store are
+ * cached with the version they were given, so a read after a successful
+ * putOnMatch does not transfer the value back.
+ *
+ * Writes by other clients are only seen once an entry is older than the
+ * staleness bound, so a zero bound with revalidation gives reads as fresh as
+ * the underlying store while sparing the transfer of unchanged values.
+ *
+ * A read only publishes what it found if the entry it started from is still
+ * the cached one, so it never overwrites a value written through this store
+ * while the read was in flight.
+ *
+ * @author Public Transit Analytics
+ */
+public class NearCachedOptimisticLockingStore<K extends PartitionKey, V>
+        implements OptimisticLockingStore<K, V> {
+
+    private final DynamoOptimisticLockingStore<K, V> store;
+    private final Cache<K, Entry<V>> entries;
+    private final long stalenessNanos;
+    private final boolean revalidate;
+
+    /**
+     * @param maxEntries The number of values to keep.
+     * @param staleness How long an entry is returned without checking the
+     * store.
+     * @param revalidate Whether an entry past the staleness bound is
+     * checked by its version rather than read again.
+     */
+    public NearCachedOptimisticLockingStore(
+            final DynamoOptimisticLockingStore<K, V> store,
+            final long maxEntries, final Duration staleness,
+            final boolean revalidate) {
+        this.store = store;
+        this.entries = CacheBuilder.newBuilder().maximumSize(maxEntries)
+                .build();
+        this.stalenessNanos = staleness.toNanos();
+        this.revalidate = revalidate;
+    }
+
+    @Override
+    public VersionedWrapper<V> get(final K key)
+            throws BitvantageStoreException, InterruptedException {
+        final Entry<V> entry = entries.getIfPresent(key);
+        if (entry != null) {
+            final long now = System.nanoTime();
+            if (now - entry.getValidatedNanos() <= stalenessNanos) {
+                return entry.getValue();
+            }
+            if (revalidate) {
+                final UUID version = store.getVersion(key);
+                if (version == null) {
+                    publish(key, entry, null);
+                    return null;
+                }
+                if (version.equals(entry.getValue().getVersion())) {
+                    publish(key, entry, new Entry<>(entry.getValue(), now));
+                    return entry.getValue();
+                }
+            }
+        }
+
+        final VersionedWrapper<V> value = store.get(key);
+        publish(key, entry, (value == null)
+                ? null : new Entry<>(value, System.nanoTime()));
+        return value;
+    }
+
+    /**
+     * Replace the entry of a key, or remove it if the replacement is null,
+     * provided it is still the entry that was observed before reading.
+     */
+    private void publish(final K key, final Entry<V> observed,
+                         final Entry<V> replacement) {
+        entries.asMap().compute(key, (k, current)
+                -> (current == observed) ? replacement : current);
+    }
+
+    @Override
+    public Optional<V> putOnMatch(final K key, final V value, final UUID match)
+            throws BitvantageStoreException, InterruptedException {
+        final UUID version = UUID.randomUUID();
+        final Optional<V> result = store.putOnMatch(key, value, match,
+                                                    version);
+        if (result.isPresent()) {
+            entries.put(key, new Entry<>(new VersionedWrapper<>(version, value),
+                                         System.nanoTime()));
+        } else {
+            entries.invalidate(key);
+        }
+        return result;
+    }
+
+    @Override
+    public void put(final K key, final V value)
+            throws BitvantageStoreException, InterruptedException {
+        final UUID version = UUID.randomUUID();
+        store.put(key, value, version);
+        entries.put(key, new Entry<>(new VersionedWrapper<>(version, value),
+                                     System.nanoTime()));
+    }
+
+    public void invalidate(final K key) {
+        entries.invalidate(key);
+    }
+
+    @Value
+    private static class Entry<V> {
+
+        private final VersionedWrapper<V> value;
+        private final long validatedNanos;
+
+    }
+
+}
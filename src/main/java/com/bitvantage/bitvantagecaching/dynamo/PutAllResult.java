@@ -0,0 +1,40 @@
+/*
+ * Copyright 2020 Public Transit Analytics.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bitvantage.bitvantagecaching.dynamo;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import lombok.Value;
+
+/**
+ * The outcome of a transactional put of many values. If the values were
+ * written, the versions they were given are known; otherwise the keys that
+ * stopped the transaction are.
+ *
+ * @author Public Transit Analytics
+ */
+@Value
+public class PutAllResult<K> {
+
+    private final Map<K, UUID> versions;
+    private final Set<K> failedKeys;
+
+    public boolean isWritten() {
+        return failedKeys.isEmpty();
+    }
+
+}
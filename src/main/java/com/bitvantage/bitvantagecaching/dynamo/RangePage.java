@@ -0,0 +1,34 @@
+/*
+ * Copyright 2020 Public Transit Analytics.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bitvantage.bitvantagecaching.dynamo;
+
+import com.bitvantage.bitvantagecaching.RangeKey;
+import java.util.NavigableMap;
+import lombok.Value;
+
+/**
+ * One page of a ranged query. The continuation is passed back to read the
+ * next page, and is null once the range is exhausted.
+ *
+ * @author Public Transit Analytics
+ */
+@Value
+public class RangePage<R extends RangeKey<R>, V> {
+
+    private final NavigableMap<R, V> values;
+    private final R continuation;
+
+}
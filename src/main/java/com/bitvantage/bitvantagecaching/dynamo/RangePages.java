@@ -0,0 +1,68 @@
+/*
+ * Copyright 2020 Public Transit Analytics.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bitvantage.bitvantagecaching.dynamo;
+
+import com.amazonaws.services.dynamodbv2.document.Item;
+import com.amazonaws.services.dynamodbv2.document.Page;
+import com.amazonaws.services.dynamodbv2.document.QueryOutcome;
+import com.bitvantage.bitvantagecaching.BitvantageStoreException;
+import com.bitvantage.bitvantagecaching.RangeKey;
+import java.util.Iterator;
+import java.util.NavigableMap;
+import java.util.NoSuchElementException;
+
+/**
+ * The pages of a ranged query, each requested only when it is reached.
+ * Unlike an {@link Iterator}, reading a page may throw the store's checked
+ * exception.
+ *
+ * @author Public Transit Analytics
+ */
+public class RangePages<R extends RangeKey<R>, V> {
+
+    private final Iterator<Page<Item, QueryOutcome>> pages;
+    private final PageReader<R, V> reader;
+
+    RangePages(final Iterator<Page<Item, QueryOutcome>> pages,
+               final PageReader<R, V> reader) {
+        this.pages = pages;
+        this.reader = reader;
+    }
+
+    public boolean hasNext() {
+        return pages.hasNext();
+    }
+
+    public RangePage<R, V> next() throws BitvantageStoreException {
+        if (!pages.hasNext()) {
+            throw new NoSuchElementException();
+        }
+        final Page<Item, QueryOutcome> page = pages.next();
+        final NavigableMap<R, V> values = reader.read(page);
+        final R continuation = (page.getLowLevelResult().getQueryResult()
+                .getLastEvaluatedKey() == null || values.isEmpty())
+                ? null : values.lastKey();
+        return new RangePage<>(values, continuation);
+    }
+
+    interface PageReader<R extends RangeKey<R>, V> {
+
+        NavigableMap<R, V> read(Page<Item, QueryOutcome> page)
+                throws BitvantageStoreException;
+
+    }
+
+}
@@ -0,0 +1,39 @@
+/*
+ * Copyright 2020 Public Transit Analytics.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bitvantage.bitvantagecaching.dynamo;
+
+/**
+ * The consistency of reads made by a Dynamo store. Eventually consistent
+ * reads cost half the read capacity of strongly consistent ones and suit
+ * reads that fill a cache, where slightly stale values are acceptable.
+ *
+ * @author Public Transit Analytics
+ */
+public enum ReadConsistency {
+
+    STRONG(true), EVENTUAL(false);
+
+    private final boolean consistentRead;
+
+    private ReadConsistency(final boolean consistentRead) {
+        this.consistentRead = consistentRead;
+    }
+
+    public boolean isConsistentRead() {
+        return consistentRead;
+    }
+
+}
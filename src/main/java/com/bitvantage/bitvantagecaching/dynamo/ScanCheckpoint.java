@@ -0,0 +1,68 @@
+/*
+ * Copyright 2020 Public Transit Analytics.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bitvantage.bitvantagecaching.dynamo;
+
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The progress of a parallel scan: the last key read in each segment and
+ * the segments that have finished. A scan updates its checkpoint after
+ * every page it has handed to the consumer, so if it fails it can be
+ * resumed by scanning again with the same checkpoint.
+ *
+ * @author Public Transit Analytics
+ */
+public class ScanCheckpoint {
+
+    private final int totalSegments;
+    private final Map<Integer, Map<String, AttributeValue>> lastKeys;
+    private final Set<Integer> finished;
+
+    public ScanCheckpoint(final int totalSegments) {
+        this.totalSegments = totalSegments;
+        this.lastKeys = new ConcurrentHashMap<>();
+        this.finished = ConcurrentHashMap.newKeySet();
+    }
+
+    public int getTotalSegments() {
+        return totalSegments;
+    }
+
+    public boolean isComplete() {
+        return finished.size() == totalSegments;
+    }
+
+    boolean isFinished(final int segment) {
+        return finished.contains(segment);
+    }
+
+    Map<String, AttributeValue> getLastKey(final int segment) {
+        return lastKeys.get(segment);
+    }
+
+    void advance(final int segment, final Map<String, AttributeValue> lastKey) {
+        if (lastKey == null || lastKey.isEmpty()) {
+            lastKeys.remove(segment);
+            finished.add(segment);
+        } else {
+            lastKeys.put(segment, lastKey);
+        }
+    }
+
+}
@@ -0,0 +1,33 @@
+/*
+ * Copyright 2020 Public Transit Analytics.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bitvantage.bitvantagecaching.dynamo;
+
+import com.bitvantage.bitvantagecaching.PartitionKey;
+import lombok.Value;
+
+/**
+ * One of the physical partitions that a {@link ShardedDynamoRangedStore}
+ * spreads a logical partition across.
+ *
+ * @author Public Transit Analytics
+ */
+@Value
+public class ShardKey<P extends PartitionKey> implements PartitionKey {
+
+    private final P partition;
+    private final int shard;
+
+}
@@ -0,0 +1,343 @@
+/*
+ * Copyright 2020 Public Transit Analytics.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bitvantage.bitvantagecaching.dynamo;
+
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
+import com.bitvantage.bitvantagecaching.BitvantageStoreException;
+import com.bitvantage.bitvantagecaching.PartitionKey;
+import com.bitvantage.bitvantagecaching.RangeKey;
+import com.bitvantage.bitvantagecaching.RangedConditionedStore;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.collect.Iterators;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.function.BiFunction;
+
+/**
+ * A ranged Dynamo store that spreads each partition across a number of
+ * physical hash keys, so that writes to a hot partition are not limited by
+ * the throughput of a single Dynamo partition. An entry lives in the shard
+ * chosen by a hash of its range key, so point reads and conditional puts
+ * touch one shard, while range reads query every shard, concurrently when
+ * given an executor, and merge the sorted results.
+ *
+ * The number of shards is part of the stored layout: a table must always be
+ * read with the number of shards it was written with.
+ *
+ * @author Public Transit Analytics
+ */
+public class ShardedDynamoRangedStore<P extends PartitionKey, R extends RangeKey<R>, V>
+        implements RangedConditionedStore<P, R, V> {
+
+    private static final int MAX_SHARDS = 256;
+    private static final HashFunction HASH = Hashing.murmur3_32();
+
+    private final DynamoRangedStore<ShardKey<P>, R, V> store;
+    private final DynamoRangedStoreSerializer<P, R, V> serializer;
+    private final int shards;
+    private final ExecutorService executor;
+
+    /**
+     * @param shards The number of hash keys per partition, at most 256.
+     * @param executor Runs the queries of each shard concurrently, or null
+     * to run them in turn.
+     */
+    public ShardedDynamoRangedStore(
+            final AmazonDynamoDB client, final String table,
+            final DynamoRangedStoreSerializer<P, R, V> serializer,
+            final int shards, final BatchWriter writer,
+            final ReadConsistency consistency,
+            final ExecutorService executor) {
+        if (shards < 1 || shards > MAX_SHARDS) {
+            throw new IllegalArgumentException(String.format(
+                    "Invalid number of shards %d.", shards));
+        }
+        this.store = new DynamoRangedStore<>(
+                client, table, new ShardingSerializer<>(serializer), writer,
+                consistency, executor);
+        this.serializer = serializer;
+        this.shards = shards;
+        this.executor = executor;
+    }
+
+    public ShardedDynamoRangedStore(
+            final AmazonDynamoDB client, final String table,
+            final DynamoRangedStoreSerializer<P, R, V> serializer,
+            final int shards, final ExecutorService executor) {
+        this(client, table, serializer, shards, new BatchWriter(client),
+             ReadConsistency.STRONG, executor);
+    }
+
+    @Override
+    public NavigableMap<R, V> getValuesInRange(
+            final P partition, final R min, final R max)
+            throws InterruptedException, BitvantageStoreException {
+        return merge(store.getValuesInRange(getShards(partition), min, max)
+                .values());
+    }
+
+    @Override
+    public NavigableMap<R, V> getValuesAbove(final P partition, final R min)
+            throws InterruptedException, BitvantageStoreException {
+        return merge(fanOut(partition,
+                            shard -> () -> store.getValuesAbove(shard, min)));
+    }
+
+    @Override
+    public NavigableMap<R, V> getValuesBelow(final P partition, final R max)
+            throws InterruptedException, BitvantageStoreException {
+        return merge(fanOut(partition,
+                            shard -> () -> store.getValuesBelow(shard, max)));
+    }
+
+    @Override
+    public NavigableMap<R, V> getNextValues(
+            final P partition, final R min, final int count)
+            throws InterruptedException, BitvantageStoreException {
+        return head(merge(fanOut(
+                partition,
+                shard -> () -> store.getNextValues(shard, min, count))),
+                    count);
+    }
+
+    @Override
+    public NavigableMap<R, V> getHeadValues(final P partition,
+                                            final int count)
+            throws InterruptedException, BitvantageStoreException {
+        return head(merge(fanOut(
+                partition, shard -> () -> store.getHeadValues(shard, count))),
+                    count);
+    }
+
+    @Override
+    public NavigableMap<R, V> getPartition(final P partition)
+            throws InterruptedException, BitvantageStoreException {
+        return merge(fanOut(partition,
+                            shard -> () -> store.getPartition(shard)));
+    }
+
+    @Override
+    public long countInRange(final P partition, final R min, final R max)
+            throws InterruptedException, BitvantageStoreException {
+        long count = 0;
+        for (final long shardCount : fanOut(
+                partition,
+                shard -> () -> store.countInRange(shard, min, max))) {
+            count += shardCount;
+        }
+        return count;
+    }
+
+    @Override
+    public R getFirstKeyInRange(final P partition, final R min, final R max)
+            throws InterruptedException, BitvantageStoreException {
+        R first = null;
+        for (final R key : fanOut(
+                partition,
+                shard -> () -> store.getFirstKeyInRange(shard, min, max))) {
+            if (key != null && (first == null || key.compareTo(first) < 0)) {
+                first = key;
+            }
+        }
+        return first;
+    }
+
+    @Override
+    public R getLastKeyInRange(final P partition, final R min, final R max)
+            throws InterruptedException, BitvantageStoreException {
+        R last = null;
+        for (final R key : fanOut(
+                partition,
+                shard -> () -> store.getLastKeyInRange(shard, min, max))) {
+            if (key != null && (last == null || key.compareTo(last) > 0)) {
+                last = key;
+            }
+        }
+        return last;
+    }
+
+    @Override
+    public <A> A reduceInRange(final P partition, final R min, final R max,
+                               final A identity,
+                               final BiFunction<A, ? super V, A> accumulator)
+            throws InterruptedException, BitvantageStoreException {
+        A result = identity;
+        for (final V value : getValuesInRange(partition, min, max).values()) {
+            result = accumulator.apply(result, value);
+        }
+        return result;
+    }
+
+    @Override
+    public V get(final P partition, final R rangeValue)
+            throws BitvantageStoreException, InterruptedException {
+        return store.get(getShard(partition, rangeValue), rangeValue);
+    }
+
+    @Override
+    public void put(final P partition, final R rangeValue, final V value)
+            throws BitvantageStoreException, InterruptedException {
+        store.put(getShard(partition, rangeValue), rangeValue, value);
+    }
+
+    @Override
+    public void putAll(final P partition, final Map<R, V> entries)
+            throws BitvantageStoreException, InterruptedException {
+        final Map<ShardKey<P>, Map<R, V>> sharded = new HashMap<>();
+        for (final Map.Entry<R, V> entry : entries.entrySet()) {
+            sharded.computeIfAbsent(getShard(partition, entry.getKey()),
+                                    shard -> new HashMap<>())
+                    .put(entry.getKey(), entry.getValue());
+        }
+        store.putAll(sharded);
+    }
+
+    @Override
+    public boolean putIfAbsent(final P partition, final R range,
+                               final V value)
+            throws BitvantageStoreException, InterruptedException {
+        return store.putIfAbsent(getShard(partition, range), range, value);
+    }
+
+    @Override
+    public boolean isEmpty() throws BitvantageStoreException,
+            InterruptedException {
+        return store.isEmpty();
+    }
+
+    @Override
+    public void deletePartition(final P partition)
+            throws BitvantageStoreException, InterruptedException {
+        fanOut(partition, shard -> () -> {
+            store.deletePartition(shard);
+            return null;
+        });
+    }
+
+    private ShardKey<P> getShard(final P partition, final R range) {
+        return new ShardKey<>(partition, Math.floorMod(
+                HASH.hashBytes(serializer.getRangeKey(range)).asInt(),
+                shards));
+    }
+
+    private List<ShardKey<P>> getShards(final P partition) {
+        final ImmutableList.Builder<ShardKey<P>> builder
+                = ImmutableList.builder();
+        for (int i = 0; i < shards; i++) {
+            builder.add(new ShardKey<>(partition, i));
+        }
+        return builder.build();
+    }
+
+    /**
+     * Run a call against every shard of the partition.
+     *
+     * @return The results, in shard order.
+     */
+    private <T> List<T> fanOut(final P partition,
+                               final ShardCall<P, T> call)
+            throws InterruptedException, BitvantageStoreException {
+        final List<ShardKey<P>> shardKeys = getShards(partition);
+        final List<T> results = new ArrayList<>(shards);
+        try {
+            if (executor == null) {
+                for (final ShardKey<P> shard : shardKeys) {
+                    results.add(call.get(shard).call());
+                }
+                return results;
+            }
+
+            final List<Future<T>> futures = new ArrayList<>(shards);
+            try {
+                for (final ShardKey<P> shard : shardKeys) {
+                    futures.add(executor.submit(call.get(shard)));
+                }
+                for (final Future<T> future : futures) {
+                    results.add(future.get());
+                }
+            } finally {
+                for (final Future<T> future : futures) {
+                    future.cancel(true);
+                }
+            }
+            return results;
+        } catch (final ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof BitvantageStoreException) {
+                throw (BitvantageStoreException) cause;
+            }
+            if (cause instanceof InterruptedException) {
+                throw (InterruptedException) cause;
+            }
+            throw new BitvantageStoreException(e);
+        } catch (final InterruptedException | BitvantageStoreException e) {
+            throw e;
+        } catch (final Exception e) {
+            throw new BitvantageStoreException(e);
+        }
+    }
+
+    /**
+     * Merge the sorted, disjoint maps of the shards in one pass.
+     */
+    private NavigableMap<R, V> merge(
+            final Collection<NavigableMap<R, V>> shardValues) {
+        final List<Iterator<Map.Entry<R, V>>> iterators = new ArrayList<>();
+        for (final NavigableMap<R, V> values : shardValues) {
+            iterators.add(values.entrySet().iterator());
+        }
+        final ImmutableSortedMap.Builder<R, V> builder
+                = ImmutableSortedMap.naturalOrder();
+        final Iterator<Map.Entry<R, V>> merged = Iterators.mergeSorted(
+                iterators, Map.Entry.comparingByKey());
+        while (merged.hasNext()) {
+            builder.put(merged.next());
+        }
+        return builder.build();
+    }
+
+    private NavigableMap<R, V> head(final NavigableMap<R, V> values,
+                                    final int count) {
+        if (values.size() <= count) {
+            return values;
+        }
+        final Iterator<R> keys = values.keySet().iterator();
+        for (int i = 0; i < count; i++) {
+            keys.next();
+        }
+        return values.headMap(keys.next(), false);
+    }
+
+    @FunctionalInterface
+    private interface ShardCall<P extends PartitionKey, T> {
+
+        Callable<T> get(ShardKey<P> shard);
+
+    }
+
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright 2020 Public Transit Analytics.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bitvantage.bitvantagecaching.dynamo;
+
+import com.amazonaws.services.dynamodbv2.document.Item;
+import com.bitvantage.bitvantagecaching.BitvantageStoreException;
+import com.bitvantage.bitvantagecaching.PartitionKey;
+import com.bitvantage.bitvantagecaching.RangeKey;
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * Stores each shard of a partition under the partition's hash key followed
+ * by a byte holding the shard number.
+ *
+ * @author Public Transit Analytics
+ */
+class ShardingSerializer<P extends PartitionKey, R extends RangeKey<R>, V>
+        implements DynamoRangedStoreSerializer<ShardKey<P>, R, V> {
+
+    private final DynamoRangedStoreSerializer<P, R, V> serializer;
+
+    ShardingSerializer(final DynamoRangedStoreSerializer<P, R, V> serializer) {
+        this.serializer = serializer;
+    }
+
+    @Override
+    public byte[] getPartitionKey(final ShardKey<P> key) {
+        final byte[] partition = serializer.getPartitionKey(key.getPartition());
+        final byte[] sharded = Arrays.copyOf(partition, partition.length + 1);
+        sharded[partition.length] = (byte) key.getShard();
+        return sharded;
+    }
+
+    @Override
+    public String getPartitionKeyName() {
+        return serializer.getPartitionKeyName();
+    }
+
+    @Override
+    public byte[] getRangeKey(final R key) {
+        return serializer.getRangeKey(key);
+    }
+
+    @Override
+    public String getRangeKeyName() {
+        return serializer.getRangeKeyName();
+    }
+
+    @Override
+    public Item serialize(final ShardKey<P> partition, final R range,
+                          final V value) {
+        return serializer.serialize(partition.getPartition(), range, value)
+                .withBinary(getPartitionKeyName(), getPartitionKey(partition));
+    }
+
+    @Override
+    public V deserializeValue(final Item item) {
+        return serializer.deserializeValue(item);
+    }
+
+    @Override
+    public R deserializeRangeKey(final Item item)
+            throws BitvantageStoreException {
+        return serializer.deserializeRangeKey(item);
+    }
+
+    @Override
+    public ShardKey<P> deserializePartitionKey(final Item item)
+            throws BitvantageStoreException {
+        final byte[] sharded = item.getBinary(getPartitionKeyName());
+        final Item unsharded = Item.fromMap(item.asMap()).withBinary(
+                getPartitionKeyName(),
+                Arrays.copyOf(sharded, sharded.length - 1));
+        return new ShardKey<>(serializer.deserializePartitionKey(unsharded),
+                              sharded[sharded.length - 1] & 0xff);
+    }
+
+    @Override
+    public Collection<String> getValueAttributeNames() {
+        return serializer.getValueAttributeNames();
+    }
+
+}
@@ -39,20 +39,29 @@ public class VersionedDynamoStoreSerializer<P extends PartitionKey, V> {
 
     public Item serialize(final P partition, final V value) 
             throws BitvantageStoreException {
+        return serialize(partition, value, UUID.randomUUID());
+    }
+
+    public Item serialize(final P partition, final V value,
+                          final UUID version)
+            throws BitvantageStoreException {
         final Item item = serializer.serialize(partition, value);
-        final byte[] uuidBytes = getUuidBytes(UUID.randomUUID());
+        final byte[] uuidBytes = getUuidBytes(version);
         return item.withBinary(getVersionKey(), uuidBytes);
     }
 
     public VersionedWrapper<V> deserializeValue(final Item item) 
             throws BitvantageStoreException {
         final V value = serializer.deserializeValue(item);
+        return new VersionedWrapper(getVersion(item), value);
+    }
+
+    public UUID getVersion(final Item item) {
         final byte[] uuidBytes = item.getBinary(getVersionKey());
         final ByteBuffer buffer = ByteBuffer.wrap(uuidBytes);
         final long high = buffer.getLong();
         final long low = buffer.getLong();
-        final UUID uuid = new UUID(high, low);
-        return new VersionedWrapper(uuid, value);
+        return new UUID(high, low);
     }
 
     public Expected getExpectation(final UUID match) {
@@ -67,7 +76,7 @@ public class VersionedDynamoStoreSerializer<P extends PartitionKey, V> {
         return serializer.getPartitionKeyName();
     }
 
-    private static byte[] getUuidBytes(final UUID uuid) {
+    public static byte[] getUuidBytes(final UUID uuid) {
         final ByteBuffer buffer = ByteBuffer.wrap(new byte[16]);
         buffer.putLong(uuid.getMostSignificantBits());
         buffer.putLong(uuid.getLeastSignificantBits());
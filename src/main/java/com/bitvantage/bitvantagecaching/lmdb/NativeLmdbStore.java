@@ -132,6 +132,12 @@ public class NativeLmdbStore<K extends PartitionKey, V> implements Store<K, V> {
         }
     }
 
+    @Override
+    public void delete(final K key) throws InterruptedException,
+            BitvantageStoreException {
+        db.delete(getKeyBytes(key));
+    }
+
     @Override
     public boolean containsKey(K key) 
             throws InterruptedException, BitvantageStoreException {
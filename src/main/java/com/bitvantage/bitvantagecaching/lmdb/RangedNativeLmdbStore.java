@@ -18,13 +18,27 @@ package com.bitvantage.bitvantagecaching.lmdb;
 import com.bitvantage.bitvantagecaching.BitvantageStoreException;
 import com.bitvantage.bitvantagecaching.PartitionKey;
 import com.bitvantage.bitvantagecaching.RangeKey;
+import com.bitvantage.bitvantagecaching.RangeCoverageStore;
 import com.bitvantage.bitvantagecaching.RangedConditionedStore;
+import com.google.common.collect.BoundType;
+import com.google.common.collect.ImmutableRangeSet;
 import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.collect.Range;
+import com.google.common.collect.RangeSet;
+import com.google.common.collect.TreeRangeSet;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.NavigableMap;
+import java.util.function.BiFunction;
 import org.lmdbjava.Cursor;
 import org.lmdbjava.CursorIterator;
 import org.lmdbjava.Dbi;
@@ -37,15 +51,18 @@ import org.lmdbjava.Txn;
 import com.bitvantage.bitvantagecaching.ValueSerializer;
 
 /**
- * Uses LMDB to associate ranged keys with values.
+ * Uses LMDB to associate ranged keys with values. The ranges recorded as
+ * covered for each partition are kept in a second database of the same
+ * environment so that they survive restarts along with the values.
  *
  * @author Matt Laquidara
  */
 public class RangedNativeLmdbStore<P extends PartitionKey, R extends RangeKey<R>, V>
-        implements RangedConditionedStore<P, R, V> {
+        implements RangedConditionedStore<P, R, V>, RangeCoverageStore<P, R, V> {
 
     private final Env<ByteBuffer> env;
     private final Dbi<ByteBuffer> db;
+    private final Dbi<ByteBuffer> coverageDb;
     private final RangedKeyManager<P, R> keyManager;
     private final ValueSerializer<V> serializer;
 
@@ -53,9 +70,10 @@ public class RangedNativeLmdbStore<P extends PartitionKey, R extends RangeKey<R>
                                  final RangedKeyManager<P, R> keyManager,
                                  final ValueSerializer<V> serializer,
                                  final int readers) {
-        env = Env.create().setMaxDbs(1).setMapSize(107374182400L)
+        env = Env.create().setMaxDbs(2).setMapSize(107374182400L)
                 .setMaxReaders(readers).open(path.toFile());
         db = env.openDbi("DB", DbiFlags.MDB_CREATE);
+        coverageDb = env.openDbi("COVERAGE", DbiFlags.MDB_CREATE);
         this.keyManager = keyManager;
         this.serializer = serializer;
     }
@@ -91,6 +109,82 @@ public class RangedNativeLmdbStore<P extends PartitionKey, R extends RangeKey<R>
         }
     }
 
+    @Override
+    public long countInRange(final P partition, final R min, final R max)
+            throws InterruptedException, BitvantageStoreException {
+        final Txn<ByteBuffer> tx = env.txnRead();
+        final KeyRange range = new KeyRange(KeyRangeType.FORWARD_CLOSED,
+                                            getKeyBytes(partition, min),
+                                            getKeyBytes(partition, max));
+        final CursorIterator<ByteBuffer> iterator = db.iterate(tx, range);
+        try {
+            long count = 0;
+            while (iterator.hasNext()) {
+                iterator.next();
+                count++;
+            }
+            return count;
+        } finally {
+            iterator.close();
+            tx.commit();
+            tx.close();
+        }
+    }
+
+    @Override
+    public R getFirstKeyInRange(final P partition, final R min, final R max)
+            throws InterruptedException, BitvantageStoreException {
+        return getEdgeKey(new KeyRange(KeyRangeType.FORWARD_CLOSED,
+                                       getKeyBytes(partition, min),
+                                       getKeyBytes(partition, max)));
+    }
+
+    @Override
+    public R getLastKeyInRange(final P partition, final R min, final R max)
+            throws InterruptedException, BitvantageStoreException {
+        return getEdgeKey(new KeyRange(KeyRangeType.BACKWARD_CLOSED,
+                                       getKeyBytes(partition, max),
+                                       getKeyBytes(partition, min)));
+    }
+
+    @Override
+    public <A> A reduceInRange(final P partition, final R min, final R max,
+                               final A identity,
+                               final BiFunction<A, ? super V, A> accumulator)
+            throws InterruptedException, BitvantageStoreException {
+        final Txn<ByteBuffer> tx = env.txnRead();
+        final KeyRange range = new KeyRange(KeyRangeType.FORWARD_CLOSED,
+                                            getKeyBytes(partition, min),
+                                            getKeyBytes(partition, max));
+        final CursorIterator<ByteBuffer> iterator = db.iterate(tx, range);
+        try {
+            A result = identity;
+            while (iterator.hasNext()) {
+                result = accumulator.apply(
+                        result, getValue(iterator.next().val()));
+            }
+            return result;
+        } finally {
+            iterator.close();
+            tx.commit();
+            tx.close();
+        }
+    }
+
+    private R getEdgeKey(final KeyRange range)
+            throws BitvantageStoreException {
+        final Txn<ByteBuffer> tx = env.txnRead();
+        final CursorIterator<ByteBuffer> iterator = db.iterate(tx, range);
+        try {
+            return iterator.hasNext()
+                    ? getRangeKey(iterator.next().key()) : null;
+        } finally {
+            iterator.close();
+            tx.commit();
+            tx.close();
+        }
+    }
+
     @Override
     public NavigableMap<R, V> getValuesAbove(final P partition, final R bottom)
             throws InterruptedException, BitvantageStoreException {
@@ -189,6 +283,83 @@ public class RangedNativeLmdbStore<P extends PartitionKey, R extends RangeKey<R>
         }
     }
 
+    @Override
+    public RangeSet<R> getCoverage(final P partition)
+            throws BitvantageStoreException, InterruptedException {
+        final ByteBuffer keyBytes = getKeyStub(partition);
+        final Txn<ByteBuffer> tx = env.txnRead();
+        try {
+            final ByteBuffer bytes = coverageDb.get(tx, keyBytes);
+            if (bytes == null) {
+                return ImmutableRangeSet.of();
+            }
+            return ImmutableRangeSet.copyOf(getCoverageRanges(bytes));
+        } finally {
+            tx.commit();
+            tx.close();
+        }
+    }
+
+    @Override
+    public void putCoveredRange(final P partition, final Range<R> range,
+                                final Map<R, V> entries)
+            throws BitvantageStoreException, InterruptedException {
+        final ByteBuffer coverageKeyBytes = getKeyStub(partition);
+        final Txn<ByteBuffer> tx = env.txnWrite();
+        try {
+            for (Map.Entry<R, V> entry : entries.entrySet()) {
+                db.put(tx, getKeyBytes(partition, entry.getKey()),
+                       getValueBytes(entry.getValue()));
+            }
+
+            final ByteBuffer oldCoverageBytes
+                    = coverageDb.get(tx, coverageKeyBytes);
+            final RangeSet<R> coverage = (oldCoverageBytes == null)
+                    ? TreeRangeSet.create()
+                    : getCoverageRanges(oldCoverageBytes);
+            coverage.add(range);
+            coverageDb.put(tx, coverageKeyBytes,
+                           getCoverageBytes(partition, coverage));
+            tx.commit();
+        } finally {
+            tx.close();
+        }
+    }
+
+    @Override
+    public void deletePartition(final P partition)
+            throws BitvantageStoreException {
+        final ByteBuffer stubBytes = getKeyStub(partition);
+        final KeyRange range = new KeyRange(KeyRangeType.FORWARD_AT_LEAST,
+                                            stubBytes, null);
+        final Txn<ByteBuffer> tx = env.txnWrite();
+        try {
+            final List<ByteBuffer> keys = new ArrayList<>();
+            final CursorIterator<ByteBuffer> iterator = db.iterate(tx, range);
+            try {
+                while (iterator.hasNext()) {
+                    final ByteBuffer key = iterator.next().key();
+                    final ByteBuffer keyCopy
+                            = ByteBuffer.allocateDirect(key.remaining());
+                    keyCopy.put(key.duplicate()).flip();
+                    if (!getPartitionKey(key).equals(partition)) {
+                        break;
+                    }
+                    keys.add(keyCopy);
+                }
+            } finally {
+                iterator.close();
+            }
+            for (final ByteBuffer key : keys) {
+                db.delete(tx, key);
+            }
+            coverageDb.delete(tx, stubBytes);
+            tx.commit();
+        } finally {
+            tx.close();
+        }
+    }
+
     @Override
     public boolean isEmpty() {
         final Txn tx = env.txnRead();
@@ -247,6 +418,72 @@ public class RangedNativeLmdbStore<P extends PartitionKey, R extends RangeKey<R>
         return buffer;
     }
 
+    private ByteBuffer getCoverageBytes(final P partition,
+                                        final RangeSet<R> coverage)
+            throws BitvantageStoreException {
+        final ByteArrayOutputStream byteStream = new ByteArrayOutputStream();
+        try (final DataOutputStream output = new DataOutputStream(byteStream)) {
+            output.writeInt(coverage.asRanges().size());
+            for (final Range<R> range : coverage.asRanges()) {
+                output.writeBoolean(range.hasLowerBound());
+                if (range.hasLowerBound()) {
+                    output.writeBoolean(
+                            range.lowerBoundType() == BoundType.CLOSED);
+                    output.writeUTF(keyManager.createKeyString(
+                            partition, range.lowerEndpoint()));
+                }
+                output.writeBoolean(range.hasUpperBound());
+                if (range.hasUpperBound()) {
+                    output.writeBoolean(
+                            range.upperBoundType() == BoundType.CLOSED);
+                    output.writeUTF(keyManager.createKeyString(
+                            partition, range.upperEndpoint()));
+                }
+            }
+        } catch (final IOException e) {
+            throw new BitvantageStoreException(e);
+        }
+        final byte[] byteArray = byteStream.toByteArray();
+
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(byteArray.length);
+        buffer.put(byteArray).flip();
+        return buffer;
+    }
+
+    private RangeSet<R> getCoverageRanges(final ByteBuffer bytes)
+            throws BitvantageStoreException {
+        final byte[] byteArray = new byte[bytes.capacity()];
+        bytes.get(byteArray, 0, bytes.capacity());
+
+        final TreeRangeSet<R> coverage = TreeRangeSet.create();
+        try (final DataInputStream input = new DataInputStream(
+                new ByteArrayInputStream(byteArray))) {
+            final int count = input.readInt();
+            for (int i = 0; i < count; i++) {
+                Range<R> range = Range.all();
+                if (input.readBoolean()) {
+                    final BoundType type = input.readBoolean()
+                            ? BoundType.CLOSED : BoundType.OPEN;
+                    final R endpoint = keyManager.materialize(
+                            input.readUTF()).getRange();
+                    range = range.intersection(
+                            Range.downTo(endpoint, type));
+                }
+                if (input.readBoolean()) {
+                    final BoundType type = input.readBoolean()
+                            ? BoundType.CLOSED : BoundType.OPEN;
+                    final R endpoint = keyManager.materialize(
+                            input.readUTF()).getRange();
+                    range = range.intersection(Range.upTo(endpoint, type));
+                }
+                coverage.add(range);
+            }
+        } catch (final IOException e) {
+            throw new BitvantageStoreException(e);
+        }
+        return coverage;
+    }
+
     private V getValue(final ByteBuffer bytes) throws BitvantageStoreException {
         final byte[] byteArray = new byte[bytes.capacity()];
         bytes.get(byteArray, 0, bytes.capacity());
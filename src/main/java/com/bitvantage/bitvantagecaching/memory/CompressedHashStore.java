@@ -0,0 +1,128 @@
+/*
+ * Copyright 2020 Public Transit Analytics.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bitvantage.bitvantagecaching.memory;
+
+import com.bitvantage.bitvantagecaching.BitvantageStoreException;
+import com.bitvantage.bitvantagecaching.PartitionKey;
+import com.bitvantage.bitvantagecaching.Store;
+import com.bitvantage.bitvantagecaching.ValueSerializer;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import lombok.RequiredArgsConstructor;
+
+/**
+ * Holds values in serialized form, typically through a
+ * {@link com.bitvantage.bitvantagecaching.DeflateSerializer}, so that large
+ * values take a fraction of their decoded size on the heap. The most
+ * recently read values are also kept decoded in a small bounded cache.
+ *
+ * @author Public Transit Analytics
+ */
+public class CompressedHashStore<K extends PartitionKey, V>
+        implements Store<K, V> {
+
+    private final ValueSerializer<V> codec;
+    private final ConcurrentMap<K, byte[]> map;
+    private final Cache<K, HotEntry<V>> hot;
+
+    /**
+     * @param codec Turns values into the bytes that are held.
+     * @param hotEntries The number of decoded values to keep.
+     */
+    public CompressedHashStore(final ValueSerializer<V> codec,
+                               final long hotEntries) {
+        this.codec = codec;
+        map = new ConcurrentHashMap<>();
+        hot = CacheBuilder.newBuilder().maximumSize(hotEntries).build();
+    }
+
+    @Override
+    public boolean containsKey(final K key) {
+        return map.containsKey(key);
+    }
+
+    @Override
+    public V get(final K key) throws BitvantageStoreException {
+        final byte[] bytes = map.get(key);
+        if (bytes == null) {
+            return null;
+        }
+        final HotEntry<V> entry = hot.getIfPresent(key);
+        if (entry != null && entry.bytes == bytes) {
+            return entry.value;
+        }
+        final V value = codec.getValue(bytes);
+        hot.put(key, new HotEntry<>(bytes, value));
+        return value;
+    }
+
+    @Override
+    public void put(final K key, final V value)
+            throws BitvantageStoreException {
+        final byte[] bytes = codec.getBytes(value);
+        map.put(key, bytes);
+        hot.put(key, new HotEntry<>(bytes, value));
+    }
+
+    @Override
+    public void putAll(final Map<K, V> entries)
+            throws BitvantageStoreException {
+        final ImmutableMap.Builder<K, byte[]> builder = ImmutableMap.builder();
+        for (final Map.Entry<K, V> entry : entries.entrySet()) {
+            builder.put(entry.getKey(), codec.getBytes(entry.getValue()));
+        }
+        map.putAll(builder.build());
+    }
+
+    @Override
+    public Map<K, V> getAll() throws BitvantageStoreException {
+        final ImmutableMap.Builder<K, V> builder = ImmutableMap.builder();
+        for (final Map.Entry<K, byte[]> entry : map.entrySet()) {
+            builder.put(entry.getKey(), codec.getValue(entry.getValue()));
+        }
+        return builder.build();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return map.isEmpty();
+    }
+
+    @Override
+    public void delete(final K key) {
+        map.remove(key);
+        hot.invalidate(key);
+    }
+
+    /**
+     * A decoded value, valid only while the store still holds the same byte
+     * array it was decoded from. Checking identity rather than invalidating
+     * on write keeps a slow reader from caching a value that was replaced
+     * while it was decoding.
+     */
+    @RequiredArgsConstructor
+    static class HotEntry<V> {
+
+        final byte[] bytes;
+        final V value;
+
+    }
+
+}
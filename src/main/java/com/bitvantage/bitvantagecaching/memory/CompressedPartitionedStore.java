@@ -0,0 +1,196 @@
+/*
+ * Copyright 2020 Public Transit Analytics.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bitvantage.bitvantagecaching.memory;
+
+import com.bitvantage.bitvantagecaching.BitvantageStoreException;
+import com.bitvantage.bitvantagecaching.PartitionKey;
+import com.bitvantage.bitvantagecaching.RangeKey;
+import com.bitvantage.bitvantagecaching.RangedConditionedStore;
+import com.bitvantage.bitvantagecaching.ValueSerializer;
+import com.bitvantage.bitvantagecaching.memory.CompressedHashStore.HotEntry;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableSortedMap;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.function.BiFunction;
+import lombok.Value;
+
+/**
+ * A ranged counterpart to {@link CompressedHashStore}. Encoded values are
+ * held in an {@link InMemoryPartitionedStore}; single-key reads go through
+ * the decoded cache, while range reads decode without filling it so that
+ * scans do not push out the hot entries.
+ *
+ * @author Public Transit Analytics
+ */
+public class CompressedPartitionedStore<P extends PartitionKey, R extends RangeKey<R>, V>
+        implements RangedConditionedStore<P, R, V> {
+
+    private final ValueSerializer<V> codec;
+    private final InMemoryPartitionedStore<P, R, byte[]> store;
+    private final Cache<HotKey<P, R>, HotEntry<V>> hot;
+
+    /**
+     * @param codec Turns values into the bytes that are held.
+     * @param hotEntries The number of decoded values to keep.
+     */
+    public CompressedPartitionedStore(final ValueSerializer<V> codec,
+                                      final long hotEntries) {
+        this.codec = codec;
+        store = new InMemoryPartitionedStore<>();
+        hot = CacheBuilder.newBuilder().maximumSize(hotEntries).build();
+    }
+
+    @Override
+    public NavigableMap<R, V> getValuesInRange(
+            final P partition, final R min, final R max)
+            throws InterruptedException, BitvantageStoreException {
+        return decode(store.getValuesInRange(partition, min, max));
+    }
+
+    @Override
+    public NavigableMap<R, V> getValuesAbove(final P partition, final R min)
+            throws InterruptedException, BitvantageStoreException {
+        return decode(store.getValuesAbove(partition, min));
+    }
+
+    @Override
+    public NavigableMap<R, V> getValuesBelow(final P partition, final R max)
+            throws InterruptedException, BitvantageStoreException {
+        return decode(store.getValuesBelow(partition, max));
+    }
+
+    @Override
+    public NavigableMap<R, V> getNextValues(
+            final P partition, final R min, final int count)
+            throws InterruptedException, BitvantageStoreException {
+        return decode(store.getNextValues(partition, min, count));
+    }
+
+    @Override
+    public NavigableMap<R, V> getHeadValues(final P partition,
+                                            final int count)
+            throws InterruptedException, BitvantageStoreException {
+        return decode(store.getHeadValues(partition, count));
+    }
+
+    @Override
+    public NavigableMap<R, V> getPartition(final P partition)
+            throws InterruptedException, BitvantageStoreException {
+        return decode(store.getPartition(partition));
+    }
+
+    @Override
+    public V get(final P partition, final R rangeValue)
+            throws BitvantageStoreException, InterruptedException {
+        final byte[] bytes = store.get(partition, rangeValue);
+        if (bytes == null) {
+            return null;
+        }
+        final HotKey<P, R> key = new HotKey<>(partition, rangeValue);
+        final HotEntry<V> entry = hot.getIfPresent(key);
+        if (entry != null && entry.bytes == bytes) {
+            return entry.value;
+        }
+        final V value = codec.getValue(bytes);
+        hot.put(key, new HotEntry<>(bytes, value));
+        return value;
+    }
+
+    @Override
+    public void put(final P partition, final R rangeValue, final V value)
+            throws BitvantageStoreException, InterruptedException {
+        store.put(partition, rangeValue, codec.getBytes(value));
+    }
+
+    @Override
+    public void putAll(final P partition, final Map<R, V> entries)
+            throws BitvantageStoreException, InterruptedException {
+        final TreeMap<R, byte[]> encoded = new TreeMap<>();
+        for (final Map.Entry<R, V> entry : entries.entrySet()) {
+            encoded.put(entry.getKey(), codec.getBytes(entry.getValue()));
+        }
+        store.putAll(partition, encoded);
+    }
+
+    @Override
+    public boolean putIfAbsent(final P partition, final R range,
+                               final V value)
+            throws BitvantageStoreException, InterruptedException {
+        return store.putIfAbsent(partition, range, codec.getBytes(value));
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return store.isEmpty();
+    }
+
+    @Override
+    public void deletePartition(final P partition) {
+        store.deletePartition(partition);
+        hot.asMap().keySet().removeIf(
+                key -> key.getPartition().equals(partition));
+    }
+
+    @Override
+    public long countInRange(final P partition, final R min, final R max) {
+        return store.countInRange(partition, min, max);
+    }
+
+    @Override
+    public R getFirstKeyInRange(final P partition, final R min, final R max) {
+        return store.getFirstKeyInRange(partition, min, max);
+    }
+
+    @Override
+    public R getLastKeyInRange(final P partition, final R min, final R max) {
+        return store.getLastKeyInRange(partition, min, max);
+    }
+
+    @Override
+    public <A> A reduceInRange(
+            final P partition, final R min, final R max, final A identity,
+            final BiFunction<A, ? super V, A> accumulator)
+            throws InterruptedException, BitvantageStoreException {
+        A result = identity;
+        for (final byte[] bytes
+             : store.getValuesInRange(partition, min, max).values()) {
+            result = accumulator.apply(result, codec.getValue(bytes));
+        }
+        return result;
+    }
+
+    private NavigableMap<R, V> decode(final NavigableMap<R, byte[]> encoded)
+            throws BitvantageStoreException {
+        final ImmutableSortedMap.Builder<R, V> builder
+                = ImmutableSortedMap.naturalOrder();
+        for (final Map.Entry<R, byte[]> entry : encoded.entrySet()) {
+            builder.put(entry.getKey(), codec.getValue(entry.getValue()));
+        }
+        return builder.build();
+    }
+
+    @Value
+    private static class HotKey<P, R> {
+
+        private final P partition;
+        private final R range;
+
+    }
+
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright 2020 Public Transit Analytics.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bitvantage.bitvantagecaching.memory;
+
+import com.bitvantage.bitvantagecaching.PartitionKey;
+import com.bitvantage.bitvantagecaching.RangeKey;
+import com.bitvantage.bitvantagecaching.RangedConditionedStore;
+import com.google.common.collect.ImmutableSortedMap;
+import java.util.Collections;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.BiFunction;
+
+/**
+ * An in-memory ranged store that takes no locks. Partitions are skip lists
+ * in a concurrent hash map, so reads never block, putIfAbsent is atomic per
+ * key, and range scans are weakly consistent with concurrent writes.
+ *
+ * @author Public Transit Analytics
+ */
+public class ConcurrentInMemoryPartitionedStore<P extends PartitionKey, R extends RangeKey<R>, V>
+        implements RangedConditionedStore<P, R, V> {
+
+    private final ConcurrentMap<P, ConcurrentNavigableMap<R, V>> partitionedMap;
+
+    public ConcurrentInMemoryPartitionedStore() {
+        partitionedMap = new ConcurrentHashMap<>();
+    }
+
+    @Override
+    public NavigableMap<R, V> getValuesInRange(final P partition, final R min,
+                                               final R max) {
+        return ImmutableSortedMap.copyOfSorted(
+                getSubMap(partition, min, max));
+    }
+
+    @Override
+    public NavigableMap<R, V> getValuesAbove(final P partition, final R min) {
+        return getValuesInRange(partition, min, min.getRangeMax());
+    }
+
+    @Override
+    public NavigableMap<R, V> getValuesBelow(final P partition, final R max) {
+        return getValuesInRange(partition, max.getRangeMin(), max);
+    }
+
+    @Override
+    public NavigableMap<R, V> getNextValues(final P partition, final R min,
+                                            final int count) {
+        final NavigableMap<R, V> map = getMap(partition);
+
+        final ImmutableSortedMap.Builder<R, V> builder
+                = ImmutableSortedMap.naturalOrder();
+        map.tailMap(min, false).entrySet().stream().limit(count)
+                .forEach(builder::put);
+        return builder.build();
+    }
+
+    @Override
+    public NavigableMap<R, V> getHeadValues(final P partition,
+                                            final int count) {
+        final NavigableMap<R, V> map = getMap(partition);
+
+        final ImmutableSortedMap.Builder<R, V> builder
+                = ImmutableSortedMap.naturalOrder();
+        map.entrySet().stream().limit(count).forEach(builder::put);
+        return builder.build();
+    }
+
+    @Override
+    public NavigableMap<R, V> getPartition(final P partition) {
+        return ImmutableSortedMap.copyOfSorted(getMap(partition));
+    }
+
+    @Override
+    public V get(final P partition, final R rangeValue) {
+        final NavigableMap<R, V> map = partitionedMap.get(partition);
+        return (map == null) ? null : map.get(rangeValue);
+    }
+
+    @Override
+    public void put(final P partition, final R rangeValue, final V value) {
+        getOrCreateMap(partition).put(rangeValue, value);
+    }
+
+    @Override
+    public void putAll(final P partition, final Map<R, V> entries) {
+        getOrCreateMap(partition).putAll(entries);
+    }
+
+    @Override
+    public boolean putIfAbsent(final P partition, final R range,
+                               final V value) {
+        return getOrCreateMap(partition).putIfAbsent(range, value) == null;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return partitionedMap.isEmpty();
+    }
+
+    @Override
+    public void deletePartition(final P partition) {
+        partitionedMap.remove(partition);
+    }
+
+    @Override
+    public long countInRange(final P partition, final R min, final R max) {
+        return getSubMap(partition, min, max).size();
+    }
+
+    @Override
+    public R getFirstKeyInRange(final P partition, final R min, final R max) {
+        final R key = getMap(partition).ceilingKey(min);
+        return (key == null || key.compareTo(max) > 0) ? null : key;
+    }
+
+    @Override
+    public R getLastKeyInRange(final P partition, final R min, final R max) {
+        final R key = getMap(partition).floorKey(max);
+        return (key == null || key.compareTo(min) < 0) ? null : key;
+    }
+
+    @Override
+    public <A> A reduceInRange(final P partition, final R min, final R max,
+                               final A identity,
+                               final BiFunction<A, ? super V, A> accumulator) {
+        A result = identity;
+        for (final V value : getSubMap(partition, min, max).values()) {
+            result = accumulator.apply(result, value);
+        }
+        return result;
+    }
+
+    private NavigableMap<R, V> getMap(final P partition) {
+        final NavigableMap<R, V> map = partitionedMap.get(partition);
+        return (map == null) ? Collections.emptyNavigableMap() : map;
+    }
+
+    private NavigableMap<R, V> getSubMap(final P partition, final R min,
+                                         final R max) {
+        return getMap(partition).subMap(min, true, max, true);
+    }
+
+    private ConcurrentNavigableMap<R, V> getOrCreateMap(final P partition) {
+        return partitionedMap.computeIfAbsent(
+                partition, key -> new ConcurrentSkipListMap<>());
+    }
+
+}
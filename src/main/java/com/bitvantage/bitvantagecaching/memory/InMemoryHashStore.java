@@ -64,4 +64,9 @@ public class InMemoryHashStore<K extends PartitionKey, V>
         map.putAll(entries);
     }
 
+    @Override
+    public void delete(final K key) {
+        map.remove(key);
+    }
+
 }
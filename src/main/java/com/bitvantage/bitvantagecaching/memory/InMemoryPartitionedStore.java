@@ -20,32 +20,76 @@ import com.bitvantage.bitvantagecaching.PartitionKey;
 import com.bitvantage.bitvantagecaching.RangeKey;
 import com.bitvantage.bitvantagecaching.RangedConditionedStore;
 import com.google.common.collect.ImmutableSortedMap;
-import java.util.Collections;
-import java.util.HashMap;
+import java.util.Iterator;
 import java.util.Map;
 import java.util.NavigableMap;
 import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.function.Predicate;
 
 /**
+ * Holds each partition as a sorted map, along with an immutable snapshot of
+ * it. Writes change the sorted map in place and discard the snapshot, so a
+ * run of writes does not copy the partition. While the snapshot is stale,
+ * reads copy only the entries they return; once the reads since the last
+ * write have copied as many entries as the partition holds, the next read
+ * rebuilds the snapshot and later reads take views of it without copying.
+ * No mutable state escapes.
  *
  * @author Matt Laquidara
  */
 public class InMemoryPartitionedStore<P extends PartitionKey, R extends RangeKey<R>, V>
         implements RangedConditionedStore<P, R, V> {
 
-    final Map<P, NavigableMap<R, V>> partitionedMap;
+    final ConcurrentMap<P, Partition<R, V>> partitionedMap;
 
     public InMemoryPartitionedStore() {
-        partitionedMap = new HashMap<>();
+        partitionedMap = new ConcurrentHashMap<>();
     }
 
     @Override
-    public synchronized NavigableMap<R, V> getValuesInRange(
+    public NavigableMap<R, V> getValuesInRange(
             final P partition, final R min, final R max)
             throws InterruptedException, BitvantageStoreException {
-        final NavigableMap<R, V> map = partitionedMap.getOrDefault(
-                partition, Collections.emptyNavigableMap());
-        return ImmutableSortedMap.copyOf(map.subMap(min, true, max, true));
+        return read(partition, values -> values.subMap(min, true, max, true));
+    }
+
+    @Override
+    public long countInRange(final P partition, final R min, final R max) {
+        return inspect(partition, 0,
+                       values -> values.subMap(min, true, max, true).size());
+    }
+
+    @Override
+    public R getFirstKeyInRange(final P partition, final R min, final R max) {
+        return inspect(partition, null, values -> {
+            final R key = values.ceilingKey(min);
+            return (key == null || key.compareTo(max) > 0) ? null : key;
+        });
+    }
+
+    @Override
+    public R getLastKeyInRange(final P partition, final R min, final R max) {
+        return inspect(partition, null, values -> {
+            final R key = values.floorKey(max);
+            return (key == null || key.compareTo(min) < 0) ? null : key;
+        });
+    }
+
+    @Override
+    public <A> A reduceInRange(
+            final P partition, final R min, final R max, final A identity,
+            final BiFunction<A, ? super V, A> accumulator) {
+        A result = identity;
+        for (final V value : read(
+                partition, values -> values.subMap(min, true, max, true))
+                .values()) {
+            result = accumulator.apply(result, value);
+        }
+        return result;
     }
 
     @Override
@@ -61,92 +105,168 @@ public class InMemoryPartitionedStore<P extends PartitionKey, R extends RangeKey
     }
 
     @Override
-    public synchronized void put(final P partition, final R key, final V value)
+    public void put(final P partition, final R key, final V value)
             throws BitvantageStoreException, InterruptedException {
-        final NavigableMap<R, V> map = partitionedMap.getOrDefault(
-                partition, new TreeMap<>());
-        map.put(key, value);
-        partitionedMap.put(partition, map);
+        write(partition, values -> {
+            values.put(key, value);
+            return true;
+        });
     }
 
     @Override
-    public synchronized boolean isEmpty() {
+    public boolean isEmpty() {
         return partitionedMap.isEmpty();
     }
 
     @Override
-    public synchronized void putAll(final P partition, final Map<R, V> values) {
-        final NavigableMap<R, V> map = partitionedMap.getOrDefault(
-                partition, new TreeMap<>());
-        map.putAll(values);
-        partitionedMap.put(partition, map);
+    public void deletePartition(final P partition) {
+        final Partition<R, V> values = partitionedMap.get(partition);
+        if (values == null) {
+            return;
+        }
+        synchronized (values) {
+            values.removed = true;
+            partitionedMap.remove(partition, values);
+        }
     }
 
     @Override
-    public synchronized NavigableMap<R, V> getNextValues(
+    public void putAll(final P partition, final Map<R, V> entries) {
+        if (entries.isEmpty()) {
+            return;
+        }
+        write(partition, values -> {
+            values.putAll(entries);
+            return true;
+        });
+    }
+
+    @Override
+    public NavigableMap<R, V> getNextValues(
             final P partition, final R min, final int count)
             throws InterruptedException, BitvantageStoreException {
-        final NavigableMap<R, V> map = partitionedMap.getOrDefault(
-                partition, new TreeMap<>());
-        final NavigableMap<R, V> subMap
-                = map.subMap(min, false, map.lastKey(), true);
-
-        final ImmutableSortedMap.Builder builder
-                = ImmutableSortedMap.naturalOrder();
-        subMap.entrySet().stream().limit(count).forEach(builder::put);
-        return builder.build();
+        return read(partition,
+                    values -> getHead(values.tailMap(min, false), count));
     }
 
     @Override
-    public synchronized NavigableMap<R, V> getHeadValues(
+    public NavigableMap<R, V> getHeadValues(
             final P partition, final int count)
             throws InterruptedException, BitvantageStoreException {
-        final NavigableMap<R, V> map = partitionedMap.getOrDefault(
-                partition, new TreeMap<>());
-
-        final ImmutableSortedMap.Builder builder
-                = ImmutableSortedMap.naturalOrder();
-        map.entrySet().stream().limit(count).forEach(builder::put);
-        return builder.build();
-
+        return read(partition, values -> getHead(values, count));
     }
 
     @Override
-    public synchronized NavigableMap<R, V> getPartition(final P partition)
+    public NavigableMap<R, V> getPartition(final P partition)
             throws InterruptedException, BitvantageStoreException {
-        return partitionedMap.getOrDefault(partition, new TreeMap<>());
+        return read(partition, values -> values);
     }
 
     @Override
-    public synchronized boolean putIfAbsent(
+    public boolean putIfAbsent(
             final P partitionKey, final R rangeKey, final V specifier)
             throws BitvantageStoreException, InterruptedException {
-        final boolean wasAbsent;
-        if (partitionedMap.containsKey(partitionKey)) {
-            final NavigableMap<R, V> partition
-                    = partitionedMap.get(partitionKey);
-            if (partition.containsKey(rangeKey)) {
-                wasAbsent = false;
-            } else {
-                wasAbsent = true;
+        return write(partitionKey, values -> {
+            if (values.containsKey(rangeKey)) {
+                return false;
             }
-        } else {
-            wasAbsent = true;
-        }
-        if (wasAbsent) {
-            put(partitionKey, rangeKey, specifier);
-        }
-        return wasAbsent;
+            values.put(rangeKey, specifier);
+            return true;
+        });
     }
 
     @Override
     public V get(final P partition, final R rangeValue)
             throws BitvantageStoreException, InterruptedException {
-        final NavigableMap<R, V> partitionValues
-                = partitionedMap.get(partition);
+        return inspect(partition, null, values -> values.get(rangeValue));
+    }
+
+    /**
+     * Apply a write to the sorted map of a partition, creating the partition
+     * if needed. A partition deleted before the write takes its lock is
+     * replaced, so that the write is not lost with it.
+     *
+     * @return Whether the write changed the partition.
+     */
+    private boolean write(final P partition,
+                          final Predicate<NavigableMap<R, V>> update) {
+        while (true) {
+            final Partition<R, V> values = partitionedMap.computeIfAbsent(
+                    partition, key -> new Partition<>());
+            synchronized (values) {
+                if (!values.removed) {
+                    final boolean changed = update.test(values.map);
+                    if (changed) {
+                        values.snapshot = null;
+                        values.copied = 0;
+                    }
+                    return changed;
+                }
+            }
+        }
+    }
+
+    /**
+     * Read part of a partition as an immutable map, copying only that part
+     * while the snapshot is stale.
+     */
+    private NavigableMap<R, V> read(
+            final P partition,
+            final Function<NavigableMap<R, V>, NavigableMap<R, V>> view) {
+        final Partition<R, V> values = partitionedMap.get(partition);
+        if (values == null) {
+            return ImmutableSortedMap.of();
+        }
+        synchronized (values) {
+            if (values.snapshot == null) {
+                final NavigableMap<R, V> requested = view.apply(values.map);
+                values.copied += requested.size();
+                if (values.copied < values.map.size()) {
+                    return ImmutableSortedMap.copyOfSorted(requested);
+                }
+                values.snapshot = ImmutableSortedMap.copyOfSorted(values.map);
+            }
+            return view.apply(values.snapshot);
+        }
+    }
+
+    /**
+     * Compute a result from a partition without copying it.
+     */
+    private <T> T inspect(final P partition, final T absent,
+                          final Function<NavigableMap<R, V>, T> function) {
+        final Partition<R, V> values = partitionedMap.get(partition);
+        if (values == null) {
+            return absent;
+        }
+        synchronized (values) {
+            return function.apply((values.snapshot == null)
+                    ? values.map : values.snapshot);
+        }
+    }
+
+    private NavigableMap<R, V> getHead(final NavigableMap<R, V> values,
+                                       final int count) {
+        if (count <= 0) {
+            return ImmutableSortedMap.of();
+        }
+        final Iterator<R> keys = values.keySet().iterator();
+        for (int i = 0; i < count; i++) {
+            if (!keys.hasNext()) {
+                return values;
+            }
+            keys.next();
+        }
+        return keys.hasNext() ? values.headMap(keys.next(), false) : values;
+    }
+
+    static final class Partition<R, V> {
+
+        private final TreeMap<R, V> map = new TreeMap<>();
+        private ImmutableSortedMap<R, V> snapshot = null;
+        private long copied = 0;
+        private boolean removed = false;
 
-        return (partitionValues == null) ? null
-                : partitionValues.get(rangeValue);
     }
 
 }
@@ -0,0 +1,343 @@
+/*
+ * Copyright 2020 Public Transit Analytics.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bitvantage.bitvantagecaching.memory;
+
+import com.bitvantage.bitvantagecaching.LongKey;
+import com.bitvantage.bitvantagecaching.PartitionKey;
+import com.bitvantage.bitvantagecaching.RangedConditionedStore;
+import com.google.common.collect.ImmutableSortedMap;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.BiFunction;
+
+/**
+ * An in-memory ranged store specialized for {@link LongKey} range keys. Each
+ * partition keeps its keys in a sorted primitive array beside an array of
+ * values, so an entry costs a long and a reference rather than a map entry
+ * and a boxed key. Lookups are binary searches, and batches are merged into
+ * a partition in one pass.
+ *
+ * @author Public Transit Analytics
+ */
+public class LongKeyPartitionedStore<P extends PartitionKey, V>
+        implements RangedConditionedStore<P, LongKey, V> {
+
+    private final ConcurrentMap<P, Column> partitionedColumns;
+
+    public LongKeyPartitionedStore() {
+        partitionedColumns = new ConcurrentHashMap<>();
+    }
+
+    @Override
+    public NavigableMap<LongKey, V> getValuesInRange(
+            final P partition, final LongKey min, final LongKey max) {
+        final Column column = partitionedColumns.get(partition);
+        if (column == null) {
+            return ImmutableSortedMap.of();
+        }
+        synchronized (column) {
+            return column.copy(column.lowerBound(min.getValue()),
+                               column.upperBound(max.getValue()));
+        }
+    }
+
+    @Override
+    public NavigableMap<LongKey, V> getValuesAbove(final P partition,
+                                                   final LongKey min) {
+        return getValuesInRange(partition, min, min.getRangeMax());
+    }
+
+    @Override
+    public NavigableMap<LongKey, V> getValuesBelow(final P partition,
+                                                   final LongKey max) {
+        return getValuesInRange(partition, max.getRangeMin(), max);
+    }
+
+    @Override
+    public NavigableMap<LongKey, V> getNextValues(
+            final P partition, final LongKey min, final int count) {
+        final Column column = partitionedColumns.get(partition);
+        if (column == null) {
+            return ImmutableSortedMap.of();
+        }
+        synchronized (column) {
+            final int start = column.upperBound(min.getValue());
+            return column.copy(start, Math.min(column.size, start + count));
+        }
+    }
+
+    @Override
+    public NavigableMap<LongKey, V> getHeadValues(final P partition,
+                                                  final int count) {
+        final Column column = partitionedColumns.get(partition);
+        if (column == null) {
+            return ImmutableSortedMap.of();
+        }
+        synchronized (column) {
+            return column.copy(0, Math.min(column.size, count));
+        }
+    }
+
+    @Override
+    public NavigableMap<LongKey, V> getPartition(final P partition) {
+        final Column column = partitionedColumns.get(partition);
+        if (column == null) {
+            return ImmutableSortedMap.of();
+        }
+        synchronized (column) {
+            return column.copy(0, column.size);
+        }
+    }
+
+    @Override
+    public V get(final P partition, final LongKey rangeValue) {
+        final Column column = partitionedColumns.get(partition);
+        if (column == null) {
+            return null;
+        }
+        synchronized (column) {
+            final int index = column.find(rangeValue.getValue());
+            return (index < 0) ? null : column.getValue(index);
+        }
+    }
+
+    @Override
+    public void put(final P partition, final LongKey rangeValue,
+                    final V value) {
+        final Column column = getOrCreateColumn(partition);
+        synchronized (column) {
+            column.insert(rangeValue.getValue(), value, true);
+        }
+    }
+
+    @Override
+    public void putAll(final P partition, final Map<LongKey, V> entries) {
+        if (entries.isEmpty()) {
+            return;
+        }
+        final SortedMap<LongKey, V> sorted
+                = (entries instanceof SortedMap
+                   && ((SortedMap) entries).comparator() == null)
+                ? (SortedMap<LongKey, V>) entries : new TreeMap<>(entries);
+
+        final long[] keys = new long[sorted.size()];
+        final Object[] values = new Object[sorted.size()];
+        int i = 0;
+        for (final Map.Entry<LongKey, V> entry : sorted.entrySet()) {
+            keys[i] = entry.getKey().getValue();
+            values[i] = entry.getValue();
+            i++;
+        }
+
+        final Column column = getOrCreateColumn(partition);
+        synchronized (column) {
+            column.merge(keys, values);
+        }
+    }
+
+    @Override
+    public boolean putIfAbsent(final P partition, final LongKey range,
+                               final V value) {
+        final Column column = getOrCreateColumn(partition);
+        synchronized (column) {
+            return column.insert(range.getValue(), value, false);
+        }
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return partitionedColumns.isEmpty();
+    }
+
+    @Override
+    public void deletePartition(final P partition) {
+        partitionedColumns.remove(partition);
+    }
+
+    @Override
+    public long countInRange(final P partition, final LongKey min,
+                             final LongKey max) {
+        final Column column = partitionedColumns.get(partition);
+        if (column == null) {
+            return 0;
+        }
+        synchronized (column) {
+            return Math.max(0, column.upperBound(max.getValue())
+                                       - column.lowerBound(min.getValue()));
+        }
+    }
+
+    @Override
+    public LongKey getFirstKeyInRange(final P partition, final LongKey min,
+                                      final LongKey max) {
+        final Column column = partitionedColumns.get(partition);
+        if (column == null) {
+            return null;
+        }
+        synchronized (column) {
+            final int index = column.lowerBound(min.getValue());
+            return (index < column.size && column.keys[index] <= max.getValue())
+                    ? new LongKey(column.keys[index]) : null;
+        }
+    }
+
+    @Override
+    public LongKey getLastKeyInRange(final P partition, final LongKey min,
+                                     final LongKey max) {
+        final Column column = partitionedColumns.get(partition);
+        if (column == null) {
+            return null;
+        }
+        synchronized (column) {
+            final int index = column.upperBound(max.getValue()) - 1;
+            return (index >= 0 && column.keys[index] >= min.getValue())
+                    ? new LongKey(column.keys[index]) : null;
+        }
+    }
+
+    @Override
+    public <A> A reduceInRange(final P partition, final LongKey min,
+                               final LongKey max, final A identity,
+                               final BiFunction<A, ? super V, A> accumulator) {
+        final Column column = partitionedColumns.get(partition);
+        if (column == null) {
+            return identity;
+        }
+        synchronized (column) {
+            A result = identity;
+            final int end = column.upperBound(max.getValue());
+            for (int i = column.lowerBound(min.getValue()); i < end; i++) {
+                result = accumulator.apply(result, column.getValue(i));
+            }
+            return result;
+        }
+    }
+
+    private Column getOrCreateColumn(final P partition) {
+        return partitionedColumns.computeIfAbsent(
+                partition, key -> new Column());
+    }
+
+    private final class Column {
+
+        private static final int INITIAL_CAPACITY = 16;
+
+        private long[] keys = new long[INITIAL_CAPACITY];
+        private Object[] values = new Object[INITIAL_CAPACITY];
+        private int size = 0;
+
+        private int find(final long key) {
+            return Arrays.binarySearch(keys, 0, size, key);
+        }
+
+        private int lowerBound(final long key) {
+            final int index = find(key);
+            return (index >= 0) ? index : -index - 1;
+        }
+
+        private int upperBound(final long key) {
+            final int index = find(key);
+            return (index >= 0) ? index + 1 : -index - 1;
+        }
+
+        private V getValue(final int index) {
+            return (V) values[index];
+        }
+
+        private boolean insert(final long key, final Object value,
+                               final boolean overwrite) {
+            final int index = find(key);
+            if (index >= 0) {
+                if (overwrite) {
+                    values[index] = value;
+                }
+                return false;
+            }
+            final int position = -index - 1;
+            ensureCapacity(size + 1);
+            System.arraycopy(keys, position, keys, position + 1,
+                             size - position);
+            System.arraycopy(values, position, values, position + 1,
+                             size - position);
+            keys[position] = key;
+            values[position] = value;
+            size++;
+            return true;
+        }
+
+        private void merge(final long[] newKeys, final Object[] newValues) {
+            if (size == 0 || newKeys[0] > keys[size - 1]) {
+                ensureCapacity(size + newKeys.length);
+                System.arraycopy(newKeys, 0, keys, size, newKeys.length);
+                System.arraycopy(newValues, 0, values, size,
+                                 newValues.length);
+                size += newKeys.length;
+                return;
+            }
+
+            final int capacity = Math.max(INITIAL_CAPACITY,
+                                          size + newKeys.length);
+            final long[] mergedKeys = new long[capacity];
+            final Object[] mergedValues = new Object[capacity];
+            int i = 0;
+            int j = 0;
+            int k = 0;
+            while (i < size || j < newKeys.length) {
+                if (j == newKeys.length
+                            || (i < size && keys[i] < newKeys[j])) {
+                    mergedKeys[k] = keys[i];
+                    mergedValues[k] = values[i];
+                    i++;
+                } else {
+                    if (i < size && keys[i] == newKeys[j]) {
+                        i++;
+                    }
+                    mergedKeys[k] = newKeys[j];
+                    mergedValues[k] = newValues[j];
+                    j++;
+                }
+                k++;
+            }
+            keys = mergedKeys;
+            values = mergedValues;
+            size = k;
+        }
+
+        private NavigableMap<LongKey, V> copy(final int start, final int end) {
+            final ImmutableSortedMap.Builder<LongKey, V> builder
+                    = ImmutableSortedMap.naturalOrder();
+            for (int i = start; i < end; i++) {
+                builder.put(new LongKey(keys[i]), (V) values[i]);
+            }
+            return builder.build();
+        }
+
+        private void ensureCapacity(final int needed) {
+            if (needed > keys.length) {
+                final int capacity = Math.max(needed, keys.length * 2);
+                keys = Arrays.copyOf(keys, capacity);
+                values = Arrays.copyOf(values, capacity);
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,365 @@
+/*
+ * Copyright 2020 Public Transit Analytics.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bitvantage.bitvantagecaching.memory;
+
+import com.bitvantage.bitvantagecaching.BitvantageStoreException;
+import com.bitvantage.bitvantagecaching.PartitionKey;
+import com.bitvantage.bitvantagecaching.Store;
+import com.bitvantage.bitvantagecaching.ValueSerializer;
+import com.bitvantage.bitvantagecaching.lmdb.KeyManager;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Keeps serialized keys and values in direct memory slabs, out of reach of
+ * the garbage collector. Entries are placed in power-of-two blocks that are
+ * returned to a free list when deleted, or when overwritten by a value that
+ * needs a block of another size; a value that fits the same block size is
+ * written over the old one in place. Entries are found through an
+ * open-addressing index of key hashes and block addresses.
+ *
+ * The total size of the slabs is fixed at construction; a put that cannot be
+ * placed fails without changing the store.
+ *
+ * @author Public Transit Analytics
+ */
+public class OffHeapHashStore<K extends PartitionKey, V> implements Store<K, V> {
+
+    private static final int HEADER_BYTES = 8;
+    private static final int MIN_BLOCK_SHIFT = 5;
+    private static final int INITIAL_SLOTS = 1024;
+    private static final long EMPTY = -1;
+
+    private static final HashFunction HASH = Hashing.murmur3_32();
+
+    private final KeyManager<K> keyManager;
+    private final ValueSerializer<V> serializer;
+    private final int slabSize;
+    private final int maxSlabs;
+
+    private final List<ByteBuffer> slabs;
+    private final List<Deque<Long>> freeBlocks;
+    private final ReadWriteLock lock;
+    private int slabOffset;
+    private long[] addresses;
+    private int[] hashes;
+    private int size;
+
+    /**
+     * @param slabSize The size of each direct buffer. A single entry is
+     * placed in a power-of-two block no larger than this.
+     * @param capacity The maximum number of bytes to allocate across slabs.
+     */
+    public OffHeapHashStore(final KeyManager<K> keyManager,
+                            final ValueSerializer<V> serializer,
+                            final int slabSize, final long capacity) {
+        this.keyManager = keyManager;
+        this.serializer = serializer;
+        this.slabSize = slabSize;
+        this.maxSlabs = (int) Math.min(Integer.MAX_VALUE, capacity / slabSize);
+
+        slabs = new ArrayList<>();
+        freeBlocks = new ArrayList<>();
+        for (int i = 0; i < Integer.SIZE; i++) {
+            freeBlocks.add(new ArrayDeque<>());
+        }
+        lock = new ReentrantReadWriteLock();
+        slabOffset = 0;
+        addresses = new long[INITIAL_SLOTS];
+        Arrays.fill(addresses, EMPTY);
+        hashes = new int[INITIAL_SLOTS];
+        size = 0;
+    }
+
+    @Override
+    public boolean containsKey(final K key) {
+        final byte[] keyBytes = getKeyBytes(key);
+        final int hash = HASH.hashBytes(keyBytes).asInt();
+        lock.readLock().lock();
+        try {
+            return findSlot(keyBytes, hash) >= 0;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public V get(final K key) throws BitvantageStoreException {
+        final byte[] keyBytes = getKeyBytes(key);
+        final int hash = HASH.hashBytes(keyBytes).asInt();
+        final byte[] valueBytes;
+        lock.readLock().lock();
+        try {
+            final int slot = findSlot(keyBytes, hash);
+            if (slot < 0) {
+                return null;
+            }
+            valueBytes = readValue(addresses[slot]);
+        } finally {
+            lock.readLock().unlock();
+        }
+        return serializer.getValue(valueBytes);
+    }
+
+    @Override
+    public void put(final K key, final V value)
+            throws BitvantageStoreException {
+        final byte[] keyBytes = getKeyBytes(key);
+        final int hash = HASH.hashBytes(keyBytes).asInt();
+        final byte[] valueBytes = serializer.getBytes(value);
+        lock.writeLock().lock();
+        try {
+            insert(keyBytes, hash, valueBytes);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void putAll(final Map<K, V> entries)
+            throws BitvantageStoreException {
+        for (final Map.Entry<K, V> entry : entries.entrySet()) {
+            put(entry.getKey(), entry.getValue());
+        }
+    }
+
+    @Override
+    public Map<K, V> getAll() throws BitvantageStoreException {
+        final List<byte[]> keys = new ArrayList<>();
+        final List<byte[]> values = new ArrayList<>();
+        lock.readLock().lock();
+        try {
+            for (final long address : addresses) {
+                if (address != EMPTY) {
+                    keys.add(readKey(address));
+                    values.add(readValue(address));
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        final ImmutableMap.Builder<K, V> builder = ImmutableMap.builder();
+        for (int i = 0; i < keys.size(); i++) {
+            final String keyString = new String(keys.get(i),
+                                                StandardCharsets.UTF_8);
+            builder.put(keyManager.materialize(keyString),
+                        serializer.getValue(values.get(i)));
+        }
+        return builder.build();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        lock.readLock().lock();
+        try {
+            return size == 0;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void delete(final K key) {
+        final byte[] keyBytes = getKeyBytes(key);
+        final int hash = HASH.hashBytes(keyBytes).asInt();
+        lock.writeLock().lock();
+        try {
+            final int slot = findSlot(keyBytes, hash);
+            if (slot >= 0) {
+                free(addresses[slot]);
+                removeSlot(slot);
+                size--;
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void insert(final byte[] keyBytes, final int hash,
+                        final byte[] valueBytes)
+            throws BitvantageStoreException {
+        final int recordSize = HEADER_BYTES + keyBytes.length
+                                       + valueBytes.length;
+        final int slot = findSlot(keyBytes, hash);
+        if (slot >= 0) {
+            final long old = addresses[slot];
+            if (getBlockShift(getRecordSize(old))
+                        == getBlockShift(recordSize)) {
+                write(old, keyBytes, valueBytes);
+                return;
+            }
+        }
+
+        final long address = allocate(recordSize);
+        write(address, keyBytes, valueBytes);
+        if (slot >= 0) {
+            free(addresses[slot]);
+            addresses[slot] = address;
+        } else {
+            final int emptySlot = -slot - 1;
+            addresses[emptySlot] = address;
+            hashes[emptySlot] = hash;
+            size++;
+            if (size * 4 > addresses.length * 3) {
+                resize();
+            }
+        }
+    }
+
+    /**
+     * @return The slot holding the key, or -(empty slot) - 1 if it is absent.
+     */
+    private int findSlot(final byte[] keyBytes, final int hash) {
+        final int mask = addresses.length - 1;
+        int slot = getHome(hash, mask);
+        while (addresses[slot] != EMPTY) {
+            if (hashes[slot] == hash
+                        && Arrays.equals(readKey(addresses[slot]), keyBytes)) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -slot - 1;
+    }
+
+    private void removeSlot(final int slot) {
+        final int mask = addresses.length - 1;
+        int hole = slot;
+        int next = (hole + 1) & mask;
+        while (addresses[next] != EMPTY) {
+            final int home = getHome(hashes[next], mask);
+            if (((next - home) & mask) >= ((next - hole) & mask)) {
+                addresses[hole] = addresses[next];
+                hashes[hole] = hashes[next];
+                hole = next;
+            }
+            next = (next + 1) & mask;
+        }
+        addresses[hole] = EMPTY;
+    }
+
+    private void resize() {
+        final long[] oldAddresses = addresses;
+        final int[] oldHashes = hashes;
+        addresses = new long[oldAddresses.length * 2];
+        Arrays.fill(addresses, EMPTY);
+        hashes = new int[oldHashes.length * 2];
+
+        final int mask = addresses.length - 1;
+        for (int i = 0; i < oldAddresses.length; i++) {
+            if (oldAddresses[i] != EMPTY) {
+                int slot = getHome(oldHashes[i], mask);
+                while (addresses[slot] != EMPTY) {
+                    slot = (slot + 1) & mask;
+                }
+                addresses[slot] = oldAddresses[i];
+                hashes[slot] = oldHashes[i];
+            }
+        }
+    }
+
+    private long allocate(final int recordSize)
+            throws BitvantageStoreException {
+        final int shift = getBlockShift(recordSize);
+        if ((1L << shift) > slabSize) {
+            throw new BitvantageStoreException(String.format(
+                    "Entry of %d bytes does not fit in slab size %d.",
+                    recordSize, slabSize));
+        }
+        final Deque<Long> free = freeBlocks.get(shift);
+        if (!free.isEmpty()) {
+            return free.pop();
+        }
+
+        final int blockSize = 1 << shift;
+        if (slabs.isEmpty() || slabOffset + blockSize > slabSize) {
+            if (slabs.size() >= maxSlabs) {
+                throw new BitvantageStoreException(
+                        "Off-heap capacity exhausted.");
+            }
+            slabs.add(ByteBuffer.allocateDirect(slabSize));
+            slabOffset = 0;
+        }
+        final long address = ((long) (slabs.size() - 1) << 32) | slabOffset;
+        slabOffset += blockSize;
+        return address;
+    }
+
+    private void free(final long address) {
+        freeBlocks.get(getBlockShift(getRecordSize(address))).push(address);
+    }
+
+    private void write(final long address, final byte[] keyBytes,
+                       final byte[] valueBytes) {
+        getBlock(address).putInt(keyBytes.length).putInt(valueBytes.length)
+                .put(keyBytes).put(valueBytes);
+    }
+
+    private int getRecordSize(final long address) {
+        final ByteBuffer block = getBlock(address);
+        return HEADER_BYTES + block.getInt() + block.getInt();
+    }
+
+    private byte[] readKey(final long address) {
+        final ByteBuffer block = getBlock(address);
+        final byte[] keyBytes = new byte[block.getInt()];
+        block.getInt();
+        block.get(keyBytes);
+        return keyBytes;
+    }
+
+    private byte[] readValue(final long address) {
+        final ByteBuffer block = getBlock(address);
+        final int keyLength = block.getInt();
+        final byte[] valueBytes = new byte[block.getInt()];
+        block.position(block.position() + keyLength);
+        block.get(valueBytes);
+        return valueBytes;
+    }
+
+    private ByteBuffer getBlock(final long address) {
+        final ByteBuffer block = slabs.get((int) (address >>> 32)).duplicate();
+        block.position((int) address);
+        return block;
+    }
+
+    private byte[] getKeyBytes(final K key) {
+        return keyManager.createKeyString(key).getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static int getBlockShift(final int recordSize) {
+        return Math.max(MIN_BLOCK_SHIFT,
+                        Integer.SIZE - Integer.numberOfLeadingZeros(
+                                recordSize - 1));
+    }
+
+    private static int getHome(final int hash, final int mask) {
+        return (hash ^ (hash >>> 16)) & mask;
+    }
+
+}
@@ -99,6 +99,7 @@ public class S3Store<P extends PartitionKey, V> implements Store<P, V> {
         return objectList.isEmpty();
     }
 
+    @Override
     public void delete(final P key) throws BitvantageStoreException,
             InterruptedException {
         final String keyString = serializer.getKey(key);
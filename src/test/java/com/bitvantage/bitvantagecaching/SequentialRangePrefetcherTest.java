@@ -0,0 +1,258 @@
+/*
+ * Copyright 2020 Public Transit Analytics.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bitvantage.bitvantagecaching;
+
+import com.bitvantage.bitvantagecaching.testhelpers.TestPartitionKey;
+import com.google.common.base.Ticker;
+import com.google.common.collect.ImmutableRangeMap;
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.collect.Range;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentMatchers;
+import org.mockito.Mockito;
+
+/**
+ *
+ * @author Public Transit Analytics
+ */
+public class SequentialRangePrefetcherTest {
+
+    private static final TestPartitionKey PARTITION
+            = new TestPartitionKey("a");
+    private static final RangeWindowStepper<LongKey> STEPPER
+            = new RangeWindowStepper<LongKey>() {
+        @Override
+        public Range<LongKey> getNextWindow(final LongKey min,
+                                            final LongKey max) {
+            return Range.closed(new LongKey(max.getValue() + 1),
+                                new LongKey(max.getValue() + 10));
+        }
+
+        @Override
+        public Range<LongKey> getPreviousWindow(final LongKey min,
+                                                final LongKey max) {
+            return Range.closed(new LongKey(min.getValue() - 10),
+                                new LongKey(min.getValue() - 1));
+        }
+    };
+
+    private RangedStore<TestPartitionKey, LongKey, String> store;
+    private RangedCache<TestPartitionKey, LongKey, String> cache;
+    private ManualExecutor executor;
+
+    @Before
+    public void setUp() throws Exception {
+        store = Mockito.mock(RangedStore.class);
+        Mockito.when(store.getValuesInRange(
+                ArgumentMatchers.any(), ArgumentMatchers.any(),
+                ArgumentMatchers.any())).thenReturn(ImmutableSortedMap.of());
+        cache = Mockito.mock(RangedCache.class);
+        Mockito.when(cache.getRange(ArgumentMatchers.any(),
+                                    ArgumentMatchers.any(),
+                                    ArgumentMatchers.any()))
+                .thenAnswer(invocation -> ImmutableRangeMap.of(
+                        Range.closed(invocation.getArgument(1),
+                                     invocation.getArgument(2)),
+                        new RangeStatus<>(false, null)));
+        executor = new ManualExecutor();
+    }
+
+    @Test
+    public void testPrefetchesAfterTwoAscendingSteps() throws Exception {
+        final SequentialRangePrefetcher<TestPartitionKey, LongKey, String>
+                prefetcher = new SequentialRangePrefetcher<>(
+                        store, cache, STEPPER, executor, 2, 10);
+        prefetch(prefetcher, 0, 9);
+        prefetch(prefetcher, 10, 19);
+        Assert.assertTrue(executor.tasks.isEmpty());
+        prefetch(prefetcher, 20, 29);
+        Assert.assertEquals(2, executor.tasks.size());
+
+        executor.runAll();
+        Mockito.verify(store).getValuesInRange(
+                PARTITION, new LongKey(30), new LongKey(39));
+        Mockito.verify(store).getValuesInRange(
+                PARTITION, new LongKey(40), new LongKey(49));
+    }
+
+    @Test
+    public void testCancelsPendingOnPatternBreak() throws Exception {
+        final SequentialRangePrefetcher<TestPartitionKey, LongKey, String>
+                prefetcher = new SequentialRangePrefetcher<>(
+                        store, cache, STEPPER, executor, 2, 2);
+        prefetch(prefetcher, 0, 9);
+        prefetch(prefetcher, 10, 19);
+        prefetch(prefetcher, 20, 29);
+        prefetch(prefetcher, 15, 24);
+
+        Assert.assertEquals(2, executor.tasks.size());
+        for (final FutureTask<?> task : executor.tasks) {
+            Assert.assertTrue(task.isCancelled());
+        }
+
+        prefetch(prefetcher, 25, 34);
+        prefetch(prefetcher, 35, 44);
+        Assert.assertEquals(4, executor.tasks.size());
+        Assert.assertFalse(executor.tasks.get(2).isCancelled());
+    }
+
+    @Test
+    public void testBoundsFetchesInFlight() throws Exception {
+        final SequentialRangePrefetcher<TestPartitionKey, LongKey, String>
+                prefetcher = new SequentialRangePrefetcher<>(
+                        store, cache, STEPPER, executor, 3, 1);
+        prefetch(prefetcher, 0, 9);
+        prefetch(prefetcher, 10, 19);
+        prefetch(prefetcher, 20, 29);
+        Assert.assertEquals(1, executor.tasks.size());
+
+        final TestPartitionKey other = new TestPartitionKey("b");
+        prefetcher.prefetch(other, new LongKey(100), new LongKey(109));
+        prefetcher.prefetch(other, new LongKey(110), new LongKey(119));
+        prefetcher.prefetch(other, new LongKey(120), new LongKey(129));
+        Assert.assertEquals(1, executor.tasks.size());
+
+        executor.runAll();
+        prefetcher.prefetch(other, new LongKey(130), new LongKey(139));
+        Assert.assertEquals(2, executor.tasks.size());
+    }
+
+    @Test
+    public void testWaitsForInFlightWindow() throws Exception {
+        final SequentialRangePrefetcher<TestPartitionKey, LongKey, String>
+                prefetcher = new SequentialRangePrefetcher<>(
+                        store, cache, STEPPER, executor, 1, 10);
+        prefetch(prefetcher, 0, 9);
+        prefetch(prefetcher, 10, 19);
+        prefetch(prefetcher, 20, 29);
+
+        final CountDownLatch done = new CountDownLatch(1);
+        final Thread reader = new Thread(() -> {
+            try {
+                prefetch(prefetcher, 30, 39);
+                done.countDown();
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        reader.start();
+        Assert.assertFalse(done.await(100, TimeUnit.MILLISECONDS));
+
+        executor.tasks.get(0).run();
+        Assert.assertTrue(done.await(5, TimeUnit.SECONDS));
+        Mockito.verify(cache).putRange(PARTITION, new LongKey(30),
+                                       new LongKey(39),
+                                       ImmutableSortedMap.of());
+    }
+
+    @Test
+    public void testForgetsIdlePartitions() throws Exception {
+        final AtomicLong nanos = new AtomicLong();
+        final Ticker ticker = new Ticker() {
+            @Override
+            public long read() {
+                return nanos.get();
+            }
+        };
+        final SequentialRangePrefetcher<TestPartitionKey, LongKey, String>
+                prefetcher = new SequentialRangePrefetcher<>(
+                        store, cache, STEPPER, executor, 1, 10,
+                        Duration.ofMinutes(1), ticker);
+        prefetch(prefetcher, 0, 9);
+        prefetch(prefetcher, 10, 19);
+        prefetch(prefetcher, 20, 29);
+        Assert.assertEquals(1, executor.tasks.size());
+
+        nanos.addAndGet(Duration.ofMinutes(2).toNanos());
+        prefetch(prefetcher, 30, 39);
+        Assert.assertTrue(executor.tasks.get(0).isCancelled());
+        Assert.assertEquals(1, executor.tasks.size());
+    }
+
+    private static void prefetch(
+            final SequentialRangePrefetcher<TestPartitionKey, LongKey, String>
+                    prefetcher, final long min, final long max)
+            throws InterruptedException {
+        prefetcher.prefetch(PARTITION, new LongKey(min), new LongKey(max));
+    }
+
+    private static class ManualExecutor extends AbstractExecutorService {
+
+        private final List<FutureTask<?>> tasks = new ArrayList<>();
+
+        @Override
+        public Future<?> submit(final Runnable runnable) {
+            final FutureTask<?> task = new FutureTask<>(runnable, null);
+            synchronized (tasks) {
+                tasks.add(task);
+            }
+            return task;
+        }
+
+        @Override
+        public void execute(final Runnable command) {
+            submit(command);
+        }
+
+        private void runAll() {
+            final List<FutureTask<?>> pending;
+            synchronized (tasks) {
+                pending = new ArrayList<>(tasks);
+            }
+            for (final FutureTask<?> task : pending) {
+                task.run();
+            }
+        }
+
+        @Override
+        public void shutdown() {
+        }
+
+        @Override
+        public List<Runnable> shutdownNow() {
+            return new ArrayList<>();
+        }
+
+        @Override
+        public boolean isShutdown() {
+            return false;
+        }
+
+        @Override
+        public boolean isTerminated() {
+            return false;
+        }
+
+        @Override
+        public boolean awaitTermination(final long timeout,
+                                        final TimeUnit unit) {
+            return true;
+        }
+
+    }
+
+}
@@ -0,0 +1,209 @@
+/*
+ * Copyright 2020 Public Transit Analytics.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bitvantage.bitvantagecaching;
+
+import com.bitvantage.bitvantagecaching.testhelpers.TestPartitionKey;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableRangeMap;
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.collect.Range;
+import java.util.NavigableMap;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+/**
+ *
+ * @author Public Transit Analytics
+ */
+public class TwoLevelCachingRangedStoreTest {
+
+    private static final TestPartitionKey PARTITION
+            = new TestPartitionKey("a");
+    private static final RangeBucketer<LongKey> BUCKETER
+            = key -> {
+                final long start = Math.floorDiv(key.getValue(), 100) * 100;
+                return Range.closed(new LongKey(start),
+                                    new LongKey(start + 99));
+            };
+
+    private RangedConditionedStore<TestPartitionKey, LongKey, String> store;
+    private RangedCache<TestPartitionKey, LongKey, String> cache;
+
+    @Before
+    public void setUp() {
+        store = Mockito.mock(RangedConditionedStore.class);
+        cache = Mockito.mock(RangedCache.class);
+    }
+
+    @Test
+    public void testWidensFetchToBuckets() throws Exception {
+        Mockito.when(cache.getRange(PARTITION, new LongKey(150),
+                                    new LongKey(160)))
+                .thenReturn(ImmutableRangeMap.of(
+                        Range.closed(new LongKey(150), new LongKey(160)),
+                        new RangeStatus<>(false, null)));
+        Mockito.when(store.getValuesInRange(PARTITION, new LongKey(100),
+                                            new LongKey(199)))
+                .thenReturn(values(120, 150, 155, 160, 170));
+        final TwoLevelCachingRangedStore<TestPartitionKey, LongKey, String>
+                cachingStore = new TwoLevelCachingRangedStore<>(
+                        store, cache, null, BUCKETER);
+
+        final NavigableMap<LongKey, String> result
+                = cachingStore.getValuesInRange(PARTITION, new LongKey(150),
+                                                new LongKey(160));
+        Assert.assertEquals(ImmutableList.of("150", "155", "160"),
+                            ImmutableList.copyOf(result.values()));
+        Mockito.verify(cache).putRange(PARTITION, new LongKey(100),
+                                       new LongKey(199),
+                                       values(120, 150, 155, 160, 170));
+    }
+
+    @Test
+    public void testReturnsOnlyOpenGapOfBucket() throws Exception {
+        Mockito.when(cache.getRange(PARTITION, new LongKey(150),
+                                    new LongKey(160)))
+                .thenReturn(ImmutableRangeMap.<LongKey, RangeStatus<
+                        LongKey, String>>builder()
+                        .put(Range.closed(new LongKey(150), new LongKey(150)),
+                             new RangeStatus<>(true, values(150)))
+                        .put(Range.open(new LongKey(150), new LongKey(160)),
+                             new RangeStatus<>(false, null))
+                        .put(Range.closed(new LongKey(160), new LongKey(160)),
+                             new RangeStatus<>(true, values(160)))
+                        .build());
+        Mockito.when(store.getValuesInRange(PARTITION, new LongKey(100),
+                                            new LongKey(199)))
+                .thenReturn(values(150, 155, 160));
+        final TwoLevelCachingRangedStore<TestPartitionKey, LongKey, String>
+                cachingStore = new TwoLevelCachingRangedStore<>(
+                        store, cache, null, BUCKETER);
+
+        Assert.assertEquals(
+                values(150, 155, 160),
+                cachingStore.getValuesInRange(PARTITION, new LongKey(150),
+                                              new LongKey(160)));
+    }
+
+    @Test
+    public void testDoesNotRepeatCachedBoundaryKey() throws Exception {
+        Mockito.when(cache.getRange(PARTITION, new LongKey(0),
+                                    new LongKey(20)))
+                .thenReturn(ImmutableRangeMap.<LongKey, RangeStatus<
+                        LongKey, String>>builder()
+                        .put(Range.closed(new LongKey(0), new LongKey(10)),
+                             new RangeStatus<>(true, values(5, 10)))
+                        .put(Range.openClosed(new LongKey(10),
+                                              new LongKey(20)),
+                             new RangeStatus<>(false, null))
+                        .build());
+        Mockito.when(store.getValuesInRange(PARTITION, new LongKey(10),
+                                            new LongKey(20)))
+                .thenReturn(values(10, 15, 20));
+        final TwoLevelCachingRangedStore<TestPartitionKey, LongKey, String>
+                cachingStore = new TwoLevelCachingRangedStore<>(store, cache);
+
+        Assert.assertEquals(
+                values(5, 10, 15, 20),
+                cachingStore.getValuesInRange(PARTITION, new LongKey(0),
+                                              new LongKey(20)));
+        Mockito.verify(cache).putRange(PARTITION, new LongKey(10),
+                                       new LongKey(20), values(10, 15, 20));
+    }
+
+    @Test
+    public void testAggregatesCoveredRangeFromCache() throws Exception {
+        Mockito.when(cache.getRange(PARTITION, new LongKey(0),
+                                    new LongKey(20)))
+                .thenReturn(ImmutableRangeMap.of(
+                        Range.closed(new LongKey(0), new LongKey(20)),
+                        new RangeStatus<>(true, values(5, 10, 15))));
+        final TwoLevelCachingRangedStore<TestPartitionKey, LongKey, String>
+                cachingStore = new TwoLevelCachingRangedStore<>(store, cache);
+
+        Assert.assertEquals(3, cachingStore.countInRange(
+                PARTITION, new LongKey(0), new LongKey(20)));
+        Assert.assertEquals(new LongKey(5), cachingStore.getFirstKeyInRange(
+                PARTITION, new LongKey(0), new LongKey(20)));
+        Assert.assertEquals(new LongKey(15), cachingStore.getLastKeyInRange(
+                PARTITION, new LongKey(0), new LongKey(20)));
+        Assert.assertEquals("51015", cachingStore.reduceInRange(
+                PARTITION, new LongKey(0), new LongKey(20), "",
+                String::concat));
+        Mockito.verifyZeroInteractions(store);
+    }
+
+    @Test
+    public void testFetchesOnlyGapsForAggregates() throws Exception {
+        Mockito.when(cache.getRange(PARTITION, new LongKey(0),
+                                    new LongKey(20)))
+                .thenReturn(ImmutableRangeMap.<LongKey, RangeStatus<
+                        LongKey, String>>builder()
+                        .put(Range.closed(new LongKey(0), new LongKey(10)),
+                             new RangeStatus<>(true, values(5, 10)))
+                        .put(Range.openClosed(new LongKey(10),
+                                              new LongKey(20)),
+                             new RangeStatus<>(false, null))
+                        .build());
+        Mockito.when(store.getValuesInRange(PARTITION, new LongKey(10),
+                                            new LongKey(20)))
+                .thenReturn(values(10, 15, 20));
+        final TwoLevelCachingRangedStore<TestPartitionKey, LongKey, String>
+                cachingStore = new TwoLevelCachingRangedStore<>(store, cache);
+
+        Assert.assertEquals(4, cachingStore.countInRange(
+                PARTITION, new LongKey(0), new LongKey(20)));
+        Assert.assertEquals(new LongKey(5), cachingStore.getFirstKeyInRange(
+                PARTITION, new LongKey(0), new LongKey(20)));
+        Assert.assertEquals(new LongKey(20), cachingStore.getLastKeyInRange(
+                PARTITION, new LongKey(0), new LongKey(20)));
+        Mockito.verify(store, Mockito.times(2)).getValuesInRange(
+                PARTITION, new LongKey(10), new LongKey(20));
+        Mockito.verify(store, Mockito.never()).countInRange(
+                Mockito.any(), Mockito.any(), Mockito.any());
+    }
+
+    @Test
+    public void testAggregatesUncachedRangeInStore() throws Exception {
+        Mockito.when(cache.getRange(PARTITION, new LongKey(0),
+                                    new LongKey(20)))
+                .thenReturn(ImmutableRangeMap.of(
+                        Range.closed(new LongKey(0), new LongKey(20)),
+                        new RangeStatus<>(false, null)));
+        Mockito.when(store.countInRange(PARTITION, new LongKey(0),
+                                        new LongKey(20)))
+                .thenReturn(7L);
+        final TwoLevelCachingRangedStore<TestPartitionKey, LongKey, String>
+                cachingStore = new TwoLevelCachingRangedStore<>(store, cache);
+
+        Assert.assertEquals(7, cachingStore.countInRange(
+                PARTITION, new LongKey(0), new LongKey(20)));
+        Mockito.verify(store, Mockito.never()).getValuesInRange(
+                Mockito.any(), Mockito.any(), Mockito.any());
+    }
+
+    private static NavigableMap<LongKey, String> values(final long... keys) {
+        final ImmutableSortedMap.Builder<LongKey, String> builder
+                = ImmutableSortedMap.naturalOrder();
+        for (final long key : keys) {
+            builder.put(new LongKey(key), Long.toString(key));
+        }
+        return builder.build();
+    }
+
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright 2020 Public Transit Analytics.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bitvantage.bitvantagecaching;
+
+import com.bitvantage.bitvantagecaching.memory.InMemoryHashStore;
+import com.bitvantage.bitvantagecaching.memory.InMemoryPartitionedStore;
+import com.bitvantage.bitvantagecaching.testhelpers.TestPartitionKey;
+import com.bitvantage.bitvantagecaching.testhelpers.TestRangeKey;
+import com.google.common.collect.ImmutableMap;
+import java.util.Map;
+import java.util.UUID;
+import org.junit.Assert;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+/**
+ *
+ * @author Public Transit Analytics
+ */
+public class UnboundedLocallyRangedCacheTest {
+
+    private static final TestRangeKey MIN = new TestRangeKey("a");
+    private static final TestRangeKey MAX = new TestRangeKey("z");
+
+    @Test
+    public void testLoadsPartitionOnce() throws Exception {
+        final Store<TestPartitionKey, Map<TestRangeKey, String>> store
+                = Mockito.mock(Store.class);
+        final TestPartitionKey partition = new TestPartitionKey("a");
+        Mockito.when(store.get(partition)).thenReturn(
+                ImmutableMap.of(new TestRangeKey("m"), "m"));
+
+        final UnboundedLocallyRangedCache<TestPartitionKey, TestRangeKey, String> cache
+                = new UnboundedLocallyRangedCache<>(
+                        store, new Cache<>(new InMemoryHashStore<>()),
+                        new InMemoryPartitionedStore<>());
+
+        Assert.assertEquals(1, cache.getValuesInRange(partition, MIN, MAX)
+                            .size());
+        Assert.assertEquals(1, cache.getValuesInRange(partition, MIN, MAX)
+                            .size());
+        Mockito.verify(store, Mockito.times(1)).get(partition);
+    }
+
+    @Test
+    public void testEvictsLeastRecentlyUsed() throws Exception {
+        final InMemoryHashStore<TestPartitionKey, Map<TestRangeKey, String>> store
+                = new InMemoryHashStore<>();
+        final InMemoryHashStore<TestPartitionKey, UUID> uuids
+                = new InMemoryHashStore<>();
+        final InMemoryPartitionedStore<UuidKey, TestRangeKey, String> local
+                = new InMemoryPartitionedStore<>();
+        final TestPartitionKey first = new TestPartitionKey("a");
+        final TestPartitionKey second = new TestPartitionKey("b");
+        store.put(first, ImmutableMap.of(new TestRangeKey("m"), "m"));
+        store.put(second, ImmutableMap.of(new TestRangeKey("n"), "n"));
+
+        final UnboundedLocallyRangedCache<TestPartitionKey, TestRangeKey, String> cache
+                = new UnboundedLocallyRangedCache<>(
+                        store, null, new Cache<>(uuids), local, 1);
+
+        cache.getValuesInRange(first, MIN, MAX);
+        final UUID firstUuid = uuids.get(first);
+        cache.getValuesInRange(second, MIN, MAX);
+
+        Assert.assertFalse(uuids.containsKey(first));
+        Assert.assertTrue(uuids.containsKey(second));
+        Assert.assertTrue(local.getPartition(new UuidKey(firstUuid))
+                .isEmpty());
+    }
+
+    @Test
+    public void testPutsDeltaIntoLocalCopy() throws Exception {
+        final Store<TestPartitionKey, Map<TestRangeKey, String>> store
+                = Mockito.mock(Store.class);
+        final InMemoryPartitionedStore<TestPartitionKey, TestRangeKey, String> deltas
+                = new InMemoryPartitionedStore<>();
+        final TestPartitionKey partition = new TestPartitionKey("a");
+        Mockito.when(store.get(partition)).thenReturn(
+                ImmutableMap.of(new TestRangeKey("m"), "m"));
+
+        final UnboundedLocallyRangedCache<TestPartitionKey, TestRangeKey, String> cache
+                = new UnboundedLocallyRangedCache<>(
+                        store, deltas, new Cache<>(new InMemoryHashStore<>()),
+                        new InMemoryPartitionedStore<>(), 10);
+
+        cache.getValuesInRange(partition, MIN, MAX);
+        cache.put(partition, new TestRangeKey("n"), "n");
+
+        Assert.assertEquals(2, cache.getValuesInRange(partition, MIN, MAX)
+                            .size());
+        Mockito.verify(store, Mockito.never()).put(
+                Mockito.any(), Mockito.any());
+    }
+
+    @Test
+    public void testCompactsAtMaxDeltas() throws Exception {
+        final InMemoryHashStore<TestPartitionKey, Map<TestRangeKey, String>> store
+                = new InMemoryHashStore<>();
+        final InMemoryPartitionedStore<TestPartitionKey, TestRangeKey, String> deltas
+                = new InMemoryPartitionedStore<>();
+        final TestPartitionKey partition = new TestPartitionKey("a");
+        store.put(partition, ImmutableMap.of(new TestRangeKey("m"), "m"));
+
+        final UnboundedLocallyRangedCache<TestPartitionKey, TestRangeKey, String> cache
+                = new UnboundedLocallyRangedCache<>(
+                        store, deltas, new Cache<>(new InMemoryHashStore<>()),
+                        new InMemoryPartitionedStore<>(), 10, 2);
+
+        cache.put(partition, new TestRangeKey("n"), "n");
+        Assert.assertEquals(1, store.get(partition).size());
+        cache.put(partition, new TestRangeKey("o"), "o");
+
+        Assert.assertEquals(3, store.get(partition).size());
+        Assert.assertTrue(deltas.getPartition(partition).isEmpty());
+        Assert.assertEquals(3, cache.getValuesInRange(partition, MIN, MAX)
+                            .size());
+    }
+
+    @Test
+    public void testCompactsEvictedPartition() throws Exception {
+        final InMemoryHashStore<TestPartitionKey, Map<TestRangeKey, String>> store
+                = new InMemoryHashStore<>();
+        final InMemoryPartitionedStore<TestPartitionKey, TestRangeKey, String> deltas
+                = new InMemoryPartitionedStore<>();
+        final TestPartitionKey first = new TestPartitionKey("a");
+        final TestPartitionKey second = new TestPartitionKey("b");
+        store.put(first, ImmutableMap.of(new TestRangeKey("m"), "m"));
+        store.put(second, ImmutableMap.of(new TestRangeKey("n"), "n"));
+
+        final UnboundedLocallyRangedCache<TestPartitionKey, TestRangeKey, String> cache
+                = new UnboundedLocallyRangedCache<>(
+                        store, deltas, new Cache<>(new InMemoryHashStore<>()),
+                        new InMemoryPartitionedStore<>(), 1);
+
+        cache.getValuesInRange(first, MIN, MAX);
+        cache.put(first, new TestRangeKey("o"), "o");
+        Assert.assertEquals(1, store.get(first).size());
+        cache.getValuesInRange(second, MIN, MAX);
+
+        Assert.assertEquals(2, store.get(first).size());
+        Assert.assertTrue(deltas.getPartition(first).isEmpty());
+    }
+
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright 2020 Public Transit Analytics.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bitvantage.bitvantagecaching.disk;
+
+import com.bitvantage.bitvantagecaching.StringSerializer;
+import com.bitvantage.bitvantagecaching.testhelpers.TestPartitionKey;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.io.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Stream;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ *
+ * @author Public Transit Analytics
+ */
+public class FlatFileStoreTest {
+
+    private static final FileManager<TestPartitionKey> FILE_MANAGER
+            = new FileManager<TestPartitionKey>() {
+        @Override
+        public String getName(final TestPartitionKey key) {
+            return key.getValue();
+        }
+
+        @Override
+        public TestPartitionKey getKey(final String name) {
+            return new TestPartitionKey(name);
+        }
+    };
+
+    @Test
+    public void testNewStoreIsEmpty() throws Exception {
+        final FlatFileStore<TestPartitionKey, String> store
+                = new FlatFileStore<>(Files.createTempDir().toPath(),
+                                      FILE_MANAGER, new StringSerializer());
+
+        Assert.assertTrue(store.isEmpty());
+        store.put(new TestPartitionKey("a"), "a");
+        Assert.assertFalse(store.isEmpty());
+    }
+
+    @Test
+    public void testGetsAllParallelPuts() throws Exception {
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            final FlatFileStore<TestPartitionKey, String> store
+                    = new FlatFileStore<>(Files.createTempDir().toPath(),
+                                          FILE_MANAGER, new StringSerializer(),
+                                          executor);
+            final ImmutableMap.Builder<TestPartitionKey, String> builder
+                    = ImmutableMap.builder();
+            for (int i = 0; i < 100; i++) {
+                builder.put(new TestPartitionKey(Integer.toString(i)),
+                            "value" + i);
+            }
+            final Map<TestPartitionKey, String> entries = builder.build();
+            store.putAll(entries);
+            store.delete(new TestPartitionKey("0"));
+
+            final Map<TestPartitionKey, String> all = store.getAll();
+            Assert.assertEquals(99, all.size());
+            Assert.assertEquals("value42", all.get(new TestPartitionKey("42")));
+            Assert.assertFalse(all.containsKey(new TestPartitionKey("0")));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testOverwriteLeavesNoTemporaryFiles() throws Exception {
+        final Path directory = Files.createTempDir().toPath();
+        final FlatFileStore<TestPartitionKey, String> store
+                = new FlatFileStore<>(directory, FILE_MANAGER,
+                                      new StringSerializer(), null,
+                                      FileSync.group(2));
+        for (int i = 0; i < 5; i++) {
+            store.put(new TestPartitionKey("a"), "value" + i);
+        }
+
+        Assert.assertEquals("value4", store.get(new TestPartitionKey("a")));
+        try (final Stream<Path> files = java.nio.file.Files.list(directory)) {
+            Assert.assertEquals(1, files.count());
+        }
+    }
+
+    @Test
+    public void testMigratesFlatDirectoryToShards() throws Exception {
+        final Path directory = Files.createTempDir().toPath();
+        final FlatFileStore<TestPartitionKey, String> flat
+                = new FlatFileStore<>(directory, FILE_MANAGER,
+                                      new StringSerializer());
+        for (int i = 0; i < 50; i++) {
+            flat.put(new TestPartitionKey(Integer.toString(i)), "value" + i);
+        }
+
+        final FileLayout layout = FileLayout.sharded(2, 16);
+        final Path target = Files.createTempDir().toPath();
+        FileLayout.migrate(directory, FileLayout.flat(), target, layout);
+
+        final FlatFileStore<TestPartitionKey, String> sharded
+                = new FlatFileStore<>(target, FILE_MANAGER,
+                                      new StringSerializer(), null,
+                                      FileSync.none(), layout);
+        Assert.assertEquals(50, sharded.getAll().size());
+        Assert.assertEquals("value7", sharded.get(new TestPartitionKey("7")));
+        Assert.assertTrue(flat.isEmpty());
+        Assert.assertEquals(3, target.relativize(layout.resolve(
+                target, "7")).getNameCount());
+    }
+
+    @Test
+    public void testMappedReadSeesOverwrite() throws Exception {
+        final FlatFileStore<TestPartitionKey, String> store
+                = new FlatFileStore<>(Files.createTempDir().toPath(),
+                                      FILE_MANAGER, new StringSerializer(),
+                                      null, FileSync.none(),
+                                      FileLayout.flat(),
+                                      new MappedFileCache(4));
+        final TestPartitionKey key = new TestPartitionKey("a");
+        store.put(key, "first");
+        Assert.assertEquals("first", store.get(key));
+        Assert.assertEquals("first", store.get(key));
+
+        store.put(key, "second value");
+        Assert.assertEquals("second value", store.get(key));
+    }
+
+}
@@ -0,0 +1,252 @@
+/*
+ * Copyright 2020 Public Transit Analytics.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bitvantage.bitvantagecaching.disk;
+
+import com.bitvantage.bitvantagecaching.StringSerializer;
+import com.bitvantage.bitvantagecaching.lmdb.KeyManager;
+import com.bitvantage.bitvantagecaching.testhelpers.TestPartitionKey;
+import com.google.common.base.Strings;
+import com.google.common.io.Files;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.stream.Stream;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ *
+ * @author Public Transit Analytics
+ */
+public class LogStructuredStoreTest {
+
+    private static final KeyManager<TestPartitionKey> KEY_MANAGER
+            = new KeyManager<TestPartitionKey>() {
+        @Override
+        public String createKeyString(final TestPartitionKey partition) {
+            return partition.getValue();
+        }
+
+        @Override
+        public TestPartitionKey materialize(final String keyString) {
+            return new TestPartitionKey(keyString);
+        }
+    };
+
+    @Test
+    public void testRecoversIndexAfterReopen() throws Exception {
+        final Path directory = Files.createTempDir().toPath();
+        try (final LogStructuredStore<TestPartitionKey, String> store
+                = getStore(directory)) {
+            for (int i = 0; i < 100; i++) {
+                store.put(new TestPartitionKey(Integer.toString(i % 10)),
+                          "value" + i);
+            }
+            store.delete(new TestPartitionKey("3"));
+        }
+
+        try (final LogStructuredStore<TestPartitionKey, String> store
+                = getStore(directory)) {
+            Assert.assertEquals(9, store.getAll().size());
+            Assert.assertEquals("value97", store.get(new TestPartitionKey("7")));
+            Assert.assertNull(store.get(new TestPartitionKey("3")));
+        }
+    }
+
+    @Test
+    public void testCompactionDropsStaleSegments() throws Exception {
+        final Path directory = Files.createTempDir().toPath();
+        try (final LogStructuredStore<TestPartitionKey, String> store
+                = getStore(directory)) {
+            for (int i = 0; i < 1000; i++) {
+                store.put(new TestPartitionKey(Integer.toString(i % 5)),
+                          "value" + i);
+            }
+            final long before = countSegments(directory);
+            store.compact();
+
+            Assert.assertTrue(countSegments(directory) < before);
+            Assert.assertEquals("value999",
+                                store.get(new TestPartitionKey("4")));
+            Assert.assertEquals(5, store.getAll().size());
+        }
+
+        try (final LogStructuredStore<TestPartitionKey, String> store
+                = getStore(directory)) {
+            Assert.assertEquals("value998",
+                                store.get(new TestPartitionKey("3")));
+        }
+    }
+
+    @Test
+    public void testTruncatesTornRecord() throws Exception {
+        final Path directory = Files.createTempDir().toPath();
+        try (final LogStructuredStore<TestPartitionKey, String> store
+                = getStore(directory)) {
+            store.put(new TestPartitionKey("a"), "first");
+            store.put(new TestPartitionKey("b"), "second");
+        }
+        try (final FileChannel channel = FileChannel.open(
+                directory.resolve("0000000000000000.log"),
+                StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - 2);
+        }
+
+        try (final LogStructuredStore<TestPartitionKey, String> store
+                = getStore(directory)) {
+            Assert.assertEquals("first", store.get(new TestPartitionKey("a")));
+            Assert.assertFalse(store.containsKey(new TestPartitionKey("b")));
+            store.put(new TestPartitionKey("b"), "again");
+            Assert.assertEquals("again", store.get(new TestPartitionKey("b")));
+        }
+    }
+
+    @Test
+    public void testRescansSegmentWithCorruptHints() throws Exception {
+        final Path directory = Files.createTempDir().toPath();
+        try (final LogStructuredStore<TestPartitionKey, String> store
+                = getStore(directory)) {
+            for (int i = 0; i < 100; i++) {
+                store.put(new TestPartitionKey(Integer.toString(i % 10)),
+                          "value" + i);
+            }
+        }
+        final Path hintFile = directory.resolve("0000000000000000.hint");
+        Assert.assertTrue(java.nio.file.Files.exists(hintFile));
+        final byte[] hints = java.nio.file.Files.readAllBytes(hintFile);
+        hints[hints.length / 2] ^= 0xff;
+        java.nio.file.Files.write(hintFile, hints);
+
+        try (final LogStructuredStore<TestPartitionKey, String> store
+                = getStore(directory)) {
+            Assert.assertEquals(10, store.getAll().size());
+            Assert.assertEquals("value99", store.get(new TestPartitionKey("9")));
+        }
+        try (final LogStructuredStore<TestPartitionKey, String> store
+                = getStore(directory)) {
+            Assert.assertEquals("value90", store.get(new TestPartitionKey("0")));
+        }
+    }
+
+    @Test
+    public void testRescansSegmentWithTruncatedHints() throws Exception {
+        final Path directory = Files.createTempDir().toPath();
+        try (final LogStructuredStore<TestPartitionKey, String> store
+                = getStore(directory)) {
+            for (int i = 0; i < 100; i++) {
+                store.put(new TestPartitionKey(Integer.toString(i % 10)),
+                          "value" + i);
+            }
+        }
+        try (final FileChannel channel = FileChannel.open(
+                directory.resolve("0000000000000000.hint"),
+                StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - 3);
+        }
+
+        try (final LogStructuredStore<TestPartitionKey, String> store
+                = getStore(directory)) {
+            Assert.assertEquals(10, store.getAll().size());
+            Assert.assertEquals("value95", store.get(new TestPartitionKey("5")));
+        }
+    }
+
+    @Test
+    public void testKeepsTombstonesOfLongLivedSegmentInPlace()
+            throws Exception {
+        final Path directory = Files.createTempDir().toPath();
+        final Path tombstones = directory.resolve("0000000000000001.log");
+        try (final LogStructuredStore<TestPartitionKey, String> store
+                = getStore(directory)) {
+            for (int i = 0; i < 10; i++) {
+                store.put(new TestPartitionKey(String.format("d%02d", i)),
+                          "v");
+            }
+            store.put(new TestPartitionKey("live"), Strings.repeat("x", 2000));
+            for (int i = 0; i < 10; i++) {
+                store.delete(new TestPartitionKey(String.format("d%02d", i)));
+            }
+            store.put(new TestPartitionKey("filler"), "f");
+            store.put(new TestPartitionKey("pad"), Strings.repeat("p", 100));
+            store.put(new TestPartitionKey("next"), "n");
+
+            store.compact();
+            final long size = java.nio.file.Files.size(tombstones);
+            store.put(new TestPartitionKey("more"),
+                      Strings.repeat("m", 300));
+            store.put(new TestPartitionKey("last"), "l");
+            store.compact();
+
+            Assert.assertEquals(size, java.nio.file.Files.size(tombstones));
+            Assert.assertFalse(store.containsKey(new TestPartitionKey("d03")));
+
+            store.put(new TestPartitionKey("live"), "small");
+            store.compact();
+            store.compact();
+            Assert.assertFalse(java.nio.file.Files.exists(tombstones));
+            Assert.assertFalse(java.nio.file.Files.exists(
+                    directory.resolve("0000000000000000.log")));
+        }
+
+        try (final LogStructuredStore<TestPartitionKey, String> store
+                = getStore(directory)) {
+            Assert.assertFalse(store.containsKey(new TestPartitionKey("d03")));
+            Assert.assertEquals("small",
+                                store.get(new TestPartitionKey("live")));
+            Assert.assertEquals("f", store.get(new TestPartitionKey("filler")));
+        }
+    }
+
+    @Test
+    public void testRecoversWithSyncModes() throws Exception {
+        for (final FileSync sync : new FileSync[]{
+            FileSync.eachWrite(), FileSync.group(4)}) {
+            final Path directory = Files.createTempDir().toPath();
+            try (final LogStructuredStore<TestPartitionKey, String> store
+                    = new LogStructuredStore<>(directory, KEY_MANAGER,
+                                               new StringSerializer(), 256,
+                                               0.5, sync)) {
+                for (int i = 0; i < 100; i++) {
+                    store.put(new TestPartitionKey(Integer.toString(i % 10)),
+                              "value" + i);
+                }
+                store.compact();
+            }
+            sync.sync();
+
+            try (final LogStructuredStore<TestPartitionKey, String> store
+                    = getStore(directory)) {
+                Assert.assertEquals(10, store.getAll().size());
+                Assert.assertEquals("value98",
+                                    store.get(new TestPartitionKey("8")));
+            }
+        }
+    }
+
+    private LogStructuredStore<TestPartitionKey, String> getStore(
+            final Path directory) throws Exception {
+        return new LogStructuredStore<>(directory, KEY_MANAGER,
+                                        new StringSerializer(), 256);
+    }
+
+    private long countSegments(final Path directory) throws Exception {
+        try (final Stream<Path> files = java.nio.file.Files.list(directory)) {
+            return files.filter(file -> file.toString().endsWith(".log"))
+                    .count();
+        }
+    }
+
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright 2020 Public Transit Analytics.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bitvantage.bitvantagecaching.dynamo;
+
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
+import com.amazonaws.services.dynamodbv2.document.TableWriteItems;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.BatchWriteItemRequest;
+import com.amazonaws.services.dynamodbv2.model.BatchWriteItemResult;
+import com.amazonaws.services.dynamodbv2.model.ProvisionedThroughputExceededException;
+import com.amazonaws.services.dynamodbv2.model.PutRequest;
+import com.amazonaws.services.dynamodbv2.model.WriteRequest;
+import com.bitvantage.bitvantagecaching.BitvantageStoreException;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+
+/**
+ *
+ * @author Public Transit Analytics
+ */
+public class BatchWriterTest {
+
+    private static final Map<String, List<WriteRequest>> UNPROCESSED
+            = ImmutableMap.of("table", ImmutableList.of(
+                    new WriteRequest(new PutRequest(ImmutableMap.of(
+                            "key", new AttributeValue("b"))))));
+
+    private AmazonDynamoDB client;
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() {
+        client = Mockito.mock(AmazonDynamoDB.class);
+        executor = Executors.newFixedThreadPool(4);
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdown();
+    }
+
+    @Test
+    public void testRetriesUnprocessedItems() throws Exception {
+        Mockito.when(client.batchWriteItem(
+                Mockito.any(BatchWriteItemRequest.class)))
+                .thenReturn(new BatchWriteItemResult()
+                        .withUnprocessedItems(UNPROCESSED))
+                .thenReturn(new BatchWriteItemResult()
+                        .withUnprocessedItems(ImmutableMap.of()));
+        final BatchWriter writer = new BatchWriter(client, null, 1, 0);
+
+        writer.write(ImmutableList.of(getBatch()));
+
+        final ArgumentCaptor<BatchWriteItemRequest> requests
+                = ArgumentCaptor.forClass(BatchWriteItemRequest.class);
+        Mockito.verify(client, Mockito.times(2))
+                .batchWriteItem(requests.capture());
+        Assert.assertEquals(2, requests.getAllValues().get(0)
+                .getRequestItems().get("table").size());
+        Assert.assertEquals(UNPROCESSED,
+                            requests.getAllValues().get(1).getRequestItems());
+    }
+
+    @Test
+    public void testHalvesLimitOnThrottle() throws Exception {
+        Mockito.when(client.batchWriteItem(
+                Mockito.any(BatchWriteItemRequest.class)))
+                .thenThrow(new ProvisionedThroughputExceededException(
+                        "Throttled"))
+                .thenReturn(new BatchWriteItemResult()
+                        .withUnprocessedItems(UNPROCESSED))
+                .thenReturn(new BatchWriteItemResult()
+                        .withUnprocessedItems(ImmutableMap.of()));
+        final BatchWriter writer = new BatchWriter(client, executor, 8, 0);
+        Assert.assertEquals(8, writer.getLimit());
+
+        writer.write(ImmutableList.of(getBatch()));
+
+        Assert.assertEquals(2, writer.getLimit());
+        Mockito.verify(client, Mockito.times(3))
+                .batchWriteItem(Mockito.any(BatchWriteItemRequest.class));
+    }
+
+    @Test
+    public void testRegrowsLimitAfterSuccess() throws Exception {
+        Mockito.when(client.batchWriteItem(
+                Mockito.any(BatchWriteItemRequest.class)))
+                .thenThrow(new ProvisionedThroughputExceededException(
+                        "Throttled"))
+                .thenReturn(new BatchWriteItemResult()
+                        .withUnprocessedItems(ImmutableMap.of()));
+        final BatchWriter writer = new BatchWriter(client, executor, 2, 0);
+
+        writer.write(ImmutableList.of(getBatch()));
+        Assert.assertEquals(2, writer.getLimit());
+    }
+
+    @Test
+    public void testGivesUpWithoutProgress() throws Exception {
+        Mockito.when(client.batchWriteItem(
+                Mockito.any(BatchWriteItemRequest.class)))
+                .thenReturn(new BatchWriteItemResult()
+                        .withUnprocessedItems(UNPROCESSED));
+        final BatchWriter writer = new BatchWriter(client, executor, 4, 0);
+
+        try {
+            writer.write(ImmutableList.of(getBatch()));
+            Assert.fail();
+        } catch (final BitvantageStoreException e) {
+            Mockito.verify(client, Mockito.times(11))
+                    .batchWriteItem(Mockito.any(BatchWriteItemRequest.class));
+            Assert.assertEquals(1, writer.getLimit());
+        }
+    }
+
+    @Test(expected = BitvantageStoreException.class)
+    public void testGivesUpWhenAlwaysThrottled() throws Exception {
+        Mockito.when(client.batchWriteItem(
+                Mockito.any(BatchWriteItemRequest.class)))
+                .thenThrow(new ProvisionedThroughputExceededException(
+                        "Throttled"));
+        final BatchWriter writer = new BatchWriter(client, null, 1, 0);
+
+        writer.write(ImmutableList.of(getBatch()));
+    }
+
+    private static TableWriteItems getBatch() {
+        return new TableWriteItems("table")
+                .addHashOnlyPrimaryKeyToDelete("key", "a")
+                .addHashOnlyPrimaryKeyToDelete("key", "b");
+    }
+
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright 2020 Public Transit Analytics.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bitvantage.bitvantagecaching.dynamo;
+
+import com.amazonaws.services.dynamodbv2.document.Item;
+import com.bitvantage.bitvantagecaching.testhelpers.TestPartitionKey;
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableSet;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ *
+ * @author Public Transit Analytics
+ */
+public class CompressingDynamoStoreSerializerTest {
+
+    private static final TestPartitionKey KEY = new TestPartitionKey("k");
+
+    private static final DynamoStoreSerializer<TestPartitionKey, String> SERIALIZER
+            = new DynamoStoreSerializer<TestPartitionKey, String>() {
+        @Override
+        public byte[] getPartitionKey(final TestPartitionKey key) {
+            return key.getValue().getBytes(StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public String getPartitionKeyName() {
+            return "key";
+        }
+
+        @Override
+        public Item serialize(final TestPartitionKey partition,
+                              final String value) {
+            return new Item()
+                    .withBinary("key", getPartitionKey(partition))
+                    .withBinary("value", value.getBytes(
+                            StandardCharsets.ISO_8859_1));
+        }
+
+        @Override
+        public String deserializeValue(final Item item) {
+            return new String(item.getBinary("value"),
+                              StandardCharsets.ISO_8859_1);
+        }
+
+        @Override
+        public TestPartitionKey deserializeKey(final Item item) {
+            return new TestPartitionKey(new String(
+                    item.getBinary("key"), StandardCharsets.UTF_8));
+        }
+    };
+
+    @Test
+    public void testCompressesLargeAttribute() throws Exception {
+        final CompressingDynamoStoreSerializer<TestPartitionKey, String> serializer
+                = new CompressingDynamoStoreSerializer<>(SERIALIZER, 64);
+        final String value = Strings.repeat("abcdefgh", 1000);
+
+        final Item item = serializer.serialize(KEY, value);
+        Assert.assertTrue(item.getBinary("value").length < value.length());
+        Assert.assertEquals(ImmutableSet.of("value"), item.getStringSet(
+                CompressingDynamoStoreSerializer.COMPRESSED_ATTRIBUTE));
+        Assert.assertEquals(value, serializer.deserializeValue(item));
+        Assert.assertEquals(KEY, serializer.deserializeKey(item));
+    }
+
+    @Test
+    public void testLeavesSmallAttribute() throws Exception {
+        final CompressingDynamoStoreSerializer<TestPartitionKey, String> serializer
+                = new CompressingDynamoStoreSerializer<>(SERIALIZER, 64);
+
+        final Item item = serializer.serialize(KEY, "short");
+        Assert.assertFalse(item.hasAttribute(
+                CompressingDynamoStoreSerializer.COMPRESSED_ATTRIBUTE));
+        Assert.assertEquals("short", serializer.deserializeValue(item));
+    }
+
+    @Test
+    public void testLeavesIncompressibleAttribute() throws Exception {
+        final CompressingDynamoStoreSerializer<TestPartitionKey, String> serializer
+                = new CompressingDynamoStoreSerializer<>(SERIALIZER, 64);
+        final byte[] random = new byte[4096];
+        new Random(0).nextBytes(random);
+        final String value = new String(random, StandardCharsets.ISO_8859_1);
+
+        final Item item = serializer.serialize(KEY, value);
+        Assert.assertFalse(item.hasAttribute(
+                CompressingDynamoStoreSerializer.COMPRESSED_ATTRIBUTE));
+        Assert.assertArrayEquals(random, item.getBinary("value"));
+        Assert.assertEquals(value, serializer.deserializeValue(item));
+    }
+
+}
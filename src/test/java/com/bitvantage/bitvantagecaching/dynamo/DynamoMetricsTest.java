@@ -0,0 +1,85 @@
+/*
+ * Copyright 2020 Public Transit Analytics.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bitvantage.bitvantagecaching.dynamo;
+
+import com.amazonaws.DefaultRequest;
+import com.amazonaws.Response;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.BatchWriteItemRequest;
+import com.amazonaws.services.dynamodbv2.model.BatchWriteItemResult;
+import com.amazonaws.services.dynamodbv2.model.ConsumedCapacity;
+import com.amazonaws.services.dynamodbv2.model.PutRequest;
+import com.amazonaws.services.dynamodbv2.model.QueryRequest;
+import com.amazonaws.services.dynamodbv2.model.QueryResult;
+import com.amazonaws.services.dynamodbv2.model.ReturnConsumedCapacity;
+import com.amazonaws.services.dynamodbv2.model.WriteRequest;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ *
+ * @author Public Transit Analytics
+ */
+public class DynamoMetricsTest {
+
+    @Test
+    public void testRecordsQueryPages() {
+        final DynamoMetrics metrics = new DynamoMetrics();
+        for (int i = 0; i < 2; i++) {
+            final QueryRequest query = new QueryRequest("table");
+            metrics.beforeExecution(query);
+            Assert.assertEquals(ReturnConsumedCapacity.TOTAL.toString(),
+                                query.getReturnConsumedCapacity());
+            metrics.afterResponse(
+                    new DefaultRequest<>(query, "DynamoDB"),
+                    new Response<>(new QueryResult().withCount(3)
+                            .withConsumedCapacity(new ConsumedCapacity()
+                                    .withTableName("table")
+                                    .withCapacityUnits(1.5)), null));
+        }
+
+        final DynamoOperationStats stats = metrics.getStats().get(
+                new DynamoMetrics.Operation("table", "Query"));
+        Assert.assertEquals(2, stats.getRequests());
+        Assert.assertEquals(2, stats.getPages());
+        Assert.assertEquals(6, stats.getItems());
+        Assert.assertEquals(3.0, stats.getCapacityUnits(), 0);
+    }
+
+    @Test
+    public void testRecordsUnprocessedWrites() {
+        final DynamoMetrics metrics = new DynamoMetrics();
+        final WriteRequest write = new WriteRequest(new PutRequest(
+                ImmutableMap.of("key", new AttributeValue("a"))));
+        final BatchWriteItemRequest batch = new BatchWriteItemRequest(
+                ImmutableMap.of("table", ImmutableList.of(write, write,
+                                                          write)));
+        metrics.beforeExecution(batch);
+        metrics.afterResponse(
+                new DefaultRequest<>(batch, "DynamoDB"),
+                new Response<>(new BatchWriteItemResult().withUnprocessedItems(
+                        ImmutableMap.of("table", ImmutableList.of(write))),
+                               null));
+
+        final DynamoOperationStats stats = metrics.getTableStats("table");
+        Assert.assertEquals(1, stats.getRequests());
+        Assert.assertEquals(2, stats.getItems());
+        Assert.assertEquals(1, stats.getUnprocessed());
+    }
+
+}
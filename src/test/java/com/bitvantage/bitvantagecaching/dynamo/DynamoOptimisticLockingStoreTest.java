@@ -0,0 +1,194 @@
+/*
+ * Copyright 2020 Public Transit Analytics.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bitvantage.bitvantagecaching.dynamo;
+
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.BatchGetItemRequest;
+import com.amazonaws.services.dynamodbv2.model.BatchGetItemResult;
+import com.amazonaws.services.dynamodbv2.model.CancellationReason;
+import com.amazonaws.services.dynamodbv2.model.KeysAndAttributes;
+import com.amazonaws.services.dynamodbv2.model.Put;
+import com.amazonaws.services.dynamodbv2.model.TransactWriteItem;
+import com.amazonaws.services.dynamodbv2.model.TransactWriteItemsRequest;
+import com.amazonaws.services.dynamodbv2.model.TransactWriteItemsResult;
+import com.amazonaws.services.dynamodbv2.model.TransactionCanceledException;
+import com.bitvantage.bitvantagecaching.BitvantageStoreException;
+import com.bitvantage.bitvantagecaching.VersionedWrapper;
+import com.bitvantage.bitvantagecaching.testhelpers.TestDynamoStoreSerializer;
+import com.bitvantage.bitvantagecaching.testhelpers.TestPartitionKey;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+
+/**
+ *
+ * @author Public Transit Analytics
+ */
+public class DynamoOptimisticLockingStoreTest {
+
+    private static final TestPartitionKey A = new TestPartitionKey("a");
+    private static final TestPartitionKey B = new TestPartitionKey("b");
+    private static final TestPartitionKey C = new TestPartitionKey("c");
+
+    private AmazonDynamoDB client;
+    private DynamoOptimisticLockingStore<TestPartitionKey, String> store;
+
+    @Before
+    public void setUp() throws Exception {
+        client = Mockito.mock(AmazonDynamoDB.class);
+        store = new DynamoOptimisticLockingStore<>(
+                client, "table", new VersionedDynamoStoreSerializer<>(
+                        new TestDynamoStoreSerializer()));
+    }
+
+    @Test
+    public void testPutAllOnMatchReturnsWrittenVersions() throws Exception {
+        Mockito.when(client.transactWriteItems(
+                Mockito.any(TransactWriteItemsRequest.class)))
+                .thenReturn(new TransactWriteItemsResult());
+        final UUID match = UUID.randomUUID();
+
+        final PutAllResult<TestPartitionKey> result = store.putAllOnMatch(
+                ImmutableMap.of(A, new VersionedWrapper<>(match, "1"),
+                                B, new VersionedWrapper<>(match, "2")));
+
+        Assert.assertTrue(result.isWritten());
+        Assert.assertEquals(ImmutableSet.of(A, B),
+                            result.getVersions().keySet());
+        final ArgumentCaptor<TransactWriteItemsRequest> request
+                = ArgumentCaptor.forClass(TransactWriteItemsRequest.class);
+        Mockito.verify(client).transactWriteItems(request.capture());
+        for (final TransactWriteItem write
+             : request.getValue().getTransactItems()) {
+            final Put put = write.getPut();
+            final TestPartitionKey key = new TestPartitionKey(new String(
+                    put.getItem().get("key").getB().array(),
+                    StandardCharsets.UTF_8));
+            Assert.assertEquals(
+                    ByteBuffer.wrap(VersionedDynamoStoreSerializer
+                            .getUuidBytes(result.getVersions().get(key))),
+                    put.getItem().get("version").getB());
+            Assert.assertEquals(
+                    ByteBuffer.wrap(VersionedDynamoStoreSerializer
+                            .getUuidBytes(match)),
+                    put.getExpressionAttributeValues().get(":v").getB());
+        }
+    }
+
+    @Test
+    public void testReportsConflictingKeys() throws Exception {
+        Mockito.when(client.transactWriteItems(
+                Mockito.any(TransactWriteItemsRequest.class)))
+                .thenThrow(getCancellation("None", "ConditionalCheckFailed",
+                                           "TransactionConflict"));
+
+        final PutAllResult<TestPartitionKey> result
+                = store.putAllOnMatch(getValues());
+
+        Assert.assertFalse(result.isWritten());
+        Assert.assertEquals(ImmutableSet.of(B, C), result.getFailedKeys());
+        Assert.assertTrue(result.getVersions().isEmpty());
+    }
+
+    @Test(expected = BitvantageStoreException.class)
+    public void testRethrowsOtherCancellations() throws Exception {
+        Mockito.when(client.transactWriteItems(
+                Mockito.any(TransactWriteItemsRequest.class)))
+                .thenThrow(getCancellation("None", "ConditionalCheckFailed",
+                                           "ValidationError"));
+
+        store.putAllOnMatch(getValues());
+    }
+
+    @Test
+    public void testGetAllRetriesUnprocessedKeys() throws Exception {
+        final Map<String, AttributeValue> b = getItem("b", "2");
+        Mockito.when(client.batchGetItem(
+                Mockito.any(BatchGetItemRequest.class)))
+                .thenReturn(new BatchGetItemResult()
+                        .withResponses(ImmutableMap.of(
+                                "table", ImmutableList.of(getItem("a", "1"))))
+                        .withUnprocessedKeys(ImmutableMap.of(
+                                "table", new KeysAndAttributes().withKeys(
+                                        ImmutableMap.of("key", b.get("key"))))))
+                .thenReturn(new BatchGetItemResult()
+                        .withResponses(ImmutableMap.of(
+                                "table", ImmutableList.of(b)))
+                        .withUnprocessedKeys(ImmutableMap.of()));
+
+        final Map<TestPartitionKey, VersionedWrapper<String>> values
+                = store.getAll(ImmutableList.of(A, B, A));
+
+        Assert.assertEquals(ImmutableSet.of(A, B), values.keySet());
+        Assert.assertEquals("1", values.get(A).getValue());
+        Assert.assertEquals("2", values.get(B).getValue());
+        final ArgumentCaptor<BatchGetItemRequest> requests
+                = ArgumentCaptor.forClass(BatchGetItemRequest.class);
+        Mockito.verify(client, Mockito.times(2))
+                .batchGetItem(requests.capture());
+        Assert.assertEquals(2, requests.getAllValues().get(0)
+                .getRequestItems().get("table").getKeys().size());
+        Assert.assertEquals(1, requests.getAllValues().get(1)
+                .getRequestItems().get("table").getKeys().size());
+    }
+
+    private static Map<TestPartitionKey, VersionedWrapper<String>>
+            getValues() {
+        final Map<TestPartitionKey, VersionedWrapper<String>> values
+                = new LinkedHashMap<>();
+        values.put(A, new VersionedWrapper<>(UUID.randomUUID(), "1"));
+        values.put(B, new VersionedWrapper<>(UUID.randomUUID(), "2"));
+        values.put(C, new VersionedWrapper<>(UUID.randomUUID(), "3"));
+        return values;
+    }
+
+    private static TransactionCanceledException getCancellation(
+            final String... codes) {
+        final TransactionCanceledException exception
+                = new TransactionCanceledException("Cancelled");
+        final List<CancellationReason> reasons = new ArrayList<>();
+        for (final String code : codes) {
+            reasons.add(new CancellationReason().withCode(code));
+        }
+        exception.setCancellationReasons(reasons);
+        return exception;
+    }
+
+    private static Map<String, AttributeValue> getItem(final String key,
+                                                       final String value) {
+        return ImmutableMap.of(
+                "key", new AttributeValue().withB(ByteBuffer.wrap(
+                        key.getBytes(StandardCharsets.UTF_8))),
+                "value", new AttributeValue(value),
+                "version", new AttributeValue().withB(ByteBuffer.wrap(
+                        VersionedDynamoStoreSerializer.getUuidBytes(
+                                UUID.randomUUID()))));
+    }
+
+}
@@ -0,0 +1,355 @@
+/*
+ * Copyright 2020 Public Transit Analytics.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bitvantage.bitvantagecaching.dynamo;
+
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
+import com.amazonaws.services.dynamodbv2.document.Item;
+import com.amazonaws.services.dynamodbv2.document.TableWriteItems;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.BatchGetItemRequest;
+import com.amazonaws.services.dynamodbv2.model.BatchGetItemResult;
+import com.amazonaws.services.dynamodbv2.model.GetItemRequest;
+import com.amazonaws.services.dynamodbv2.model.GetItemResult;
+import com.amazonaws.services.dynamodbv2.model.QueryRequest;
+import com.amazonaws.services.dynamodbv2.model.QueryResult;
+import com.bitvantage.bitvantagecaching.testhelpers.TestPartitionKey;
+import com.bitvantage.bitvantagecaching.testhelpers.TestRangeKey;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+import org.junit.Assert;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+
+/**
+ *
+ * @author Public Transit Analytics
+ */
+public class DynamoRangedStoreTest {
+
+    private static final TestPartitionKey PARTITION
+            = new TestPartitionKey("p");
+
+    @Test
+    public void testHeadQueryNamesOnlyHashKey() throws Exception {
+        final AmazonDynamoDB client = getClient();
+        final DynamoRangedStore<TestPartitionKey, TestRangeKey, String> store
+                = new DynamoRangedStore<>(client, "table", getSerializer());
+
+        store.getHeadValues(PARTITION, 5);
+
+        final ArgumentCaptor<QueryRequest> request
+                = ArgumentCaptor.forClass(QueryRequest.class);
+        Mockito.verify(client).query(request.capture());
+        Assert.assertEquals("#h = :h",
+                            request.getValue().getKeyConditionExpression());
+        Assert.assertNull(request.getValue().getProjectionExpression());
+        Assert.assertEquals(ImmutableMap.of("#h", "partition"),
+                            request.getValue().getExpressionAttributeNames());
+        Assert.assertEquals(ImmutableSet.of(":h"),
+                            request.getValue().getExpressionAttributeValues()
+                                    .keySet());
+    }
+
+    @Test
+    public void testProjectedQueryNamesRangeKey() throws Exception {
+        final AmazonDynamoDB client = getClient();
+        final DynamoRangedStoreSerializer<TestPartitionKey, TestRangeKey, String> serializer
+                = getSerializer();
+        Mockito.when(serializer.getValueAttributeNames())
+                .thenReturn(ImmutableSet.of("value"));
+        final DynamoRangedStore<TestPartitionKey, TestRangeKey, String> store
+                = new DynamoRangedStore<>(client, "table", serializer);
+
+        store.getPartition(PARTITION);
+
+        final ArgumentCaptor<QueryRequest> request
+                = ArgumentCaptor.forClass(QueryRequest.class);
+        Mockito.verify(client).query(request.capture());
+        Assert.assertEquals("#h, #r, #a0",
+                            request.getValue().getProjectionExpression());
+        Assert.assertEquals(ImmutableMap.of("#h", "partition",
+                                            "#r", "range",
+                                            "#a0", "value"),
+                            request.getValue().getExpressionAttributeNames());
+    }
+
+    @Test
+    public void testNonPositiveCountSkipsQuery() throws Exception {
+        final AmazonDynamoDB client = getClient();
+        final DynamoRangedStore<TestPartitionKey, TestRangeKey, String> store
+                = new DynamoRangedStore<>(client, "table", getSerializer());
+
+        Assert.assertTrue(store.getHeadValues(PARTITION, 0).isEmpty());
+        Assert.assertTrue(store.getNextValues(
+                PARTITION, new TestRangeKey("b"), -1).isEmpty());
+        Mockito.verifyZeroInteractions(client);
+    }
+
+    @Test
+    public void testPutAllPacksPartitionsIntoFullBatches() throws Exception {
+        final BatchWriter writer = Mockito.mock(BatchWriter.class);
+        final DynamoRangedStore<TestPartitionKey, TestRangeKey, String> store
+                = new DynamoRangedStore<>(getClient(), "table",
+                                          getSerializer(), writer);
+        final Map<TestPartitionKey, Map<TestRangeKey, String>> partitions
+                = new LinkedHashMap<>();
+        for (int i = 0; i < 3; i++) {
+            final Map<TestRangeKey, String> entries = new TreeMap<>();
+            for (int j = 0; j < 20; j++) {
+                entries.put(new TestRangeKey("r" + j), "v" + j);
+            }
+            partitions.put(new TestPartitionKey("p" + i), entries);
+        }
+
+        store.putAll(partitions);
+
+        final ArgumentCaptor<List<TableWriteItems>> batches
+                = ArgumentCaptor.forClass(List.class);
+        Mockito.verify(writer).write(batches.capture());
+        Assert.assertEquals(
+                ImmutableList.of(25, 25, 10),
+                batches.getValue().stream()
+                        .map(batch -> batch.getItemsToPut().size())
+                        .collect(Collectors.toList()));
+    }
+
+    @Test
+    public void testGetAllSplitsAndDeduplicatesBatches() throws Exception {
+        final AmazonDynamoDB client = getClient();
+        final List<Set<List<ByteBuffer>>> requests = new ArrayList<>();
+        Mockito.when(client.batchGetItem(
+                Mockito.any(BatchGetItemRequest.class)))
+                .thenAnswer(invocation -> {
+                    final List<Map<String, AttributeValue>> keys
+                            = ((BatchGetItemRequest) invocation.getArgument(0))
+                                    .getRequestItems().get("table").getKeys();
+                    final Set<List<ByteBuffer>> unique = new HashSet<>();
+                    final List<Map<String, AttributeValue>> items
+                            = new ArrayList<>();
+                    for (final Map<String, AttributeValue> key : keys) {
+                        unique.add(ImmutableList.of(
+                                key.get("partition").getB(),
+                                key.get("range").getB()));
+                        final Map<String, AttributeValue> item
+                                = new HashMap<>(key);
+                        item.put("value", new AttributeValue("v"));
+                        items.add(item);
+                    }
+                    Assert.assertEquals(keys.size(), unique.size());
+                    requests.add(unique);
+                    return new BatchGetItemResult()
+                            .withResponses(ImmutableMap.of("table", items))
+                            .withUnprocessedKeys(ImmutableMap.of());
+                });
+        final DynamoRangedStore<TestPartitionKey, TestRangeKey, String> store
+                = new DynamoRangedStore<>(client, "table", getSerializer());
+        final Map<TestPartitionKey, List<TestRangeKey>> keys
+                = new LinkedHashMap<>();
+        for (int i = 0; i < 2; i++) {
+            final List<TestRangeKey> ranges = new ArrayList<>();
+            for (int j = 0; j < 120; j++) {
+                ranges.add(new TestRangeKey("r" + j));
+                ranges.add(new TestRangeKey("r" + j));
+            }
+            keys.put(new TestPartitionKey("p" + i), ranges);
+        }
+
+        final Map<TestPartitionKey, NavigableMap<TestRangeKey, String>> values
+                = store.getAll(keys);
+
+        Assert.assertEquals(
+                ImmutableList.of(100, 100, 40),
+                requests.stream().map(Set::size)
+                        .collect(Collectors.toList()));
+        Assert.assertEquals(keys.keySet(), values.keySet());
+        for (final NavigableMap<TestRangeKey, String> partition
+             : values.values()) {
+            Assert.assertEquals(120, partition.size());
+            Assert.assertEquals("v", partition.get(new TestRangeKey("r7")));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRejectsNonPositivePageLimit() throws Exception {
+        final DynamoRangedStore<TestPartitionKey, TestRangeKey, String> store
+                = new DynamoRangedStore<>(getClient(), "table",
+                                          getSerializer());
+
+        store.getPage(PARTITION, new TestRangeKey("a"),
+                      new TestRangeKey("z"), null, 0);
+    }
+
+    @Test
+    public void testReadsPagesLazily() throws Exception {
+        final AmazonDynamoDB client = Mockito.mock(AmazonDynamoDB.class);
+        final Map<String, AttributeValue> first = getRangeItem("b");
+        Mockito.when(client.query(Mockito.any(QueryRequest.class)))
+                .thenReturn(new QueryResult()
+                        .withItems(ImmutableList.of(getRangeItem("a"), first))
+                        .withCount(2)
+                        .withLastEvaluatedKey(first))
+                .thenReturn(new QueryResult()
+                        .withItems(ImmutableList.of(getRangeItem("c")))
+                        .withCount(1));
+        final DynamoRangedStore<TestPartitionKey, TestRangeKey, String> store
+                = new DynamoRangedStore<>(client, "table", getSerializer());
+
+        final RangePages<TestRangeKey, String> pages = store.getPages(
+                PARTITION, new TestRangeKey("a"), new TestRangeKey("z"), 2);
+
+        Mockito.verifyZeroInteractions(client);
+        Assert.assertTrue(pages.hasNext());
+        final RangePage<TestRangeKey, String> page = pages.next();
+        Assert.assertEquals(2, page.getValues().size());
+        Assert.assertEquals(new TestRangeKey("b"), page.getContinuation());
+        Mockito.verify(client, Mockito.times(1))
+                .query(Mockito.any(QueryRequest.class));
+        Assert.assertTrue(pages.hasNext());
+        final RangePage<TestRangeKey, String> last = pages.next();
+        Assert.assertEquals(ImmutableSet.of(new TestRangeKey("c")),
+                            last.getValues().keySet());
+        Assert.assertNull(last.getContinuation());
+        Assert.assertFalse(pages.hasNext());
+
+        final ArgumentCaptor<QueryRequest> requests
+                = ArgumentCaptor.forClass(QueryRequest.class);
+        Mockito.verify(client, Mockito.times(2)).query(requests.capture());
+        Assert.assertEquals(Integer.valueOf(2),
+                            requests.getAllValues().get(0).getLimit());
+        Assert.assertEquals(first,
+                            requests.getAllValues().get(1)
+                                    .getExclusiveStartKey());
+    }
+
+    @Test
+    public void testReadsWithSelectedConsistency() throws Exception {
+        final AmazonDynamoDB client = getClient();
+        Mockito.when(client.getItem(Mockito.any(GetItemRequest.class)))
+                .thenReturn(new GetItemResult().withItem(getRangeItem("a")));
+        Mockito.when(client.batchGetItem(
+                Mockito.any(BatchGetItemRequest.class)))
+                .thenReturn(new BatchGetItemResult()
+                        .withResponses(ImmutableMap.of(
+                                "table", ImmutableList.of()))
+                        .withUnprocessedKeys(ImmutableMap.of()));
+        final DynamoRangedStore<TestPartitionKey, TestRangeKey, String> strong
+                = new DynamoRangedStore<>(client, "table", getSerializer());
+        final DynamoRangedStore<TestPartitionKey, TestRangeKey, String> eventual
+                = strong.withReadConsistency(ReadConsistency.EVENTUAL);
+        final TestRangeKey range = new TestRangeKey("a");
+
+        for (final DynamoRangedStore<TestPartitionKey, TestRangeKey, String> store
+             : ImmutableList.of(strong, eventual)) {
+            store.get(PARTITION, range);
+            store.getValuesInRange(PARTITION, range, new TestRangeKey("z"));
+            store.getAll(ImmutableMap.of(PARTITION, ImmutableList.of(range)));
+        }
+
+        final ArgumentCaptor<GetItemRequest> gets
+                = ArgumentCaptor.forClass(GetItemRequest.class);
+        Mockito.verify(client, Mockito.times(2)).getItem(gets.capture());
+        Assert.assertEquals(ImmutableList.of(true, false),
+                            gets.getAllValues().stream()
+                                    .map(GetItemRequest::getConsistentRead)
+                                    .collect(Collectors.toList()));
+        final ArgumentCaptor<QueryRequest> queries
+                = ArgumentCaptor.forClass(QueryRequest.class);
+        Mockito.verify(client, Mockito.times(2)).query(queries.capture());
+        Assert.assertEquals(ImmutableList.of(true, false),
+                            queries.getAllValues().stream()
+                                    .map(QueryRequest::getConsistentRead)
+                                    .collect(Collectors.toList()));
+        final ArgumentCaptor<BatchGetItemRequest> batches
+                = ArgumentCaptor.forClass(BatchGetItemRequest.class);
+        Mockito.verify(client, Mockito.times(2))
+                .batchGetItem(batches.capture());
+        Assert.assertEquals(ImmutableList.of(true, false),
+                            batches.getAllValues().stream()
+                                    .map(request -> request.getRequestItems()
+                                            .get("table").getConsistentRead())
+                                    .collect(Collectors.toList()));
+    }
+
+    private static Map<String, AttributeValue> getRangeItem(
+            final String range) {
+        return ImmutableMap.of(
+                "partition", new AttributeValue().withB(ByteBuffer.wrap(
+                        PARTITION.getValue().getBytes(
+                                StandardCharsets.UTF_8))),
+                "range", new AttributeValue().withB(ByteBuffer.wrap(
+                        range.getBytes(StandardCharsets.UTF_8))),
+                "value", new AttributeValue(range));
+    }
+
+    private static AmazonDynamoDB getClient() {
+        final AmazonDynamoDB client = Mockito.mock(AmazonDynamoDB.class);
+        Mockito.when(client.query(Mockito.any(QueryRequest.class)))
+                .thenReturn(new QueryResult()
+                        .withItems(Collections.emptyList())
+                        .withCount(0));
+        return client;
+    }
+
+    private static DynamoRangedStoreSerializer<TestPartitionKey, TestRangeKey, String>
+            getSerializer() throws Exception {
+        final DynamoRangedStoreSerializer<TestPartitionKey, TestRangeKey, String> serializer
+                = Mockito.mock(DynamoRangedStoreSerializer.class);
+        Mockito.when(serializer.getPartitionKeyName()).thenReturn("partition");
+        Mockito.when(serializer.getRangeKeyName()).thenReturn("range");
+        Mockito.when(serializer.getValueAttributeNames())
+                .thenReturn(ImmutableSet.of());
+        Mockito.when(serializer.getPartitionKey(Mockito.any()))
+                .thenAnswer(invocation -> ((TestPartitionKey) invocation
+                        .getArgument(0)).getValue()
+                        .getBytes(StandardCharsets.UTF_8));
+        Mockito.when(serializer.getRangeKey(Mockito.any()))
+                .thenAnswer(invocation -> ((TestRangeKey) invocation
+                        .getArgument(0)).getValue()
+                        .getBytes(StandardCharsets.UTF_8));
+        Mockito.when(serializer.serialize(Mockito.any(), Mockito.any(),
+                                          Mockito.any()))
+                .thenAnswer(invocation -> new Item()
+                        .withBinary("partition", serializer.getPartitionKey(
+                                invocation.getArgument(0)))
+                        .withBinary("range", serializer.getRangeKey(
+                                invocation.getArgument(1)))
+                        .withString("value", invocation.getArgument(2)));
+        Mockito.when(serializer.deserializeRangeKey(Mockito.any()))
+                .thenAnswer(invocation -> new TestRangeKey(new String(
+                        ((Item) invocation.getArgument(0)).getBinary("range"),
+                        StandardCharsets.UTF_8)));
+        Mockito.when(serializer.deserializeValue(Mockito.any()))
+                .thenAnswer(invocation -> ((Item) invocation.getArgument(0))
+                        .getString("value"));
+        return serializer;
+    }
+
+}
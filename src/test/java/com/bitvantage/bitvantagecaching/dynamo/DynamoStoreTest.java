@@ -0,0 +1,234 @@
+/*
+ * Copyright 2020 Public Transit Analytics.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bitvantage.bitvantagecaching.dynamo;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
+import com.amazonaws.services.dynamodbv2.document.TableWriteItems;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.BatchGetItemRequest;
+import com.amazonaws.services.dynamodbv2.model.GetItemRequest;
+import com.amazonaws.services.dynamodbv2.model.GetItemResult;
+import com.amazonaws.services.dynamodbv2.model.PutItemRequest;
+import com.amazonaws.services.dynamodbv2.model.PutItemResult;
+import com.amazonaws.services.dynamodbv2.model.ScanRequest;
+import com.amazonaws.services.dynamodbv2.model.ScanResult;
+import com.bitvantage.bitvantagecaching.BitvantageStoreException;
+import com.bitvantage.bitvantagecaching.testhelpers.TestDynamoStoreSerializer;
+import com.bitvantage.bitvantagecaching.testhelpers.TestPartitionKey;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+
+/**
+ *
+ * @author Public Transit Analytics
+ */
+public class DynamoStoreTest {
+
+    private static final Map<TestPartitionKey, String> VALUES
+            = ImmutableMap.of(new TestPartitionKey("a"), "1",
+                              new TestPartitionKey("b"), "2",
+                              new TestPartitionKey("c"), "3");
+
+    private AmazonDynamoDB client;
+    private BatchWriter writer;
+
+    @Before
+    public void setUp() throws Exception {
+        client = Mockito.mock(AmazonDynamoDB.class);
+        writer = Mockito.mock(BatchWriter.class);
+        Mockito.when(client.putItem(Mockito.any(PutItemRequest.class)))
+                .thenReturn(new PutItemResult());
+    }
+
+    @Test
+    public void testPutAllBatchesWithoutChunking() throws Exception {
+        getStore(false).putAll(VALUES);
+
+        final ArgumentCaptor<List<TableWriteItems>> batches
+                = ArgumentCaptor.forClass(List.class);
+        Mockito.verify(writer).write(batches.capture());
+        Assert.assertEquals(3, batches.getValue().iterator().next()
+                .getItemsToPut().size());
+        Mockito.verify(client, Mockito.never())
+                .batchGetItem(Mockito.any(BatchGetItemRequest.class));
+        Mockito.verify(client, Mockito.never())
+                .putItem(Mockito.any(PutItemRequest.class));
+    }
+
+    @Test
+    public void testPutWithoutChunkingIsUnconditional() throws Exception {
+        getStore(false).put(new TestPartitionKey("a"), "1");
+
+        final ArgumentCaptor<PutItemRequest> request
+                = ArgumentCaptor.forClass(PutItemRequest.class);
+        Mockito.verify(client).putItem(request.capture());
+        Assert.assertNull(request.getValue().getConditionExpression());
+        Assert.assertNull(request.getValue().getReturnValues());
+    }
+
+    @Test
+    public void testPutAllWithChunkingPutsConditionally() throws Exception {
+        getStore(true).putAll(VALUES);
+
+        final ArgumentCaptor<PutItemRequest> requests
+                = ArgumentCaptor.forClass(PutItemRequest.class);
+        Mockito.verify(client, Mockito.times(3)).putItem(requests.capture());
+        for (final PutItemRequest request : requests.getAllValues()) {
+            Assert.assertEquals("attribute_not_exists(#c)",
+                                request.getConditionExpression());
+            Assert.assertNull(request.getReturnValues());
+        }
+        Mockito.verify(client, Mockito.never())
+                .batchGetItem(Mockito.any(BatchGetItemRequest.class));
+        Mockito.verify(writer, Mockito.never()).write(Mockito.any());
+    }
+
+    @Test
+    public void testResumesScanFromCheckpoint() throws Exception {
+        final Map<String, AttributeValue> first = getItem("a", "1");
+        Mockito.when(client.scan(Mockito.any(ScanRequest.class)))
+                .thenReturn(new ScanResult()
+                        .withItems(ImmutableList.of(first))
+                        .withLastEvaluatedKey(getKey(first)))
+                .thenThrow(new AmazonClientException("Failed") {
+                    @Override
+                    public boolean isRetryable() {
+                        return false;
+                    }
+                })
+                .thenReturn(new ScanResult()
+                        .withItems(ImmutableList.of(getItem("b", "2"))));
+        final DynamoStore<TestPartitionKey, String> store = getStore(false);
+        final ScanCheckpoint checkpoint = new ScanCheckpoint(1);
+        final Map<TestPartitionKey, String> entries = new HashMap<>();
+
+        try {
+            store.scan(checkpoint, entries::put);
+            Assert.fail();
+        } catch (final BitvantageStoreException e) {
+            Assert.assertFalse(checkpoint.isComplete());
+        }
+        Assert.assertEquals(ImmutableMap.of(new TestPartitionKey("a"), "1"),
+                            entries);
+        store.scan(checkpoint, entries::put);
+
+        Assert.assertTrue(checkpoint.isComplete());
+        Assert.assertEquals(ImmutableMap.of(new TestPartitionKey("a"), "1",
+                                            new TestPartitionKey("b"), "2"),
+                            entries);
+        final ArgumentCaptor<ScanRequest> requests
+                = ArgumentCaptor.forClass(ScanRequest.class);
+        Mockito.verify(client, Mockito.times(3)).scan(requests.capture());
+        Assert.assertNull(requests.getAllValues().get(0)
+                .getExclusiveStartKey());
+        Assert.assertEquals(getKey(first), requests.getAllValues().get(1)
+                .getExclusiveStartKey());
+        Assert.assertEquals(getKey(first), requests.getAllValues().get(2)
+                .getExclusiveStartKey());
+    }
+
+    @Test
+    public void testRetriesRetryableScanFailure() throws Exception {
+        Mockito.when(client.scan(Mockito.any(ScanRequest.class)))
+                .thenThrow(new AmazonClientException("Throttled"))
+                .thenReturn(new ScanResult()
+                        .withItems(ImmutableList.of(getItem("a", "1"))));
+        final ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            final DynamoStore<TestPartitionKey, String> store
+                    = new DynamoStore<>(client, "table",
+                                        new TestDynamoStoreSerializer(),
+                                        executor, 1, writer);
+
+            Assert.assertEquals(
+                    ImmutableMap.of(new TestPartitionKey("a"), "1"),
+                    store.getAll());
+            Mockito.verify(client, Mockito.times(2))
+                    .scan(Mockito.any(ScanRequest.class));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testReadsWithSelectedConsistency() throws Exception {
+        Mockito.when(client.getItem(Mockito.any(GetItemRequest.class)))
+                .thenReturn(new GetItemResult());
+        Mockito.when(client.scan(Mockito.any(ScanRequest.class)))
+                .thenReturn(new ScanResult()
+                        .withItems(ImmutableList.of()));
+        final DynamoStore<TestPartitionKey, String> strong = getStore(false);
+        final DynamoStore<TestPartitionKey, String> eventual
+                = strong.withReadConsistency(ReadConsistency.EVENTUAL);
+
+        strong.get(new TestPartitionKey("a"));
+        eventual.get(new TestPartitionKey("a"));
+        strong.getAll();
+        eventual.getAll();
+        strong.scan(new ScanCheckpoint(1), (key, value) -> {});
+        eventual.scan(new ScanCheckpoint(1), (key, value) -> {});
+
+        final ArgumentCaptor<GetItemRequest> gets
+                = ArgumentCaptor.forClass(GetItemRequest.class);
+        Mockito.verify(client, Mockito.times(2)).getItem(gets.capture());
+        Assert.assertEquals(ImmutableList.of(true, false),
+                            gets.getAllValues().stream()
+                                    .map(GetItemRequest::getConsistentRead)
+                                    .collect(Collectors.toList()));
+        final ArgumentCaptor<ScanRequest> scans
+                = ArgumentCaptor.forClass(ScanRequest.class);
+        Mockito.verify(client, Mockito.times(4)).scan(scans.capture());
+        Assert.assertEquals(ImmutableList.of(true, false, true, false),
+                            scans.getAllValues().stream()
+                                    .map(ScanRequest::getConsistentRead)
+                                    .collect(Collectors.toList()));
+    }
+
+    private static Map<String, AttributeValue> getItem(final String key,
+                                                       final String value) {
+        return ImmutableMap.of(
+                "key", new AttributeValue().withB(ByteBuffer.wrap(
+                        key.getBytes(StandardCharsets.UTF_8))),
+                "value", new AttributeValue(value));
+    }
+
+    private static Map<String, AttributeValue> getKey(
+            final Map<String, AttributeValue> item) {
+        return ImmutableMap.of("key", item.get("key"));
+    }
+
+    private DynamoStore<TestPartitionKey, String> getStore(
+            final boolean chunking) throws Exception {
+        return new DynamoStore<>(client, "table",
+                                 new TestDynamoStoreSerializer(), null, 1,
+                                 writer, ReadConsistency.STRONG, chunking);
+    }
+
+}
@@ -0,0 +1,304 @@
+/*
+ * Copyright 2020 Public Transit Analytics.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bitvantage.bitvantagecaching.dynamo;
+
+import com.amazonaws.services.dynamodbv2.document.BatchGetItemOutcome;
+import com.amazonaws.services.dynamodbv2.document.DeleteItemOutcome;
+import com.amazonaws.services.dynamodbv2.document.DynamoDB;
+import com.amazonaws.services.dynamodbv2.document.Item;
+import com.amazonaws.services.dynamodbv2.document.PrimaryKey;
+import com.amazonaws.services.dynamodbv2.document.PutItemOutcome;
+import com.amazonaws.services.dynamodbv2.document.Table;
+import com.amazonaws.services.dynamodbv2.document.TableKeysAndAttributes;
+import com.amazonaws.services.dynamodbv2.document.TableWriteItems;
+import com.amazonaws.services.dynamodbv2.document.spec.DeleteItemSpec;
+import com.amazonaws.services.dynamodbv2.document.spec.GetItemSpec;
+import com.amazonaws.services.dynamodbv2.document.spec.PutItemSpec;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.ConditionalCheckFailedException;
+import com.amazonaws.services.dynamodbv2.model.KeysAndAttributes;
+import com.bitvantage.bitvantagecaching.BitvantageStoreException;
+import com.google.common.collect.ImmutableMap;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+/**
+ *
+ * @author Public Transit Analytics
+ */
+public class ItemChunkerTest {
+
+    private static final String KEY_NAME = "key";
+    private static final byte[] KEY = "k".getBytes(StandardCharsets.UTF_8);
+
+    private DynamoDB dynamo;
+    private Table table;
+    private BatchWriter writer;
+    private Map<ByteBuffer, Item> stored;
+    private List<Item> heads;
+    private Item current;
+    private int unconditionalWrites;
+    private ItemChunker chunker;
+
+    @Before
+    public void setUp() throws Exception {
+        dynamo = Mockito.mock(DynamoDB.class);
+        table = Mockito.mock(Table.class);
+        writer = Mockito.mock(BatchWriter.class);
+        stored = new HashMap<>();
+        heads = new ArrayList<>();
+        Mockito.when(table.getTableName()).thenReturn("table");
+        Mockito.doAnswer(invocation -> {
+            final Collection<TableWriteItems> batches
+                    = invocation.getArgument(0);
+            for (final TableWriteItems batch : batches) {
+                if (batch.getItemsToPut() != null) {
+                    for (final Item item : batch.getItemsToPut()) {
+                        stored.put(ByteBuffer.wrap(item.getBinary(KEY_NAME)),
+                                   item);
+                    }
+                }
+                if (batch.getPrimaryKeysToDelete() != null) {
+                    for (final PrimaryKey key
+                                 : batch.getPrimaryKeysToDelete()) {
+                        stored.remove(ByteBuffer.wrap((byte[]) key
+                                .getComponents().iterator().next()
+                                .getValue()));
+                    }
+                }
+            }
+            return null;
+        }).when(writer).write(Mockito.any());
+        Mockito.when(table.putItem(Mockito.any(PutItemSpec.class)))
+                .thenAnswer(invocation -> {
+                    final PutItemSpec spec = invocation.getArgument(0);
+                    final Item old = write(spec.getConditionExpression());
+                    current = spec.getItem();
+                    heads.add(current);
+                    final PutItemOutcome outcome
+                            = Mockito.mock(PutItemOutcome.class);
+                    if (spec.getReturnValues() != null) {
+                        Mockito.when(outcome.getItem()).thenReturn(old);
+                    }
+                    return outcome;
+                });
+        Mockito.when(table.deleteItem(Mockito.any(DeleteItemSpec.class)))
+                .thenAnswer(invocation -> {
+                    final DeleteItemSpec spec = invocation.getArgument(0);
+                    final Item old = write(spec.getConditionExpression());
+                    current = null;
+                    final DeleteItemOutcome outcome
+                            = Mockito.mock(DeleteItemOutcome.class);
+                    if (spec.getReturnValues() != null) {
+                        Mockito.when(outcome.getItem()).thenReturn(old);
+                    }
+                    return outcome;
+                });
+        Mockito.when(dynamo.batchGetItem(
+                Mockito.any(TableKeysAndAttributes.class)))
+                .thenAnswer(invocation -> getOutcome(
+                        ((TableKeysAndAttributes) invocation.getArgument(0))
+                                .getPrimaryKeys()));
+        chunker = new ItemChunker(dynamo, table, KEY_NAME, writer);
+    }
+
+    @Test
+    public void testSplitsAndReassembles() throws Exception {
+        final byte[] value = getRandomBytes(3 * ItemChunker.CHUNK_BYTES + 7);
+        chunker.put(new Item().withBinary(KEY_NAME, KEY)
+                .withBinary("value", value).withString("label", "small"));
+
+        Assert.assertEquals(4, stored.size());
+        final Item head = heads.get(0);
+        Assert.assertFalse(head.hasAttribute("value"));
+        Assert.assertTrue(ItemChunker.getSize(head)
+                                  < ItemChunker.MAX_ITEM_BYTES);
+        for (final Item chunk : stored.values()) {
+            Assert.assertTrue(chunker.isChunk(chunk));
+        }
+
+        final Item assembled = chunker.assemble(head);
+        Assert.assertArrayEquals(value, assembled.getBinary("value"));
+        Assert.assertEquals("small", assembled.getString("label"));
+        Assert.assertArrayEquals(KEY, assembled.getBinary(KEY_NAME));
+        Assert.assertFalse(assembled.hasAttribute("chunks"));
+    }
+
+    @Test
+    public void testLeavesSmallItemsWhole() throws Exception {
+        final Item item = new Item().withBinary(KEY_NAME, KEY)
+                .withBinary("value", getRandomBytes(100));
+        chunker.put(item);
+
+        Assert.assertTrue(stored.isEmpty());
+        Assert.assertSame(item, heads.get(0));
+        Assert.assertSame(item, chunker.assemble(item));
+    }
+
+    @Test
+    public void testRereadsReplacedItem() throws Exception {
+        final byte[] oldValue = getRandomBytes(ItemChunker.MAX_ITEM_BYTES + 1);
+        final byte[] newValue = getRandomBytes(ItemChunker.MAX_ITEM_BYTES + 2);
+        chunker.put(new Item().withBinary(KEY_NAME, KEY)
+                .withBinary("value", oldValue));
+        final Map<ByteBuffer, Item> oldChunks = new HashMap<>(stored);
+        chunker.put(new Item().withBinary(KEY_NAME, KEY)
+                .withBinary("value", newValue));
+        stored.keySet().removeAll(oldChunks.keySet());
+        Mockito.when(table.getItem(Mockito.any(GetItemSpec.class)))
+                .thenReturn(heads.get(1));
+
+        final Item assembled = chunker.assemble(heads.get(0));
+        Assert.assertArrayEquals(newValue, assembled.getBinary("value"));
+    }
+
+    @Test
+    public void testReturnsNullForDeletedItem() throws Exception {
+        chunker.put(new Item().withBinary(KEY_NAME, KEY).withBinary(
+                "value", getRandomBytes(ItemChunker.MAX_ITEM_BYTES + 1)));
+        stored.clear();
+
+        Assert.assertNull(chunker.assemble(heads.get(0)));
+    }
+
+    @Test(expected = BitvantageStoreException.class)
+    public void testFailsOnMissingChunkOfCurrentItem() throws Exception {
+        chunker.put(new Item().withBinary(KEY_NAME, KEY).withBinary(
+                "value", getRandomBytes(ItemChunker.MAX_ITEM_BYTES + 1)));
+        stored.clear();
+        Mockito.when(table.getItem(Mockito.any(GetItemSpec.class)))
+                .thenReturn(heads.get(0));
+
+        chunker.assemble(heads.get(0));
+    }
+
+    @Test
+    public void testRetriesUnprocessedChunks() throws Exception {
+        final byte[] value = getRandomBytes(2 * ItemChunker.CHUNK_BYTES);
+        chunker.put(new Item().withBinary(KEY_NAME, KEY)
+                .withBinary("value", value));
+        final List<Item> chunks = new ArrayList<>(stored.values());
+        final Map<String, KeysAndAttributes> unprocessed = ImmutableMap.of(
+                "table", new KeysAndAttributes().withKeys(ImmutableMap.of(
+                        KEY_NAME, new AttributeValue().withB(ByteBuffer.wrap(
+                                chunks.get(1).getBinary(KEY_NAME))))));
+        final BatchGetItemOutcome partial = getOutcome(
+                chunks.subList(0, 1), unprocessed);
+        final BatchGetItemOutcome rest = getOutcome(
+                chunks.subList(1, 2), null);
+        Mockito.when(dynamo.batchGetItem(
+                Mockito.any(TableKeysAndAttributes.class)))
+                .thenReturn(partial);
+        Mockito.when(dynamo.batchGetItemUnprocessed(unprocessed))
+                .thenReturn(rest);
+
+        final Item assembled = chunker.assemble(heads.get(0));
+        Assert.assertArrayEquals(value, assembled.getBinary("value"));
+        Mockito.verify(dynamo).batchGetItemUnprocessed(unprocessed);
+    }
+
+    @Test
+    public void testDeletesChunksOfReplacedItem() throws Exception {
+        chunker.put(new Item().withBinary(KEY_NAME, KEY).withBinary(
+                "value", getRandomBytes(ItemChunker.MAX_ITEM_BYTES + 1)));
+        Assert.assertFalse(stored.isEmpty());
+        final Item item = new Item().withBinary(KEY_NAME, KEY)
+                .withBinary("value", getRandomBytes(100));
+        chunker.put(item);
+
+        Assert.assertTrue(stored.isEmpty());
+        Assert.assertSame(item, current);
+        Assert.assertEquals(1, unconditionalWrites);
+    }
+
+    @Test
+    public void testReplacesUnchunkedItemWithoutReturningIt()
+            throws Exception {
+        chunker.put(new Item().withBinary(KEY_NAME, KEY)
+                .withBinary("value", getRandomBytes(100)));
+        chunker.put(new Item().withBinary(KEY_NAME, KEY).withBinary(
+                "value", getRandomBytes(ItemChunker.MAX_ITEM_BYTES + 1)));
+
+        Assert.assertEquals(0, unconditionalWrites);
+        Assert.assertEquals(2, heads.size());
+    }
+
+    @Test
+    public void testDeletesItemWithChunks() throws Exception {
+        chunker.put(new Item().withBinary(KEY_NAME, KEY).withBinary(
+                "value", getRandomBytes(ItemChunker.MAX_ITEM_BYTES + 1)));
+        chunker.delete(KEY);
+
+        Assert.assertTrue(stored.isEmpty());
+        Assert.assertNull(current);
+        Assert.assertEquals(1, unconditionalWrites);
+    }
+
+    /**
+     * Check a write against the condition, as DynamoDB would.
+     *
+     * @return The item the write replaces.
+     */
+    private Item write(final String condition) {
+        if (condition == null) {
+            unconditionalWrites++;
+        } else if (current != null && current.hasAttribute("chunks")) {
+            throw new ConditionalCheckFailedException("chunked");
+        }
+        return current;
+    }
+
+    private BatchGetItemOutcome getOutcome(final Collection<PrimaryKey> keys) {
+        final List<Item> items = new ArrayList<>();
+        for (final PrimaryKey key : keys) {
+            final Item item = stored.get(ByteBuffer.wrap(
+                    (byte[]) key.getComponents().iterator().next()
+                            .getValue()));
+            if (item != null) {
+                items.add(item);
+            }
+        }
+        return getOutcome(items, null);
+    }
+
+    private static BatchGetItemOutcome getOutcome(
+            final List<Item> items,
+            final Map<String, KeysAndAttributes> unprocessed) {
+        final BatchGetItemOutcome outcome
+                = Mockito.mock(BatchGetItemOutcome.class);
+        Mockito.when(outcome.getTableItems()).thenReturn(
+                ImmutableMap.of("table", new ArrayList<>(items)));
+        Mockito.when(outcome.getUnprocessedKeys()).thenReturn(unprocessed);
+        return outcome;
+    }
+
+    private static byte[] getRandomBytes(final int length) {
+        final byte[] bytes = new byte[length];
+        new Random(length).nextBytes(bytes);
+        return bytes;
+    }
+
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright 2020 Public Transit Analytics.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bitvantage.bitvantagecaching.dynamo;
+
+import com.bitvantage.bitvantagecaching.VersionedWrapper;
+import com.bitvantage.bitvantagecaching.testhelpers.TestPartitionKey;
+import java.time.Duration;
+import java.util.Optional;
+import java.util.UUID;
+import org.junit.Assert;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+/**
+ *
+ * @author Public Transit Analytics
+ */
+public class NearCachedOptimisticLockingStoreTest {
+
+    private static final TestPartitionKey KEY = new TestPartitionKey("a");
+
+    @Test
+    public void testRevalidatesByVersion() throws Exception {
+        final DynamoOptimisticLockingStore<TestPartitionKey, String> store
+                = Mockito.mock(DynamoOptimisticLockingStore.class);
+        final UUID version = UUID.randomUUID();
+        Mockito.when(store.get(KEY)).thenReturn(
+                new VersionedWrapper<>(version, "value"));
+        Mockito.when(store.getVersion(KEY)).thenReturn(version);
+        final NearCachedOptimisticLockingStore<TestPartitionKey, String> cache
+                = new NearCachedOptimisticLockingStore<>(
+                        store, 10, Duration.ZERO, true);
+
+        Assert.assertEquals("value", cache.get(KEY).getValue());
+        Assert.assertEquals("value", cache.get(KEY).getValue());
+        Mockito.verify(store, Mockito.times(1)).get(KEY);
+        Mockito.verify(store, Mockito.times(1)).getVersion(KEY);
+    }
+
+    @Test
+    public void testRereadsChangedVersion() throws Exception {
+        final DynamoOptimisticLockingStore<TestPartitionKey, String> store
+                = Mockito.mock(DynamoOptimisticLockingStore.class);
+        final UUID newVersion = UUID.randomUUID();
+        Mockito.when(store.get(KEY)).thenReturn(
+                new VersionedWrapper<>(UUID.randomUUID(), "old"),
+                new VersionedWrapper<>(newVersion, "new"));
+        Mockito.when(store.getVersion(KEY)).thenReturn(newVersion);
+        final NearCachedOptimisticLockingStore<TestPartitionKey, String> cache
+                = new NearCachedOptimisticLockingStore<>(
+                        store, 10, Duration.ZERO, true);
+
+        Assert.assertEquals("old", cache.get(KEY).getValue());
+        Assert.assertEquals("new", cache.get(KEY).getValue());
+    }
+
+    @Test
+    public void testCachesWrittenVersion() throws Exception {
+        final DynamoOptimisticLockingStore<TestPartitionKey, String> store
+                = Mockito.mock(DynamoOptimisticLockingStore.class);
+        final UUID match = UUID.randomUUID();
+        Mockito.when(store.putOnMatch(Mockito.eq(KEY), Mockito.eq("value"),
+                                      Mockito.eq(match), Mockito.any()))
+                .thenReturn(Optional.of("old"));
+        final NearCachedOptimisticLockingStore<TestPartitionKey, String> cache
+                = new NearCachedOptimisticLockingStore<>(
+                        store, 10, Duration.ofMinutes(1), false);
+
+        Assert.assertEquals(Optional.of("old"),
+                            cache.putOnMatch(KEY, "value", match));
+        Assert.assertEquals("value", cache.get(KEY).getValue());
+        Mockito.verify(store, Mockito.never()).get(KEY);
+    }
+
+    @Test
+    public void testReadDoesNotOverwriteConcurrentWrite() throws Exception {
+        final DynamoOptimisticLockingStore<TestPartitionKey, String> store
+                = Mockito.mock(DynamoOptimisticLockingStore.class);
+        final NearCachedOptimisticLockingStore<TestPartitionKey, String> cache
+                = new NearCachedOptimisticLockingStore<>(
+                        store, 10, Duration.ofMinutes(1), false);
+        Mockito.when(store.get(KEY)).thenAnswer(invocation -> {
+            cache.put(KEY, "written");
+            return new VersionedWrapper<>(UUID.randomUUID(), "read");
+        });
+
+        Assert.assertEquals("read", cache.get(KEY).getValue());
+        Assert.assertEquals("written", cache.get(KEY).getValue());
+        Mockito.verify(store, Mockito.times(1)).get(KEY);
+    }
+
+    @Test
+    public void testMissingReadDoesNotRemoveConcurrentWrite()
+            throws Exception {
+        final DynamoOptimisticLockingStore<TestPartitionKey, String> store
+                = Mockito.mock(DynamoOptimisticLockingStore.class);
+        final NearCachedOptimisticLockingStore<TestPartitionKey, String> cache
+                = new NearCachedOptimisticLockingStore<>(
+                        store, 10, Duration.ofMinutes(1), false);
+        Mockito.when(store.get(KEY)).thenAnswer(invocation -> {
+            cache.put(KEY, "written");
+            return null;
+        });
+
+        Assert.assertNull(cache.get(KEY));
+        Assert.assertEquals("written", cache.get(KEY).getValue());
+        Mockito.verify(store, Mockito.times(1)).get(KEY);
+    }
+
+}
@@ -0,0 +1,205 @@
+/*
+ * Copyright 2020 Public Transit Analytics.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bitvantage.bitvantagecaching.dynamo;
+
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.PutItemRequest;
+import com.amazonaws.services.dynamodbv2.model.PutItemResult;
+import com.amazonaws.services.dynamodbv2.model.QueryRequest;
+import com.amazonaws.services.dynamodbv2.model.QueryResult;
+import com.bitvantage.bitvantagecaching.testhelpers.TestDynamoRangedStoreSerializer;
+import com.bitvantage.bitvantagecaching.testhelpers.TestPartitionKey;
+import com.bitvantage.bitvantagecaching.testhelpers.TestRangeKey;
+import com.google.common.collect.ImmutableList;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+
+/**
+ *
+ * @author Public Transit Analytics
+ */
+public class ShardedDynamoRangedStoreTest {
+
+    private static final TestPartitionKey PARTITION
+            = new TestPartitionKey("p");
+    private static final int SHARDS = 4;
+
+    private AmazonDynamoDB client;
+    private Map<Integer, NavigableMap<String, String>> shardContents;
+
+    @Before
+    public void setUp() {
+        client = Mockito.mock(AmazonDynamoDB.class);
+        shardContents = new HashMap<>();
+        Mockito.when(client.putItem(Mockito.any(PutItemRequest.class)))
+                .thenAnswer(invocation -> {
+                    final Map<String, AttributeValue> item
+                            = ((PutItemRequest) invocation.getArgument(0))
+                                    .getItem();
+                    shardContents.computeIfAbsent(
+                            getShard(item.get("partition").getB()),
+                            shard -> new TreeMap<>())
+                            .put(new String(item.get("range").getB().array(),
+                                            StandardCharsets.UTF_8),
+                                 item.get("value").getS());
+                    return new PutItemResult();
+                });
+        Mockito.when(client.query(Mockito.any(QueryRequest.class)))
+                .thenAnswer(invocation -> {
+                    final QueryRequest request = invocation.getArgument(0);
+                    final ByteBuffer hashKey = request
+                            .getExpressionAttributeValues().get(":h").getB();
+                    NavigableMap<String, String> contents
+                            = shardContents.getOrDefault(
+                                    getShard(hashKey), new TreeMap<>());
+                    if (request.getKeyConditionExpression()
+                            .endsWith("#r > :min")) {
+                        contents = contents.tailMap(new String(
+                                request.getExpressionAttributeValues()
+                                        .get(":min").getB().array(),
+                                StandardCharsets.UTF_8), false);
+                    }
+                    final List<Map<String, AttributeValue>> items
+                            = new ArrayList<>();
+                    for (final Map.Entry<String, String> entry
+                         : contents.entrySet()) {
+                        final Map<String, AttributeValue> item
+                                = new HashMap<>();
+                        item.put("partition", new AttributeValue()
+                                .withB(hashKey));
+                        item.put("range", new AttributeValue().withB(
+                                ByteBuffer.wrap(entry.getKey().getBytes(
+                                        StandardCharsets.UTF_8))));
+                        item.put("value", new AttributeValue(
+                                entry.getValue()));
+                        items.add(item);
+                    }
+                    return new QueryResult().withItems(items)
+                            .withCount(items.size());
+                });
+    }
+
+    @Test
+    public void testShardSelectionIsStable() throws Exception {
+        final ShardedDynamoRangedStore<TestPartitionKey, TestRangeKey, String> first
+                = getStore();
+        final ShardedDynamoRangedStore<TestPartitionKey, TestRangeKey, String> second
+                = getStore();
+        final TestRangeKey range = new TestRangeKey("key");
+
+        first.put(PARTITION, range, "a");
+        second.put(PARTITION, range, "b");
+
+        final ArgumentCaptor<PutItemRequest> requests
+                = ArgumentCaptor.forClass(PutItemRequest.class);
+        Mockito.verify(client, Mockito.times(2)).putItem(requests.capture());
+        Assert.assertEquals(
+                requests.getAllValues().get(0).getItem().get("partition"),
+                requests.getAllValues().get(1).getItem().get("partition"));
+        Assert.assertEquals(1, shardContents.size());
+    }
+
+    @Test
+    public void testSpreadsRangeKeysAcrossShards() throws Exception {
+        final ShardedDynamoRangedStore<TestPartitionKey, TestRangeKey, String> store
+                = getStore();
+        for (int i = 0; i < 100; i++) {
+            store.put(PARTITION, new TestRangeKey(String.format("k%03d", i)),
+                      "v" + i);
+        }
+
+        Assert.assertEquals(SHARDS, shardContents.size());
+        final Set<String> keys = new HashSet<>();
+        for (final NavigableMap<String, String> shard
+             : shardContents.values()) {
+            keys.addAll(shard.keySet());
+        }
+        Assert.assertEquals(100, keys.size());
+    }
+
+    @Test
+    public void testMergesShardsInOrder() throws Exception {
+        final ShardedDynamoRangedStore<TestPartitionKey, TestRangeKey, String> store
+                = getStore();
+        final List<TestRangeKey> expected = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            final TestRangeKey range
+                    = new TestRangeKey(String.format("k%03d", i));
+            store.put(PARTITION, range, "v" + i);
+            expected.add(range);
+        }
+
+        final NavigableMap<TestRangeKey, String> values
+                = store.getPartition(PARTITION);
+
+        Assert.assertEquals(expected, new ArrayList<>(values.keySet()));
+        Assert.assertEquals("v17", values.get(new TestRangeKey("k017")));
+        Mockito.verify(client, Mockito.times(SHARDS))
+                .query(Mockito.any(QueryRequest.class));
+    }
+
+    @Test
+    public void testTrimsHeadToCount() throws Exception {
+        final ShardedDynamoRangedStore<TestPartitionKey, TestRangeKey, String> store
+                = getStore();
+        for (int i = 0; i < 20; i++) {
+            store.put(PARTITION, new TestRangeKey(String.format("k%03d", i)),
+                      "v" + i);
+        }
+
+        final NavigableMap<TestRangeKey, String> head
+                = store.getHeadValues(PARTITION, 3);
+        Assert.assertEquals(
+                ImmutableList.of(new TestRangeKey("k000"),
+                                 new TestRangeKey("k001"),
+                                 new TestRangeKey("k002")),
+                new ArrayList<>(head.keySet()));
+
+        final NavigableMap<TestRangeKey, String> next = store.getNextValues(
+                PARTITION, new TestRangeKey("k010"), 2);
+        Assert.assertEquals(
+                ImmutableList.of(new TestRangeKey("k011"),
+                                 new TestRangeKey("k012")),
+                new ArrayList<>(next.keySet()));
+        Assert.assertTrue(store.getHeadValues(PARTITION, 0).isEmpty());
+    }
+
+    private ShardedDynamoRangedStore<TestPartitionKey, TestRangeKey, String>
+            getStore() {
+        return new ShardedDynamoRangedStore<>(
+                client, "table", new TestDynamoRangedStoreSerializer(),
+                SHARDS, null);
+    }
+
+    private static int getShard(final ByteBuffer hashKey) {
+        return hashKey.get(hashKey.limit() - 1) & 0xff;
+    }
+
+}
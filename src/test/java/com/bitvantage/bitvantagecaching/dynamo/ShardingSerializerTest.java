@@ -0,0 +1,73 @@
+/*
+ * Copyright 2020 Public Transit Analytics.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bitvantage.bitvantagecaching.dynamo;
+
+import com.amazonaws.services.dynamodbv2.document.Item;
+import com.bitvantage.bitvantagecaching.testhelpers.TestDynamoRangedStoreSerializer;
+import com.bitvantage.bitvantagecaching.testhelpers.TestPartitionKey;
+import com.bitvantage.bitvantagecaching.testhelpers.TestRangeKey;
+import java.nio.charset.StandardCharsets;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ *
+ * @author Public Transit Analytics
+ */
+public class ShardingSerializerTest {
+
+    private static final TestPartitionKey PARTITION
+            = new TestPartitionKey("p");
+    private static final TestRangeKey RANGE = new TestRangeKey("r");
+
+    private final ShardingSerializer<TestPartitionKey, TestRangeKey, String> serializer
+            = new ShardingSerializer<>(new TestDynamoRangedStoreSerializer());
+
+    @Test
+    public void testAppendsShardByte() {
+        Assert.assertArrayEquals(
+                new byte[]{'p', 7},
+                serializer.getPartitionKey(new ShardKey<>(PARTITION, 7)));
+    }
+
+    @Test
+    public void testRoundTripsShardKey() throws Exception {
+        for (final int shard : new int[]{0, 1, 127, 128, 255}) {
+            final ShardKey<TestPartitionKey> key
+                    = new ShardKey<>(PARTITION, shard);
+            final Item item = serializer.serialize(key, RANGE, "value");
+
+            Assert.assertArrayEquals(serializer.getPartitionKey(key),
+                                     item.getBinary("partition"));
+            Assert.assertEquals(key, serializer.deserializePartitionKey(item));
+            Assert.assertEquals(RANGE, serializer.deserializeRangeKey(item));
+            Assert.assertEquals("value", serializer.deserializeValue(item));
+        }
+    }
+
+    @Test
+    public void testKeepsPartitionBytesEndingLikeAShard() throws Exception {
+        final TestPartitionKey partition = new TestPartitionKey("p\u0003");
+        final ShardKey<TestPartitionKey> key = new ShardKey<>(partition, 3);
+        final Item item = serializer.serialize(key, RANGE, "value");
+
+        Assert.assertArrayEquals(
+                "p\u0003\u0003".getBytes(StandardCharsets.UTF_8),
+                item.getBinary("partition"));
+        Assert.assertEquals(key, serializer.deserializePartitionKey(item));
+    }
+
+}
@@ -274,6 +274,42 @@ public class RangedNativeLmdbStoreTest {
         Assert.assertEquals(2, output.size());
     }
 
+    @Test
+    public void testAggregatesRange() throws Exception {
+        final RangedKeyManager<TestPartitionKey, TestRangeKey> keyManager
+                = Mockito.mock(RangedKeyManager.class);
+        final ValueSerializer<String> serializer = Mockito.mock(ValueSerializer.class);
+        final RangedNativeLmdbStore<TestPartitionKey, TestRangeKey, String> store
+                = getEmptyStore(keyManager, serializer);
+
+        final TestPartitionKey partition = new TestPartitionKey("a");
+        final TestRangeKey rangeMin = new TestRangeKey("b");
+        final TestRangeKey rangeMax = new TestRangeKey("y");
+        final TestRangeKey outsideRange = new TestRangeKey("a");
+        final TestRangeKey first = new TestRangeKey("c");
+        final TestRangeKey last = new TestRangeKey("m");
+
+        KeyValueHelpers.mockKeyOperations(keyManager, partition, rangeMin);
+        KeyValueHelpers.mockKeyOperations(keyManager, partition, rangeMax);
+        KeyValueHelpers.mockKeyOperations(keyManager, partition, outsideRange);
+        KeyValueHelpers.mockKeyOperations(keyManager, partition, first);
+        KeyValueHelpers.mockKeyOperations(keyManager, partition, last);
+        KeyValueHelpers.mockNoValue(serializer);
+
+        store.put(partition, outsideRange, "");
+        store.put(partition, first, "");
+        store.put(partition, last, "");
+
+        Assert.assertEquals(2, store.countInRange(
+                partition, rangeMin, rangeMax));
+        Assert.assertEquals(first, store.getFirstKeyInRange(
+                partition, rangeMin, rangeMax));
+        Assert.assertEquals(last, store.getLastKeyInRange(
+                partition, rangeMin, rangeMax));
+        Assert.assertEquals(Integer.valueOf(2), store.reduceInRange(
+                partition, rangeMin, rangeMax, 0, (sum, value) -> sum + 1));
+    }
+
     private RangedNativeLmdbStore<TestPartitionKey, TestRangeKey, String> getEmptyStore(
             final RangedKeyManager<TestPartitionKey, TestRangeKey> keyManager,
             final ValueSerializer<String> serializer) {
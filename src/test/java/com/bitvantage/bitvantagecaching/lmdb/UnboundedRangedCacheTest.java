@@ -18,11 +18,14 @@ package com.bitvantage.bitvantagecaching.lmdb;
 import com.bitvantage.bitvantagecaching.RangeStatus;
 import com.bitvantage.bitvantagecaching.RangedStore;
 import com.bitvantage.bitvantagecaching.UnboundedRangedCache;
+import com.bitvantage.bitvantagecaching.ValueSerializer;
+import com.bitvantage.bitvantagecaching.testhelpers.KeyValueHelpers;
 import com.bitvantage.bitvantagecaching.testhelpers.TestPartitionKey;
 import com.bitvantage.bitvantagecaching.testhelpers.TestRangeKey;
 import com.google.common.collect.ImmutableSortedMap;
 import com.google.common.collect.Range;
 import com.google.common.collect.RangeMap;
+import com.google.common.io.Files;
 import java.util.NavigableMap;
 import org.junit.Assert;
 import org.junit.Test;
@@ -176,4 +179,40 @@ public class UnboundedRangedCacheTest {
 
     }
 
+    @Test
+    public void testRestoresPersistedCoverage() throws Exception {
+        final RangedKeyManager<TestPartitionKey, TestRangeKey> keyManager
+                = Mockito.mock(RangedKeyManager.class);
+        final ValueSerializer<String> serializer
+                = Mockito.mock(ValueSerializer.class);
+        final RangedNativeLmdbStore<TestPartitionKey, TestRangeKey, String> store
+                = new RangedNativeLmdbStore<>(Files.createTempDir().toPath(),
+                                              keyManager, serializer, 1);
+
+        final TestPartitionKey partition = new TestPartitionKey("a");
+        final TestRangeKey minKey = new TestRangeKey("a");
+        final TestRangeKey midKey = new TestRangeKey("m");
+        final TestRangeKey maxKey = new TestRangeKey("z");
+
+        KeyValueHelpers.mockKeyOperations(keyManager, partition, minKey);
+        KeyValueHelpers.mockKeyOperations(keyManager, partition, midKey);
+        KeyValueHelpers.mockKeyOperations(keyManager, partition, maxKey);
+        Mockito.when(keyManager.createKeyStub(partition)).thenReturn("a::");
+        KeyValueHelpers.mockNoValue(serializer);
+
+        new UnboundedRangedCache<>(store).putRange(
+                partition, minKey, maxKey, ImmutableSortedMap.of(midKey, ""));
+
+        final UnboundedRangedCache<TestPartitionKey, TestRangeKey, String> cache
+                = new UnboundedRangedCache<>(store);
+        final RangeMap<TestRangeKey, RangeStatus<TestRangeKey, String>> output
+                = cache.getRange(partition, minKey, maxKey);
+
+        Assert.assertEquals(1, output.asMapOfRanges().size());
+        final RangeStatus<TestRangeKey, String> status
+                = output.asMapOfRanges().values().iterator().next();
+        Assert.assertTrue(status.isCached());
+        Assert.assertEquals(1, status.getValues().size());
+    }
+
 }
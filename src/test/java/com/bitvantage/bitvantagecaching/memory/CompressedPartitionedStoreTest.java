@@ -0,0 +1,75 @@
+/*
+ * Copyright 2020 Public Transit Analytics.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bitvantage.bitvantagecaching.memory;
+
+import com.bitvantage.bitvantagecaching.DeflateSerializer;
+import com.bitvantage.bitvantagecaching.StringSerializer;
+import com.bitvantage.bitvantagecaching.testhelpers.TestPartitionKey;
+import com.bitvantage.bitvantagecaching.testhelpers.TestRangeKey;
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import java.util.NavigableMap;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ *
+ * @author Public Transit Analytics
+ */
+public class CompressedPartitionedStoreTest {
+
+    private static final TestPartitionKey PARTITION
+            = new TestPartitionKey("a");
+
+    @Test
+    public void testRoundTripsLargeValues() throws Exception {
+        final CompressedPartitionedStore<TestPartitionKey, TestRangeKey, String> store
+                = getStore();
+        final String value = Strings.repeat("{\"stop\":\"value\"}", 1000);
+        store.putAll(PARTITION, ImmutableMap.of(
+                new TestRangeKey("b"), value, new TestRangeKey("c"), "c"));
+
+        final NavigableMap<TestRangeKey, String> values
+                = store.getValuesInRange(PARTITION, new TestRangeKey("a"),
+                                         new TestRangeKey("z"));
+        Assert.assertEquals(ImmutableList.of(value, "c"),
+                            ImmutableList.copyOf(values.values()));
+        Assert.assertEquals(value, store.get(PARTITION, new TestRangeKey("b")));
+    }
+
+    @Test
+    public void testGetSeesOverwriteOfHotValue() throws Exception {
+        final CompressedPartitionedStore<TestPartitionKey, TestRangeKey, String> store
+                = getStore();
+        store.put(PARTITION, new TestRangeKey("b"), "first");
+        Assert.assertEquals("first",
+                            store.get(PARTITION, new TestRangeKey("b")));
+
+        store.put(PARTITION, new TestRangeKey("b"), "second");
+        Assert.assertEquals("second",
+                            store.get(PARTITION, new TestRangeKey("b")));
+
+        store.deletePartition(PARTITION);
+        Assert.assertNull(store.get(PARTITION, new TestRangeKey("b")));
+    }
+
+    private CompressedPartitionedStore<TestPartitionKey, TestRangeKey, String> getStore() {
+        return new CompressedPartitionedStore<>(
+                new DeflateSerializer<>(new StringSerializer()), 16);
+    }
+
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright 2020 Public Transit Analytics.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bitvantage.bitvantagecaching.memory;
+
+import com.bitvantage.bitvantagecaching.LongKey;
+import com.bitvantage.bitvantagecaching.testhelpers.TestPartitionKey;
+import com.google.common.collect.ImmutableList;
+import java.util.NavigableMap;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ *
+ * @author Public Transit Analytics
+ */
+public class ConcurrentInMemoryPartitionedStoreTest {
+
+    private static final TestPartitionKey PARTITION
+            = new TestPartitionKey("a");
+
+    @Test
+    public void testGetsClosedRange() throws Exception {
+        final ConcurrentInMemoryPartitionedStore<TestPartitionKey, LongKey, String> store
+                = new ConcurrentInMemoryPartitionedStore<>();
+        for (long i = 0; i < 10; i++) {
+            store.put(PARTITION, new LongKey(i * 10), Long.toString(i));
+        }
+
+        final NavigableMap<LongKey, String> values = store.getValuesInRange(
+                PARTITION, new LongKey(20), new LongKey(50));
+        Assert.assertEquals(ImmutableList.of("2", "3", "4", "5"),
+                            ImmutableList.copyOf(values.values()));
+        Assert.assertEquals(4, store.countInRange(
+                PARTITION, new LongKey(15), new LongKey(55)));
+        Assert.assertEquals(new LongKey(20), store.getFirstKeyInRange(
+                PARTITION, new LongKey(15), new LongKey(55)));
+        Assert.assertEquals(new LongKey(50), store.getLastKeyInRange(
+                PARTITION, new LongKey(15), new LongKey(55)));
+        Assert.assertEquals(ImmutableList.of("3", "4"), ImmutableList.copyOf(
+                store.getNextValues(PARTITION, new LongKey(20), 2).values()));
+    }
+
+    @Test
+    public void testPutIfAbsentKeepsExisting() throws Exception {
+        final ConcurrentInMemoryPartitionedStore<TestPartitionKey, LongKey, String> store
+                = new ConcurrentInMemoryPartitionedStore<>();
+        Assert.assertTrue(store.putIfAbsent(PARTITION, new LongKey(1), "a"));
+        Assert.assertFalse(store.putIfAbsent(PARTITION, new LongKey(1), "b"));
+        Assert.assertEquals("a", store.get(PARTITION, new LongKey(1)));
+    }
+
+    @Test
+    public void testDeletePartitionLeavesOthers() throws Exception {
+        final ConcurrentInMemoryPartitionedStore<TestPartitionKey, LongKey, String> store
+                = new ConcurrentInMemoryPartitionedStore<>();
+        final TestPartitionKey other = new TestPartitionKey("b");
+        store.put(PARTITION, new LongKey(1), "a");
+        store.put(other, new LongKey(1), "b");
+        store.deletePartition(PARTITION);
+
+        Assert.assertTrue(store.getPartition(PARTITION).isEmpty());
+        Assert.assertNull(store.get(PARTITION, new LongKey(1)));
+        Assert.assertEquals("b", store.get(other, new LongKey(1)));
+        Assert.assertFalse(store.isEmpty());
+    }
+
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright 2020 Public Transit Analytics.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bitvantage.bitvantagecaching.memory;
+
+import com.bitvantage.bitvantagecaching.LongKey;
+import com.bitvantage.bitvantagecaching.testhelpers.TestPartitionKey;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import java.util.NavigableMap;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ *
+ * @author Public Transit Analytics
+ */
+public class InMemoryPartitionedStoreTest {
+
+    private static final TestPartitionKey PARTITION
+            = new TestPartitionKey("a");
+
+    @Test
+    public void testGetsClosedRange() throws Exception {
+        final InMemoryPartitionedStore<TestPartitionKey, LongKey, String> store
+                = new InMemoryPartitionedStore<>();
+        for (long i = 9; i >= 0; i--) {
+            store.put(PARTITION, new LongKey(i * 10), Long.toString(i));
+        }
+
+        final NavigableMap<LongKey, String> values = store.getValuesInRange(
+                PARTITION, new LongKey(20), new LongKey(50));
+        Assert.assertEquals(ImmutableList.of("2", "3", "4", "5"),
+                            ImmutableList.copyOf(values.values()));
+        Assert.assertEquals(ImmutableList.of("3", "4"), ImmutableList.copyOf(
+                store.getNextValues(PARTITION, new LongKey(20), 2).values()));
+        Assert.assertEquals(ImmutableList.of("0", "1", "2"),
+                            ImmutableList.copyOf(store.getHeadValues(
+                                    PARTITION, 3).values()));
+        Assert.assertTrue(store.getHeadValues(PARTITION, 0).isEmpty());
+    }
+
+    @Test
+    public void testAggregatesClosedRange() throws Exception {
+        final InMemoryPartitionedStore<TestPartitionKey, LongKey, String> store
+                = new InMemoryPartitionedStore<>();
+        for (long i = 0; i < 10; i++) {
+            store.put(PARTITION, new LongKey(i * 10), Long.toString(i));
+        }
+
+        Assert.assertEquals(4, store.countInRange(
+                PARTITION, new LongKey(20), new LongKey(50)));
+        Assert.assertEquals(new LongKey(20), store.getFirstKeyInRange(
+                PARTITION, new LongKey(15), new LongKey(50)));
+        Assert.assertEquals(new LongKey(50), store.getLastKeyInRange(
+                PARTITION, new LongKey(15), new LongKey(55)));
+        Assert.assertEquals("2345", store.reduceInRange(
+                PARTITION, new LongKey(20), new LongKey(50), "",
+                String::concat));
+        Assert.assertEquals(0, store.countInRange(
+                new TestPartitionKey("b"), new LongKey(0), new LongKey(99)));
+        Assert.assertNull(store.getLastKeyInRange(
+                new TestPartitionKey("b"), new LongKey(0), new LongKey(99)));
+    }
+
+    @Test
+    public void testSnapshotIsUnchangedByLaterWrites() throws Exception {
+        final InMemoryPartitionedStore<TestPartitionKey, LongKey, String> store
+                = new InMemoryPartitionedStore<>();
+        store.put(PARTITION, new LongKey(1), "1");
+        final NavigableMap<LongKey, String> snapshot
+                = store.getPartition(PARTITION);
+        Assert.assertSame(snapshot, store.getPartition(PARTITION));
+
+        store.put(PARTITION, new LongKey(2), "2");
+        store.putAll(PARTITION, ImmutableMap.of(new LongKey(1), "one"));
+
+        Assert.assertEquals(ImmutableMap.of(new LongKey(1), "1"), snapshot);
+        Assert.assertEquals(
+                ImmutableMap.of(new LongKey(1), "one", new LongKey(2), "2"),
+                store.getPartition(PARTITION));
+    }
+
+    @Test
+    public void testPutIfAbsentKeepsExisting() throws Exception {
+        final InMemoryPartitionedStore<TestPartitionKey, LongKey, String> store
+                = new InMemoryPartitionedStore<>();
+        Assert.assertTrue(store.putIfAbsent(PARTITION, new LongKey(1), "a"));
+        Assert.assertFalse(store.putIfAbsent(PARTITION, new LongKey(1), "b"));
+        Assert.assertEquals("a", store.get(PARTITION, new LongKey(1)));
+    }
+
+    @Test
+    public void testReadsWhileStaleSeeLatestWrites() throws Exception {
+        final InMemoryPartitionedStore<TestPartitionKey, LongKey, String> store
+                = new InMemoryPartitionedStore<>();
+        for (long i = 0; i < 100; i++) {
+            store.put(PARTITION, new LongKey(i), Long.toString(i));
+        }
+        for (long i = 0; i < 50; i++) {
+            store.put(PARTITION, new LongKey(i), "new" + i);
+            final NavigableMap<LongKey, String> values
+                    = store.getValuesInRange(PARTITION, new LongKey(i),
+                                             new LongKey(i + 1));
+            Assert.assertEquals(ImmutableList.of("new" + i,
+                                                 Long.toString(i + 1)),
+                                ImmutableList.copyOf(values.values()));
+        }
+        Assert.assertEquals(100, store.countInRange(
+                PARTITION, new LongKey(0), new LongKey(99)));
+        Assert.assertEquals(new LongKey(10), store.getFirstKeyInRange(
+                PARTITION, new LongKey(10), new LongKey(20)));
+        Assert.assertEquals(new LongKey(99), store.getLastKeyInRange(
+                PARTITION, new LongKey(50), new LongKey(200)));
+        Assert.assertNull(store.getFirstKeyInRange(
+                PARTITION, new LongKey(200), new LongKey(300)));
+    }
+
+    @Test
+    public void testWriteAfterDeleteIsKept() throws Exception {
+        final InMemoryPartitionedStore<TestPartitionKey, LongKey, String> store
+                = new InMemoryPartitionedStore<>();
+        store.put(PARTITION, new LongKey(1), "1");
+        final InMemoryPartitionedStore.Partition<LongKey, String> deleted
+                = store.partitionedMap.get(PARTITION);
+        store.deletePartition(PARTITION);
+        Assert.assertTrue(store.isEmpty());
+
+        store.put(PARTITION, new LongKey(2), "2");
+        Assert.assertNotSame(deleted, store.partitionedMap.get(PARTITION));
+        Assert.assertEquals(ImmutableMap.of(new LongKey(2), "2"),
+                            store.getPartition(PARTITION));
+    }
+
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright 2020 Public Transit Analytics.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bitvantage.bitvantagecaching.memory;
+
+import com.bitvantage.bitvantagecaching.LongKey;
+import com.bitvantage.bitvantagecaching.testhelpers.TestPartitionKey;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import java.util.NavigableMap;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ *
+ * @author Public Transit Analytics
+ */
+public class LongKeyPartitionedStoreTest {
+
+    private static final TestPartitionKey PARTITION
+            = new TestPartitionKey("a");
+
+    @Test
+    public void testMergesBatchIntoExistingValues() throws Exception {
+        final LongKeyPartitionedStore<TestPartitionKey, String> store
+                = new LongKeyPartitionedStore<>();
+        store.put(PARTITION, new LongKey(2), "2");
+        store.put(PARTITION, new LongKey(4), "4");
+        store.putAll(PARTITION, ImmutableMap.of(
+                new LongKey(5), "5", new LongKey(1), "1",
+                new LongKey(4), "four"));
+
+        final NavigableMap<LongKey, String> values
+                = store.getPartition(PARTITION);
+        Assert.assertEquals(ImmutableList.of("1", "2", "four", "5"),
+                            ImmutableList.copyOf(values.values()));
+    }
+
+    @Test
+    public void testGetsClosedRange() throws Exception {
+        final LongKeyPartitionedStore<TestPartitionKey, String> store
+                = new LongKeyPartitionedStore<>();
+        for (long i = 0; i < 10; i++) {
+            store.put(PARTITION, new LongKey(i * 10), Long.toString(i));
+        }
+
+        final NavigableMap<LongKey, String> values = store.getValuesInRange(
+                PARTITION, new LongKey(20), new LongKey(50));
+        Assert.assertEquals(new LongKey(20), values.firstKey());
+        Assert.assertEquals(new LongKey(50), values.lastKey());
+        Assert.assertEquals(4, values.size());
+        Assert.assertEquals(4, store.countInRange(
+                PARTITION, new LongKey(15), new LongKey(55)));
+        Assert.assertEquals(new LongKey(90), store.getLastKeyInRange(
+                PARTITION, new LongKey(-5), new LongKey(-1).getRangeMax()));
+    }
+
+    @Test
+    public void testPutIfAbsentKeepsExisting() throws Exception {
+        final LongKeyPartitionedStore<TestPartitionKey, String> store
+                = new LongKeyPartitionedStore<>();
+        Assert.assertTrue(store.putIfAbsent(PARTITION, new LongKey(1), "a"));
+        Assert.assertFalse(store.putIfAbsent(PARTITION, new LongKey(1), "b"));
+        Assert.assertEquals("a", store.get(PARTITION, new LongKey(1)));
+    }
+
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright 2020 Public Transit Analytics.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bitvantage.bitvantagecaching.memory;
+
+import com.bitvantage.bitvantagecaching.BitvantageStoreException;
+import com.bitvantage.bitvantagecaching.StringSerializer;
+import com.bitvantage.bitvantagecaching.lmdb.KeyManager;
+import com.bitvantage.bitvantagecaching.testhelpers.TestPartitionKey;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ *
+ * @author Public Transit Analytics
+ */
+public class OffHeapHashStoreTest {
+
+    private static final KeyManager<TestPartitionKey> KEY_MANAGER
+            = new KeyManager<TestPartitionKey>() {
+        @Override
+        public String createKeyString(final TestPartitionKey partition) {
+            return partition.getValue();
+        }
+
+        @Override
+        public TestPartitionKey materialize(final String keyString) {
+            return new TestPartitionKey(keyString);
+        }
+    };
+
+    @Test
+    public void testGetsPutValue() throws Exception {
+        final OffHeapHashStore<TestPartitionKey, String> store = getStore(
+                1 << 20);
+        store.put(new TestPartitionKey("a"), "value");
+
+        Assert.assertEquals("value", store.get(new TestPartitionKey("a")));
+        Assert.assertNull(store.get(new TestPartitionKey("b")));
+    }
+
+    @Test
+    public void testOverwriteReusesBlock() throws Exception {
+        final OffHeapHashStore<TestPartitionKey, String> store = getStore(
+                1024);
+        for (int i = 0; i < 1000; i++) {
+            store.put(new TestPartitionKey("a"), "value" + i);
+        }
+
+        Assert.assertEquals("value999", store.get(new TestPartitionKey("a")));
+        Assert.assertEquals(1, store.getAll().size());
+    }
+
+    @Test
+    public void testDeleteKeepsOtherKeysReachable() throws Exception {
+        final OffHeapHashStore<TestPartitionKey, String> store = getStore(
+                1 << 20);
+        for (int i = 0; i < 5000; i++) {
+            store.put(new TestPartitionKey(Integer.toString(i)),
+                      Integer.toString(i));
+        }
+        for (int i = 0; i < 5000; i += 2) {
+            store.delete(new TestPartitionKey(Integer.toString(i)));
+        }
+
+        for (int i = 0; i < 5000; i++) {
+            final TestPartitionKey key
+                    = new TestPartitionKey(Integer.toString(i));
+            Assert.assertEquals(i % 2 == 1, store.containsKey(key));
+        }
+        Assert.assertEquals(2500, store.getAll().size());
+    }
+
+    @Test(expected = BitvantageStoreException.class)
+    public void testRejectsPutBeyondCapacity() throws Exception {
+        final OffHeapHashStore<TestPartitionKey, String> store = getStore(
+                64);
+        for (int i = 0; i < 100; i++) {
+            store.put(new TestPartitionKey(Integer.toString(i)), "value");
+        }
+    }
+
+    @Test
+    public void testOverwritesInPlaceAtCapacity() throws Exception {
+        final OffHeapHashStore<TestPartitionKey, String> store = getStore(
+                64);
+        store.put(new TestPartitionKey("a"), "value");
+        store.put(new TestPartitionKey("b"), "value");
+
+        store.put(new TestPartitionKey("a"), "other");
+        store.put(new TestPartitionKey("b"), "longer value");
+
+        Assert.assertEquals("other", store.get(new TestPartitionKey("a")));
+        Assert.assertEquals("longer value",
+                            store.get(new TestPartitionKey("b")));
+    }
+
+    private OffHeapHashStore<TestPartitionKey, String> getStore(
+            final long capacity) {
+        return new OffHeapHashStore<>(KEY_MANAGER, new StringSerializer(),
+                                      64, capacity);
+    }
+
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright 2020 Public Transit Analytics.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bitvantage.bitvantagecaching.testhelpers;
+
+import com.amazonaws.services.dynamodbv2.document.Item;
+import com.bitvantage.bitvantagecaching.dynamo.DynamoRangedStoreSerializer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Stores the keys as UTF-8 binary attributes "partition" and "range", and
+ * the value as the string attribute "value".
+ *
+ * @author Public Transit Analytics
+ */
+public class TestDynamoRangedStoreSerializer implements
+        DynamoRangedStoreSerializer<TestPartitionKey, TestRangeKey, String> {
+
+    @Override
+    public byte[] getPartitionKey(final TestPartitionKey key) {
+        return key.getValue().getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public String getPartitionKeyName() {
+        return "partition";
+    }
+
+    @Override
+    public byte[] getRangeKey(final TestRangeKey key) {
+        return key.getValue().getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public String getRangeKeyName() {
+        return "range";
+    }
+
+    @Override
+    public Item serialize(final TestPartitionKey partition,
+                          final TestRangeKey range, final String value) {
+        return new Item()
+                .withBinary(getPartitionKeyName(), getPartitionKey(partition))
+                .withBinary(getRangeKeyName(), getRangeKey(range))
+                .withString("value", value);
+    }
+
+    @Override
+    public String deserializeValue(final Item item) {
+        return item.getString("value");
+    }
+
+    @Override
+    public TestRangeKey deserializeRangeKey(final Item item) {
+        return new TestRangeKey(new String(item.getBinary(getRangeKeyName()),
+                                           StandardCharsets.UTF_8));
+    }
+
+    @Override
+    public TestPartitionKey deserializePartitionKey(final Item item) {
+        return new TestPartitionKey(new String(
+                item.getBinary(getPartitionKeyName()),
+                StandardCharsets.UTF_8));
+    }
+
+}